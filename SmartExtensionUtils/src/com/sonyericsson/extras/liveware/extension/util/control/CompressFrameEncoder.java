@@ -0,0 +1,83 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sonyericsson.extras.liveware.extension.util.control;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Frame encoder using {@link Bitmap#compress(CompressFormat, int, java.io.OutputStream)}.
+ * The output buffer is kept between frames, so it only grows until it fits
+ * the largest frame. Frames are returned as views of that buffer.
+ */
+public class CompressFrameEncoder implements FrameEncoder {
+
+    // Compressed frames are typically much smaller than the raw pixels.
+    private static final int INITIAL_SIZE_RATIO = 4;
+
+    private final CompressFormat mFormat;
+
+    private final int mQuality;
+
+    private FrameOutputStream mOutputStream;
+
+    /**
+     * Output stream giving access to its buffer instead of copying it.
+     */
+    private static class FrameOutputStream extends ByteArrayOutputStream {
+
+        FrameOutputStream(final int size) {
+            super(size);
+        }
+
+        EncodedFrame frame() {
+            return new EncodedFrame(buf, count);
+        }
+    }
+
+    /**
+     * Create lossless PNG encoder.
+     */
+    public CompressFrameEncoder() {
+        this(CompressFormat.PNG, 100);
+    }
+
+    /**
+     * Create encoder.
+     *
+     * @param format The compress format. PNG ignores the quality.
+     * @param quality The quality, 0 - 100.
+     */
+    public CompressFrameEncoder(final CompressFormat format, final int quality) {
+        mFormat = format;
+        mQuality = quality;
+    }
+
+    @Override
+    public EncodedFrame encode(final Bitmap bitmap) {
+        if (mOutputStream == null) {
+            mOutputStream = new FrameOutputStream(bitmap.getRowBytes() * bitmap.getHeight()
+                    / INITIAL_SIZE_RATIO);
+        }
+        mOutputStream.reset();
+        bitmap.compress(mFormat, mQuality, mOutputStream);
+        return mOutputStream.frame();
+    }
+}
@@ -44,13 +44,11 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 
-import java.io.ByteArrayOutputStream;
-
 /**
  * The control extension handles a control on an accessory.
  */
@@ -70,6 +68,11 @@ public abstract class ControlExtension {
 
     protected final BitmapFactory.Options mBitmapOptions;
 
+    private FrameEncoder mFrameEncoder = new CompressFrameEncoder();
+
+    private long mLastEncodeTime;
+
+    private int mLastFrameSize;
 
     /**
      * Create control extension.
@@ -246,6 +249,56 @@ public abstract class ControlExtension {
 
     }
 
+    /**
+     * Set the encoder used for all images sent to the accessory. Default is
+     * lossless PNG.
+     *
+     * @param encoder The frame encoder.
+     */
+    protected void setFrameEncoder(final FrameEncoder encoder) {
+        if (encoder == null) {
+            throw new IllegalArgumentException("encoder == null");
+        }
+        mFrameEncoder = encoder;
+    }
+
+    /**
+     * Get the time it took to encode the last frame.
+     *
+     * @return The encode time in milliseconds.
+     */
+    protected long getLastEncodeTime() {
+        return mLastEncodeTime;
+    }
+
+    /**
+     * Get the size of the last encoded frame.
+     *
+     * @return The payload size in bytes.
+     */
+    protected int getLastFrameSize() {
+        return mLastFrameSize;
+    }
+
+    /**
+     * Encode a bitmap with the current frame encoder and record encode time
+     * and payload size.
+     *
+     * @param bitmap The bitmap to encode.
+     * @return The encoded image, valid until the next call.
+     */
+    protected EncodedFrame encodeFrame(final Bitmap bitmap) {
+        final long start = SystemClock.uptimeMillis();
+        final EncodedFrame frame = mFrameEncoder.encode(bitmap);
+        mLastEncodeTime = SystemClock.uptimeMillis() - start;
+        mLastFrameSize = frame.getLength();
+        if (Dbg.DEBUG) {
+            Dbg.v("encoded " + bitmap.getWidth() + "x" + bitmap.getHeight() + " frame: "
+                    + mLastFrameSize + " bytes in " + mLastEncodeTime + " ms");
+        }
+        return frame;
+    }
+
     /**
      * Send request to start to host application.
      */
@@ -283,10 +336,7 @@ public abstract class ControlExtension {
 
         Bitmap bitmap = BitmapFactory.decodeResource(mContext.getResources(), resourceId,
                 mBitmapOptions);
-        ByteArrayOutputStream os = new ByteArrayOutputStream(256);
-        bitmap.compress(CompressFormat.PNG, 100, os);
-        byte[] buffer = os.toByteArray();
-        intent.putExtra(Control.Intents.EXTRA_DATA, buffer);
+        intent.putExtra(Control.Intents.EXTRA_DATA, encodeFrame(bitmap).toByteArray());
         sendToHostApp(intent);
     }
 
@@ -300,11 +350,24 @@ public abstract class ControlExtension {
             Dbg.d("showBitmap");
         }
 
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(256);
-        bitmap.compress(CompressFormat.PNG, 100, outputStream);
+        Intent intent = new Intent(Control.Intents.CONTROL_DISPLAY_DATA_INTENT);
+        intent.putExtra(Control.Intents.EXTRA_DATA, encodeFrame(bitmap).toByteArray());
+        sendToHostApp(intent);
+    }
+
+    /**
+     * Show an already encoded full screen image on the accessory, for
+     * example a copy kept from an earlier {@link #encodeFrame(Bitmap)}.
+     *
+     * @param data The encoded image.
+     */
+    protected void showEncodedFrame(final byte[] data) {
+        if (Dbg.DEBUG) {
+            Dbg.d("showEncodedFrame " + data.length + " bytes");
+        }
 
         Intent intent = new Intent(Control.Intents.CONTROL_DISPLAY_DATA_INTENT);
-        intent.putExtra(Control.Intents.EXTRA_DATA, outputStream.toByteArray());
+        intent.putExtra(Control.Intents.EXTRA_DATA, data);
         sendToHostApp(intent);
     }
 
@@ -320,13 +383,10 @@ public abstract class ControlExtension {
             Dbg.v("showBitmap x: " + x + " y: " + y);
         }
 
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(256);
-        bitmap.compress(CompressFormat.PNG, 100, outputStream);
-
         Intent intent = new Intent(Control.Intents.CONTROL_DISPLAY_DATA_INTENT);
         intent.putExtra(Control.Intents.EXTRA_X_OFFSET, x);
         intent.putExtra(Control.Intents.EXTRA_Y_OFFSET, y);
-        intent.putExtra(Control.Intents.EXTRA_DATA, outputStream.toByteArray());
+        intent.putExtra(Control.Intents.EXTRA_DATA, encodeFrame(bitmap).toByteArray());
         sendToHostApp(intent);
     }
 
@@ -0,0 +1,77 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sonyericsson.extras.liveware.extension.util.control;
+
+/**
+ * The first {@link #getLength()} bytes of an encoder buffer. The buffer is
+ * usually larger than the frame and reused for the next frame.
+ */
+public final class EncodedFrame {
+
+    private final byte[] mData;
+
+    private final int mLength;
+
+    /**
+     * Create frame.
+     *
+     * @param data The buffer holding the frame from offset 0.
+     * @param length The frame size in bytes.
+     */
+    public EncodedFrame(final byte[] data, final int length) {
+        if (length < 0 || length > data.length) {
+            throw new IllegalArgumentException("length: " + length);
+        }
+        mData = data;
+        mLength = length;
+    }
+
+    /**
+     * Get the buffer. Only the first {@link #getLength()} bytes belong to the
+     * frame.
+     *
+     * @return The buffer, not a copy.
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * Get the frame size.
+     *
+     * @return The frame size in bytes.
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * Get the frame as an array of exactly its size, as the host application
+     * expects it in {@link com.sonyericsson.extras.liveware.aef.control.Control.Intents#EXTRA_DATA}.
+     *
+     * @return The buffer itself if it has the frame size, else a copy.
+     */
+    public byte[] toByteArray() {
+        if (mData.length == mLength) {
+            return mData;
+        }
+        final byte[] copy = new byte[mLength];
+        System.arraycopy(mData, 0, copy, 0, mLength);
+        return copy;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sonyericsson.extras.liveware.extension.util.control;
+
+import android.graphics.Bitmap;
+
+/**
+ * A frame encoder turns the bitmaps shown by a control extension into the
+ * image data sent to the host application. The data must be in a format the
+ * host application can decode.
+ */
+public interface FrameEncoder {
+
+    /**
+     * Encode a bitmap. Encoders may reuse internal buffers and are not
+     * thread safe.
+     *
+     * @param bitmap The bitmap to encode.
+     * @return The encoded image. It may be overwritten by the next call,
+     *         copy it if it is kept.
+     */
+    EncodedFrame encode(final Bitmap bitmap);
+}
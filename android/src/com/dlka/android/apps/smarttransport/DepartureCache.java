@@ -0,0 +1,162 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+
+/**
+ * Process wide cache of departure boards. Entries younger than the time to
+ * live are used as they are, older ones are still shown but refreshed in the
+ * background, entries older than the maximum age are dropped. The least
+ * recently used entry is evicted when the cache is full. Boards that were
+ * cut off after a number of upcoming departures only answer queries for at
+ * most as many.
+ */
+public class DepartureCache {
+
+	private static final int DEFAULT_MAX_ENTRIES = 50;
+	private static final long DEFAULT_TTL = 60 * 1000;
+	//gone departures are filtered when drawing, so a board stays usable for a while
+	private static final long DEFAULT_MAX_AGE = 10 * 60 * 1000;
+
+	private static DepartureCache sInstance;
+
+	static class Entry {
+		final QueryDeparturesResult result;
+		//upcoming departures the board was cut off after, 0 for the whole board
+		final int upcomingLimit;
+		final long created;
+
+		Entry(QueryDeparturesResult result, int upcomingLimit, long created)
+		{
+			this.result = result;
+			this.upcomingLimit = upcomingLimit;
+			this.created = created;
+		}
+
+		/**
+		 * @return true if the board holds what a query with the limit would return
+		 */
+		boolean covers(int upcomingLimit)
+		{
+			return this.upcomingLimit == 0 || (upcomingLimit != 0 && this.upcomingLimit >= upcomingLimit);
+		}
+	}
+
+	private static final class Key {
+		private final NetworkId network;
+		private final int stationId;
+		private final boolean equivs;
+
+		Key(NetworkId network, int stationId, boolean equivs)
+		{
+			this.network = network;
+			this.stationId = stationId;
+			this.equivs = equivs;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (o == this)
+				return true;
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return network == other.network && stationId == other.stationId && equivs == other.equivs;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = network != null ? network.hashCode() : 0;
+			hash = 31 * hash + stationId;
+			hash = 31 * hash + (equivs ? 1 : 0);
+			return hash;
+		}
+	}
+
+	private final long ttl;
+	private final long maxAge;
+	private final LinkedHashMap<Key, Entry> entries;
+
+	public static synchronized DepartureCache getInstance()
+	{
+		if(sInstance == null)
+			sInstance = new DepartureCache(DEFAULT_MAX_ENTRIES, DEFAULT_TTL, DEFAULT_MAX_AGE);
+		return sInstance;
+	}
+
+	/**
+	 * @param maxEntries number of departure boards kept
+	 * @param ttl age in milliseconds after which an entry gets refreshed
+	 * @param maxAge age in milliseconds after which an entry is not used anymore
+	 */
+	public DepartureCache(final int maxEntries, long ttl, long maxAge)
+	{
+		this.ttl = ttl;
+		this.maxAge = maxAge;
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @param upcomingLimit upcoming departures the query stops after, 0 for the whole board
+	 * @return the cached departures or null if there are none, they are too old or cut off too early
+	 */
+	public synchronized Entry get(NetworkId network, int stationId, boolean equivs, int upcomingLimit)
+	{
+		Key key = new Key(network, stationId, equivs);
+		Entry entry = entries.get(key);
+		if(entry != null && System.currentTimeMillis() - entry.created > maxAge)
+		{
+			entries.remove(key);
+			return null;
+		}
+		return entry != null && entry.covers(upcomingLimit) ? entry : null;
+	}
+
+	/**
+	 * @return true if the entry is old enough to be refreshed
+	 */
+	public boolean isStale(Entry entry)
+	{
+		return System.currentTimeMillis() - entry.created > ttl;
+	}
+
+	/**
+	 * @param upcomingLimit upcoming departures the board was cut off after, 0 for the whole board
+	 */
+	public synchronized void put(NetworkId network, int stationId, boolean equivs, int upcomingLimit, QueryDeparturesResult result)
+	{
+		entries.put(new Key(network, stationId, equivs), new Entry(result, upcomingLimit, System.currentTimeMillis()));
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import de.schildbach.pte.dto.QueryDeparturesResult;
+
+/**
+ * Departures of the nearby stations, keyed by the id of the station they
+ * were queried for. Results can arrive in any order and each station is
+ * updated on its own.
+ */
+public class DepartureStore {
+
+	static class Entry {
+		final QueryDeparturesResult result;
+		//System.currentTimeMillis() when the result was stored
+		final long updated;
+
+		Entry(QueryDeparturesResult result, long updated)
+		{
+			this.result = result;
+			this.updated = updated;
+		}
+	}
+
+	private final Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+
+	/**
+	 * Store or replace the departures of one station.
+	 */
+	public void put(int stationId, QueryDeparturesResult result)
+	{
+		entries.put(stationId, new Entry(result, System.currentTimeMillis()));
+	}
+
+	/**
+	 * @return the departures of the station or null if not loaded yet
+	 */
+	public Entry get(int stationId)
+	{
+		return entries.get(stationId);
+	}
+
+	public int size()
+	{
+		return entries.size();
+	}
+
+	public void clear()
+	{
+		entries.clear();
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.SparseArray;
+
+/**
+ * Keeps the last frame that was sent to the watch and only transfers the
+ * rectangles of a new frame that actually changed. Usually that is just the
+ * minutes column of the departure table.
+ */
+public class DirtyRegionRenderer {
+
+	interface FrameCallbacks {
+		public void showFullFrame(Bitmap frame);
+		/**
+		 * @param region reused for later regions of the same size, only valid during the call
+		 */
+		public void showPartialFrame(Bitmap region, int x, int y);
+	}
+
+	public static final String TAG = "SMT/DRR";
+
+	//dirty rows closer than this are sent as one region, every region costs an intent
+	private static final int MERGE_GAP_ROWS = 4;
+	//more regions than this and a full frame is cheaper
+	private static final int MAX_REGIONS = 4;
+	//changed area (in percent of the screen) above which a full frame is sent
+	private static final int FULL_FRAME_PERCENT = 60;
+	//region bitmaps kept for reuse, the same rectangles tend to change every minute
+	private static final int MAX_REGION_BITMAPS = MAX_REGIONS * 2;
+
+	private final FrameCallbacks callbackInterface;
+	private final int width;
+	private final int height;
+
+	private int[] previousPixels;
+	private int[] currentPixels;
+	private boolean hasPrevious = false;
+
+	//first and last changed column per row, -1 for unchanged rows
+	private final int[] rowStart;
+	private final int[] rowEnd;
+	//regions of the current frame: left, top, right, bottom (inclusive)
+	private final int[] regions = new int[MAX_REGIONS * 4];
+	//width << 16 | height -> bitmap of that size
+	private final SparseArray<Bitmap> regionBitmaps = new SparseArray<Bitmap>();
+
+	public DirtyRegionRenderer(FrameCallbacks callbackInterface, int width, int height)
+	{
+		this.callbackInterface = callbackInterface;
+		this.width = width;
+		this.height = height;
+		this.previousPixels = new int[width * height];
+		this.currentPixels = new int[width * height];
+		this.rowStart = new int[height];
+		this.rowEnd = new int[height];
+	}
+
+	/**
+	 * Forget the last frame, the next call to {@link #render(Bitmap)} sends the
+	 * whole screen. Needed whenever the watch display content is unknown, e.g.
+	 * after the extension got resumed.
+	 */
+	public void invalidate()
+	{
+		hasPrevious = false;
+	}
+
+	/**
+	 * Send the frame to the watch, only the changed parts if possible.
+	 *
+	 * @param frame bitmap with the size given in the constructor
+	 * @return false if nothing changed and nothing has been sent
+	 */
+	public boolean render(Bitmap frame)
+	{
+		frame.getPixels(currentPixels, 0, width, 0, 0, width, height);
+
+		boolean sent;
+		if(!hasPrevious)
+		{
+			callbackInterface.showFullFrame(frame);
+			sent = true;
+		}
+		else
+		{
+			sent = sendDirtyRegions(frame);
+		}
+
+		//current frame becomes the reference for the next one
+		int[] tmp = previousPixels;
+		previousPixels = currentPixels;
+		currentPixels = tmp;
+		hasPrevious = true;
+
+		return sent;
+	}
+
+	private boolean sendDirtyRegions(Bitmap frame)
+	{
+		int dirtyRows = findDirtyRows();
+		if(dirtyRows == 0)
+		{
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, "frame unchanged, nothing sent");
+			return false;
+		}
+
+		int regionCount = collectRegions();
+		if(regionCount < 0 || dirtyArea(regionCount) * 100 > width * height * FULL_FRAME_PERCENT)
+		{
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, "too many changes, sending full frame");
+			callbackInterface.showFullFrame(frame);
+			return true;
+		}
+
+		for(int r = 0; r < regionCount; r++)
+		{
+			int left = regions[r*4];
+			int top = regions[r*4+1];
+			int right = regions[r*4+2];
+			int bottom = regions[r*4+3];
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, "dirty region x: "+left+" y: "+top+" w: "+(right-left+1)+" h: "+(bottom-top+1));
+			Bitmap region = regionBitmap(right-left+1, bottom-top+1, frame.getConfig());
+			//copied from the pixels of the frame read above, the frame bitmap is not touched again
+			region.setPixels(currentPixels, top*width+left, width, 0, 0, right-left+1, bottom-top+1);
+			callbackInterface.showPartialFrame(region, left, top);
+		}
+		return true;
+	}
+
+	/**
+	 * @return a bitmap of the size, reused between frames
+	 */
+	private Bitmap regionBitmap(int regionWidth, int regionHeight, Bitmap.Config config)
+	{
+		int key = regionWidth << 16 | regionHeight;
+		Bitmap region = regionBitmaps.get(key);
+		if(region != null)
+			return region;
+
+		if(regionBitmaps.size() >= MAX_REGION_BITMAPS)
+		{
+			for(int i = 0; i < regionBitmaps.size(); i++)
+				regionBitmaps.valueAt(i).recycle();
+			regionBitmaps.clear();
+		}
+		region = Bitmap.createBitmap(regionWidth, regionHeight, config);
+		regionBitmaps.put(key, region);
+		return region;
+	}
+
+	/**
+	 * Compares every row of the current frame with the previous one.
+	 *
+	 * @return number of changed rows
+	 */
+	private int findDirtyRows()
+	{
+		int dirtyRows = 0;
+		for(int y = 0; y < height; y++)
+		{
+			int rowOffset = y * width;
+			int start = -1;
+			for(int x = 0; x < width; x++)
+			{
+				if(currentPixels[rowOffset+x] != previousPixels[rowOffset+x])
+				{
+					start = x;
+					break;
+				}
+			}
+			rowStart[y] = start;
+			rowEnd[y] = -1;
+			if(start < 0)
+				continue;
+
+			for(int x = width-1; x >= start; x--)
+			{
+				if(currentPixels[rowOffset+x] != previousPixels[rowOffset+x])
+				{
+					rowEnd[y] = x;
+					break;
+				}
+			}
+			dirtyRows++;
+		}
+		return dirtyRows;
+	}
+
+	/**
+	 * Merges changed rows into bounding rectangles.
+	 *
+	 * @return number of regions or -1 if there are more than {@link #MAX_REGIONS}
+	 */
+	private int collectRegions()
+	{
+		int count = 0;
+		int lastDirtyRow = -1;
+		for(int y = 0; y < height; y++)
+		{
+			if(rowStart[y] < 0)
+				continue;
+
+			if(count > 0 && y - lastDirtyRow <= MERGE_GAP_ROWS)
+			{
+				//extend current region
+				int r = (count-1)*4;
+				regions[r] = Math.min(regions[r], rowStart[y]);
+				regions[r+2] = Math.max(regions[r+2], rowEnd[y]);
+				regions[r+3] = y;
+			}
+			else
+			{
+				if(count == MAX_REGIONS)
+					return -1;
+				int r = count*4;
+				regions[r] = rowStart[y];
+				regions[r+1] = y;
+				regions[r+2] = rowEnd[y];
+				regions[r+3] = y;
+				count++;
+			}
+			lastDirtyRow = y;
+		}
+		return count;
+	}
+
+	private int dirtyArea(int regionCount)
+	{
+		int area = 0;
+		for(int r = 0; r < regionCount; r++)
+			area += (regions[r*4+2]-regions[r*4]+1) * (regions[r*4+3]-regions[r*4+1]+1);
+		return area;
+	}
+}
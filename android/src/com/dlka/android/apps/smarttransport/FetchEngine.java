@@ -0,0 +1,285 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import de.schildbach.pte.NetworkId;
+
+/**
+ * Runs network queries with a fixed number of worker threads. Jobs are
+ * started by priority among those whose network provider is below its limit
+ * of parallel requests, and jobs of an outdated generation are dropped
+ * without hitting the network. Running jobs check {@link Job#isStale()} to
+ * stop early. Results are delivered on the main thread.
+ */
+public class FetchEngine {
+
+	public static final String TAG = "SMT/FE";
+
+	private static final int DEFAULT_MAX_CONCURRENT = 4;
+	private static final int DEFAULT_MAX_PER_HOST = 2;
+
+	private static FetchEngine sInstance;
+
+	/**
+	 * A single query. {@link #fetch()} runs on a worker thread,
+	 * {@link #deliver(Object)} on the main thread and only if the generation
+	 * the job was created in is still current. A fetch that can stop in the
+	 * middle, e.g. while streaming a response, should do so once the job
+	 * is stale.
+	 */
+	static abstract class Job<Result> {
+		private final NetworkId network;
+		private final int priority;
+		private final Generation generation;
+		private final int generationValue;
+		private FetchEngine engine;
+
+		/**
+		 * @param network provider the job talks to, used for the per host limit
+		 * @param priority lower values are fetched first
+		 * @param generation the job is dropped as soon as this generation advances
+		 */
+		Job(NetworkId network, int priority, Generation generation)
+		{
+			this.network = network;
+			this.priority = priority;
+			this.generation = generation;
+			this.generationValue = generation.current();
+		}
+
+		abstract Result fetch();
+
+		abstract void deliver(Result result);
+
+		/**
+		 * Hand an intermediate result to {@link #deliver(Object)} while
+		 * {@link #fetch()} is still running. Only to be called from fetch(),
+		 * the final result is delivered after it as usual.
+		 */
+		void publish(Result partial)
+		{
+			if(isStale())
+				return;
+			engine.post(this, partial);
+		}
+
+		boolean isStale()
+		{
+			return generation.current() != generationValue;
+		}
+	}
+
+	/**
+	 * Counter to invalidate all jobs submitted so far, e.g. when a newer
+	 * location fix comes in.
+	 */
+	static class Generation {
+		private final AtomicInteger value = new AtomicInteger();
+
+		int current()
+		{
+			return value.get();
+		}
+
+		int advance()
+		{
+			return value.incrementAndGet();
+		}
+	}
+
+	private final ExecutorService mExecutor;
+	private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+	private final int mMaxConcurrent;
+	private final int mMaxPerHost;
+	private final Map<NetworkId, Integer> mHostLimits = new EnumMap<NetworkId, Integer>(NetworkId.class);
+	//guarded by mPending
+	private final TreeSet<Task> mPending = new TreeSet<Task>();
+	private final Map<NetworkId, Integer> mRunningPerHost = new EnumMap<NetworkId, Integer>(NetworkId.class);
+	private int mRunning = 0;
+	private final AtomicLong mSequence = new AtomicLong();
+
+	public static synchronized FetchEngine getInstance()
+	{
+		if(sInstance == null)
+			sInstance = new FetchEngine(DEFAULT_MAX_CONCURRENT, DEFAULT_MAX_PER_HOST);
+		return sInstance;
+	}
+
+	/**
+	 * @param maxConcurrent number of worker threads
+	 * @param maxPerHost maximum parallel requests to one network provider
+	 */
+	public FetchEngine(int maxConcurrent, int maxPerHost)
+	{
+		this.mMaxConcurrent = maxConcurrent;
+		this.mMaxPerHost = maxPerHost;
+		mExecutor = Executors.newFixedThreadPool(maxConcurrent, new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "FetchEngine #" + mCount.getAndIncrement());
+			}
+		});
+	}
+
+	/**
+	 * Override the number of parallel requests for one network provider.
+	 */
+	public void setHostLimit(NetworkId network, int limit)
+	{
+		synchronized (mPending) {
+			mHostLimits.put(network, limit);
+		}
+		dispatch();
+	}
+
+	void submit(Job<?> job)
+	{
+		synchronized (mPending) {
+			mPending.add(new Task(job, mSequence.getAndIncrement()));
+		}
+		dispatch();
+	}
+
+	/**
+	 * Start the most important pending jobs whose network provider has a
+	 * free slot. Jobs stay in the queue until they can run, so a job waiting
+	 * for its host never holds a worker that a more important job of
+	 * another host could use.
+	 */
+	private void dispatch()
+	{
+		synchronized (mPending) {
+			Iterator<Task> pending = mPending.iterator();
+			while (mRunning < mMaxConcurrent && pending.hasNext())
+			{
+				Task task = pending.next();
+				if(task.job.isStale())
+				{
+					if(BuildConfig.DEBUG)
+						Log.d(TAG, "dropping stale job before fetch");
+					pending.remove();
+					continue;
+				}
+				int running = runningPerHost(task.job.network);
+				if(running >= hostLimit(task.job.network))
+					continue;
+
+				pending.remove();
+				mRunningPerHost.put(task.job.network, running + 1);
+				mRunning++;
+				mExecutor.execute(task);
+			}
+		}
+	}
+
+	private void finished(Job<?> job)
+	{
+		synchronized (mPending) {
+			mRunningPerHost.put(job.network, runningPerHost(job.network) - 1);
+			mRunning--;
+		}
+		dispatch();
+	}
+
+	//called with the lock on mPending
+	private int hostLimit(NetworkId network)
+	{
+		Integer limit = mHostLimits.get(network);
+		return limit != null ? limit : mMaxPerHost;
+	}
+
+	//called with the lock on mPending
+	private int runningPerHost(NetworkId network)
+	{
+		Integer running = mRunningPerHost.get(network);
+		return running != null ? running : 0;
+	}
+
+	private <Result> void runJob(final Job<Result> job)
+	{
+		final Result result;
+		try {
+			//might have become stale since it was dispatched
+			if(job.isStale())
+				return;
+			job.engine = this;
+			result = job.fetch();
+		} finally {
+			finished(job);
+		}
+
+		post(job, result);
+	}
+
+	private <Result> void post(final Job<Result> job, final Result result)
+	{
+		mMainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if(job.isStale())
+				{
+					if(BuildConfig.DEBUG)
+						Log.d(TAG, "dropping stale result");
+					return;
+				}
+				job.deliver(result);
+			}
+		});
+	}
+
+	private class Task implements Runnable, Comparable<Task> {
+		private final Job<?> job;
+		private final long sequence;
+
+		Task(Job<?> job, long sequence)
+		{
+			this.job = job;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public void run() {
+			Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+			runJob(job);
+		}
+
+		@Override
+		public int compareTo(Task other) {
+			if(job.priority != other.job.priority)
+				return job.priority < other.job.priority ? -1 : 1;
+			//same priority: first come, first served
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+}
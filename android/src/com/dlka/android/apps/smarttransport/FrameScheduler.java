@@ -0,0 +1,127 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Merges redraw requests into at most one frame per interval. All requests
+ * arriving while a frame is pending are served by that single frame.
+ */
+public class FrameScheduler {
+
+	public static final String TAG = "SMT/FS";
+
+	private final Handler mHandler;
+	private final Runnable mFrameCallback;
+	private long mFrameInterval;
+
+	private long mLastFrameTime = 0;
+	private boolean mFramePending = false;
+	private boolean mHasContentHash = false;
+	private int mLastContentHash;
+	private int mMergedRequests;
+
+	private final Runnable mFrameRunnable = new Runnable() {
+		@Override
+		public void run() {
+			mFramePending = false;
+			mLastFrameTime = SystemClock.uptimeMillis();
+			if(BuildConfig.DEBUG && mMergedRequests > 0)
+				Log.d(TAG, "merged "+mMergedRequests+" redraw requests into one frame");
+			mMergedRequests = 0;
+			mFrameCallback.run();
+		}
+	};
+
+	/**
+	 * @param handler handler the frames are drawn on
+	 * @param frameInterval minimum time between two frames in milliseconds
+	 * @param frameCallback draws the frame
+	 */
+	public FrameScheduler(Handler handler, long frameInterval, Runnable frameCallback)
+	{
+		if (handler == null) {
+			throw new IllegalArgumentException("handler == null");
+		}
+		this.mHandler = handler;
+		this.mFrameInterval = frameInterval;
+		this.mFrameCallback = frameCallback;
+	}
+
+	public void setFrameInterval(long frameInterval)
+	{
+		this.mFrameInterval = frameInterval;
+	}
+
+	/**
+	 * Request a new frame. Does nothing if a frame is already pending, otherwise
+	 * the frame is drawn as soon as the frame interval allows it.
+	 */
+	public void requestFrame()
+	{
+		if(mFramePending)
+		{
+			mMergedRequests++;
+			return;
+		}
+		mFramePending = true;
+		long delay = Math.max(0, mLastFrameTime + mFrameInterval - SystemClock.uptimeMillis());
+		mHandler.postDelayed(mFrameRunnable, delay);
+	}
+
+	/**
+	 * Drop a pending frame, e.g. when the extension got paused.
+	 */
+	public void cancel()
+	{
+		mHandler.removeCallbacks(mFrameRunnable);
+		mFramePending = false;
+		mMergedRequests = 0;
+	}
+
+	/**
+	 * Check if the content of a frame differs from the last one that was drawn.
+	 * Remembers the hash, so calling this means the frame will be drawn.
+	 *
+	 * @param contentHash hash of everything the frame shows
+	 * @return false if the frame shows the same as the last one
+	 */
+	public boolean contentChanged(int contentHash)
+	{
+		if(mHasContentHash && contentHash == mLastContentHash)
+		{
+			if(BuildConfig.DEBUG)
+				Log.d(TAG, "content unchanged, skipping frame");
+			return false;
+		}
+		mLastContentHash = contentHash;
+		mHasContentHash = true;
+		return true;
+	}
+
+	/**
+	 * Forget the last content hash, the next frame is drawn in any case.
+	 */
+	public void invalidate()
+	{
+		mHasContentHash = false;
+	}
+}
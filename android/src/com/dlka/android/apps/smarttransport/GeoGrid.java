@@ -0,0 +1,48 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport;
+
+/**
+ * Fixed grid over latitude/longitude in micro degrees, used to index
+ * locations for nearby lookups.
+ */
+final class GeoGrid {
+
+	//about 550m in latitude, lookups search the 3x3 cells around a location
+	static final int CELL_SIZE = 5000;
+
+	private GeoGrid()
+	{
+	}
+
+	static int cell(int microDegrees)
+	{
+		//round towards negative infinity, also for the western and southern hemisphere
+		return (int) Math.floor(microDegrees / (double) CELL_SIZE);
+	}
+
+	static long cellKey(int cellLat, int cellLon)
+	{
+		return ((long) cellLat << 32) | (cellLon & 0xffffffffL);
+	}
+
+	static long cellKeyOf(int lat, int lon)
+	{
+		return cellKey(cell(lat), cell(lon));
+	}
+}
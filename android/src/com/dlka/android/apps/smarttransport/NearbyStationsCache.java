@@ -0,0 +1,305 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.util.Log;
+import de.schildbach.pte.LocationUtils;
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyStationsResult;
+
+/**
+ * Stores nearby stations results on disk, one file per network provider.
+ * Queries are indexed by grid cell, a location close enough to an earlier
+ * query is answered without network access.
+ */
+public class NearbyStationsCache {
+
+	public static final String TAG = "SMT/NSC";
+
+	private static final int FILE_VERSION = 1;
+	private static final String FILE_PREFIX = "nearby_";
+	private static final int DEFAULT_RADIUS = 150;
+	private static final long DEFAULT_TTL = 7L * 24 * 60 * 60 * 1000;
+	private static final int MAX_ENTRIES_PER_PROVIDER = 200;
+
+	private static NearbyStationsCache sInstance;
+
+	private static class Entry {
+		final int lat, lon;
+		final long created;
+		final List<Location> stations;
+
+		Entry(int lat, int lon, long created, List<Location> stations)
+		{
+			this.lat = lat;
+			this.lon = lon;
+			this.created = created;
+			this.stations = stations;
+		}
+	}
+
+	private static class ProviderCache {
+		final List<Entry> entries = new ArrayList<Entry>();
+		final Map<Long, List<Entry>> cells = new HashMap<Long, List<Entry>>();
+	}
+
+	private final File directory;
+	private final int radius;
+	private final long ttl;
+	private final Map<NetworkId, ProviderCache> providers = new EnumMap<NetworkId, ProviderCache>(NetworkId.class);
+
+	public static synchronized NearbyStationsCache getInstance(Context context)
+	{
+		if(sInstance == null)
+			sInstance = new NearbyStationsCache(context.getApplicationContext().getCacheDir(), DEFAULT_RADIUS, DEFAULT_TTL);
+		return sInstance;
+	}
+
+	/**
+	 * @param directory where the cache files are stored
+	 * @param radius distance in meters within which a cached query is reused
+	 * @param ttl age in milliseconds after which a cached query is not used anymore
+	 */
+	public NearbyStationsCache(File directory, int radius, long ttl)
+	{
+		this.directory = directory;
+		this.radius = radius;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * @param lat latitude in micro degrees
+	 * @param lon longitude in micro degrees
+	 * @return copy of the stations of a cached query close to the location, or null
+	 */
+	public synchronized NearbyStationsResult get(NetworkId network, int lat, int lon)
+	{
+		ProviderCache cache = load(network);
+		long now = System.currentTimeMillis();
+		//the grid cell size must be larger than the radius
+		int cellLat = GeoGrid.cell(lat);
+		int cellLon = GeoGrid.cell(lon);
+		Entry best = null;
+		float bestDistance = radius;
+		for(int dLat = -1; dLat <= 1; dLat++)
+		{
+			for(int dLon = -1; dLon <= 1; dLon++)
+			{
+				List<Entry> entries = cache.cells.get(GeoGrid.cellKey(cellLat + dLat, cellLon + dLon));
+				if(entries == null)
+					continue;
+				for(Entry entry : entries)
+				{
+					if(now - entry.created > ttl)
+						continue;
+					float distance = LocationUtils.computeDistance(lat / 1E6, lon / 1E6, entry.lat / 1E6, entry.lon / 1E6);
+					if(distance <= bestDistance)
+					{
+						best = entry;
+						bestDistance = distance;
+					}
+				}
+			}
+		}
+		if(best == null)
+			return null;
+		if(BuildConfig.DEBUG)
+			Log.d(TAG, "cache hit for "+network+", "+bestDistance+"m from cached query");
+		//callers own the result, the entry stays as it was stored
+		return new NearbyStationsResult(null, new ArrayList<Location>(best.stations));
+	}
+
+	/**
+	 * Remember the stations found near a location.
+	 */
+	public synchronized void put(NetworkId network, int lat, int lon, List<Location> stations)
+	{
+		ProviderCache cache = load(network);
+		long now = System.currentTimeMillis();
+		//drop expired entries and the oldest ones if there are too many
+		List<Entry> keep = new ArrayList<Entry>(cache.entries.size() + 1);
+		for(Entry entry : cache.entries)
+		{
+			if(now - entry.created <= ttl)
+				keep.add(entry);
+		}
+		keep.add(new Entry(lat, lon, now, new ArrayList<Location>(stations)));
+		if(keep.size() > MAX_ENTRIES_PER_PROVIDER)
+			keep = keep.subList(keep.size() - MAX_ENTRIES_PER_PROVIDER, keep.size());
+		index(cache, keep);
+		save(network, cache);
+	}
+
+	/**
+	 * Forget everything cached for one network provider.
+	 */
+	public synchronized void invalidate(NetworkId network)
+	{
+		providers.remove(network);
+		if(!file(network).delete() && BuildConfig.DEBUG)
+			Log.d(TAG, "no cache file to delete for "+network);
+	}
+
+	private ProviderCache load(NetworkId network)
+	{
+		ProviderCache cache = providers.get(network);
+		if(cache != null)
+			return cache;
+
+		cache = new ProviderCache();
+		providers.put(network, cache);
+		File file = file(network);
+		if(!file.exists())
+			return cache;
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if(in.readInt() != FILE_VERSION)
+				return cache;
+			int count = in.readInt();
+			List<Entry> entries = new ArrayList<Entry>(count);
+			for(int i = 0; i < count; i++)
+			{
+				int lat = in.readInt();
+				int lon = in.readInt();
+				long created = in.readLong();
+				int stationCount = in.readInt();
+				List<Location> stations = new ArrayList<Location>(stationCount);
+				for(int s = 0; s < stationCount; s++)
+					stations.add(readLocation(in));
+				entries.add(new Entry(lat, lon, created, stations));
+			}
+			index(cache, entries);
+		} catch (IOException e) {
+			Log.w(TAG, "could not read nearby stations cache of "+network, e);
+		} finally {
+			closeQuietly(in);
+		}
+		return cache;
+	}
+
+	private void save(NetworkId network, ProviderCache cache)
+	{
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file(network))));
+			out.writeInt(FILE_VERSION);
+			out.writeInt(cache.entries.size());
+			for(Entry entry : cache.entries)
+			{
+				out.writeInt(entry.lat);
+				out.writeInt(entry.lon);
+				out.writeLong(entry.created);
+				out.writeInt(entry.stations.size());
+				for(Location station : entry.stations)
+					writeLocation(out, station);
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "could not write nearby stations cache of "+network, e);
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	private void index(ProviderCache cache, List<Entry> entries)
+	{
+		List<Entry> copy = new ArrayList<Entry>(entries);
+		cache.entries.clear();
+		cache.cells.clear();
+		for(Entry entry : copy)
+		{
+			cache.entries.add(entry);
+			Long key = GeoGrid.cellKeyOf(entry.lat, entry.lon);
+			List<Entry> cell = cache.cells.get(key);
+			if(cell == null)
+			{
+				cell = new ArrayList<Entry>(2);
+				cache.cells.put(key, cell);
+			}
+			cell.add(entry);
+		}
+	}
+
+	private File file(NetworkId network)
+	{
+		return new File(directory, FILE_PREFIX + network.name());
+	}
+
+	static void writeLocation(DataOutputStream out, Location location) throws IOException
+	{
+		out.writeByte(location.type.ordinal());
+		out.writeInt(location.id);
+		out.writeInt(location.lat);
+		out.writeInt(location.lon);
+		writeString(out, location.place);
+		writeString(out, location.name);
+	}
+
+	static Location readLocation(DataInputStream in) throws IOException
+	{
+		LocationType type = LocationType.values()[in.readByte()];
+		int id = in.readInt();
+		int lat = in.readInt();
+		int lon = in.readInt();
+		String place = readString(in);
+		String name = readString(in);
+		return new Location(type, id, lat, lon, place, name);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		out.writeBoolean(value != null);
+		if(value != null)
+			out.writeUTF(value);
+	}
+
+	private static String readString(DataInputStream in) throws IOException
+	{
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void closeQuietly(Closeable closeable)
+	{
+		if(closeable == null)
+			return;
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			//nothing we can do
+		}
+	}
+}
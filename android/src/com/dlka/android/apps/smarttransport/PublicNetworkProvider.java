@@ -34,83 +34,261 @@ package com.dlka.android.apps.smarttransport;
  */
 //sad provider deleted.build problems.readd later //TODO
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import android.content.Context;
 import android.location.Location;
-import android.os.AsyncTask;
 import android.util.Log;
+import de.schildbach.pte.NetworkId;
 import de.schildbach.pte.NetworkProvider;
+import de.schildbach.pte.SingleFlightNetworkProvider;
 import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.LineDestination;
 import de.schildbach.pte.dto.LocationType;
 import de.schildbach.pte.dto.NearbyStationsResult;
 import de.schildbach.pte.dto.QueryDeparturesResult;
 import de.schildbach.pte.dto.StationDepartures;
+import de.schildbach.pte.util.CachingTransport;
+import de.schildbach.pte.util.HttpTransport;
+import de.schildbach.pte.util.HttpUrlConnectionTransport;
+import de.schildbach.pte.util.KeepAlivePool;
+import de.schildbach.pte.util.ParserUtils;
 import org.acra.ACRA;
 
 public class PublicNetworkProvider {
 
 	interface ResultCallbacks {
 		public void nearbyStationsReceived(NearbyStationsResult result);
-		public void departuresReceived(QueryDeparturesResult result);
+		public void departuresReceived(int stationId, QueryDeparturesResult result);
 	}
 
+	//nearby stations are more important than any departures
+	private static final int PRIORITY_NEARBY_STATIONS = -1;
+	private static final int QUERY_MAX_DEPARTURES = 15;
+	private static final boolean QUERY_EQUIVS = true;
+	//the watch shows about this many rows of a station, they are delivered before the whole board is parsed
+	private static final int PARTIAL_DEPARTURES = 3;
+	//first screen and one scroll, the query stops reading after that many upcoming departures
+	private static final int QUERY_UPCOMING_DEPARTURES = 6;
+	//no limit, the whole board
+	private static final int QUERY_ALL_DEPARTURES = 0;
+
+	//shared by all instances, identical queries of restarted extensions and activities are merged
+	private static final Map<NetworkId, SingleFlightNetworkProvider> sSingleFlight = new EnumMap<NetworkId, SingleFlightNetworkProvider>(NetworkId.class);
+
 	private ResultCallbacks callbackInterface;
-	private NetworkProvider networkProvider;
+	private SingleFlightNetworkProvider networkProvider;
 	private FetchNearByStationsTask fnbst;
-	//private FetchDepaturesTask fetchDepaturesTask = null;
+	private final FetchEngine fetchEngine;
+	private final FetchEngine.Generation generation = new FetchEngine.Generation();
+	private final DepartureCache departureCache;
+	private final NearbyStationsCache nearbyStationsCache;
+	private final StationIndex stationIndex;
 
-	public PublicNetworkProvider(ResultCallbacks callbackInterface, NetworkProvider networkProvider)
+	public PublicNetworkProvider(Context context, ResultCallbacks callbackInterface, NetworkProvider networkProvider)
 	{
 		this.callbackInterface = callbackInterface;
-		this.networkProvider = networkProvider;
+		this.networkProvider = singleFlight(networkProvider);
+		this.fetchEngine = FetchEngine.getInstance();
+		this.departureCache = DepartureCache.getInstance();
+		this.nearbyStationsCache = NearbyStationsCache.getInstance(context);
+		this.stationIndex = StationIndex.getInstance(context);
+	}
+
+	/**
+	 * Log the estimated new and reused connections per host of the transport behind the cache.
+	 */
+	private static void logConnectionStats(String tag)
+	{
+		HttpTransport transport = ParserUtils.getTransport();
+		if(transport instanceof CachingTransport)
+			transport = ((CachingTransport) transport).getDelegate();
+		if(transport instanceof HttpUrlConnectionTransport)
+			for (KeepAlivePool.HostStats stats : ((HttpUrlConnectionTransport) transport).getPool().estimatedStats())
+				Log.v(tag, "estimated connections "+stats);
+	}
+
+	private static synchronized SingleFlightNetworkProvider singleFlight(NetworkProvider networkProvider)
+	{
+		SingleFlightNetworkProvider shared = sSingleFlight.get(networkProvider.id());
+		if(shared == null)
+		{
+			shared = new SingleFlightNetworkProvider(networkProvider);
+			sSingleFlight.put(networkProvider.id(), shared);
+		}
+		return shared;
 	}
 
 	public boolean getNearbyStations(Location location) {
 		if(fnbst != null) //we already search
 			return false;
-		fnbst = new FetchNearByStationsTask();
+		//new location, departures of the old stations are not needed anymore
+		generation.advance();
 		if(location != null)
-			fnbst.execute(location);
+		{
+			fnbst = new FetchNearByStationsTask(location);
+			fetchEngine.submit(fnbst);
+		}
 		return true;
 	}
 
+	/**
+	 * Abandon all queries that have not been delivered yet.
+	 */
+	public void cancel() {
+		generation.advance();
+		fnbst = null;
+	}
+
 	private void recievedStations(NearbyStationsResult result) {
 		if(this.callbackInterface != null)
 			this.callbackInterface.nearbyStationsReceived(result);
         this.fnbst = null;
 	}
 
-	private void recievedDepatures(QueryDeparturesResult result) {
+	private void recievedDepatures(int stationId, QueryDeparturesResult result) {
 		if(this.callbackInterface != null)
-			this.callbackInterface.departuresReceived(result);
+			this.callbackInterface.departuresReceived(stationId, result);
 
 	}
 
 
-	public void getDepatures(de.schildbach.pte.dto.Location station)
+	/**
+	 * Fetch departures of a station. Cached departures are delivered right
+	 * away and only refreshed if they are older than the cache TTL.
+	 *
+	 * @param station the station
+	 * @param priority lower values are fetched first, e.g. the distance to the station shown on the watch
+	 */
+	public void getDepatures(de.schildbach.pte.dto.Location station, int priority)
 	{
-		FetchDepaturesTask fetchDepaturesTask;
-		fetchDepaturesTask = new FetchDepaturesTask();
-		fetchDepaturesTask.execute(station);
+		if(deliverCached(station, QUERY_UPCOMING_DEPARTURES))
+			return;
+		fetchEngine.submit(new FetchDepaturesTask(station, priority, QUERY_UPCOMING_DEPARTURES));
 	}
 
+	/**
+	 * Fetch departures of several stations, with as few requests as the
+	 * network provider allows. Providers without a batch query get one job
+	 * per station. Cached departures are handled as in
+	 * {@link #getDepatures(de.schildbach.pte.dto.Location, int)}.
+	 *
+	 * @param stations the stations
+	 * @param priority lower values are fetched first
+	 */
+	public void getDepatures(List<de.schildbach.pte.dto.Location> stations, int priority)
+	{
+		List<de.schildbach.pte.dto.Location> fetch = new ArrayList<de.schildbach.pte.dto.Location>(stations.size());
+		for (de.schildbach.pte.dto.Location station : stations) {
+			if(!deliverCached(station, QUERY_UPCOMING_DEPARTURES))
+				fetch.add(station);
+		}
+		if(fetch.size() > 1 && networkProvider.canBatchDepartures())
+			fetchEngine.submit(new FetchBatchDepaturesTask(fetch, priority));
+		else
+		{
+			//one job per station, they stream and run in parallel up to the per host limit
+			for (de.schildbach.pte.dto.Location station : fetch)
+				fetchEngine.submit(new FetchDepaturesTask(station, priority, QUERY_UPCOMING_DEPARTURES));
+		}
+	}
 
-	class FetchNearByStationsTask extends AsyncTask<Location, Void, NearbyStationsResult>
+	/**
+	 * @param upcomingLimit upcoming departures the caller needs, 0 for the whole board
+	 * @return true if cached departures were delivered and do not need a refresh
+	 */
+	private boolean deliverCached(de.schildbach.pte.dto.Location station, int upcomingLimit)
+	{
+		DepartureCache.Entry cached = departureCache.get(networkProvider.id(), station.id, QUERY_EQUIVS, upcomingLimit);
+		if(cached == null)
+			return false;
+		recievedDepatures(station.id, cached.result);
+		if(!departureCache.isStale(cached))
+			return true;
+		if(BuildConfig.DEBUG)
+			Log.d(FetchDepaturesTask.TAG, "refreshing cached departures of "+station.id);
+		return false;
+	}
+
+	/**
+	 * Keep fetched departures for later queries.
+	 *
+	 * @param upcomingLimit upcoming departures the board was cut off after, 0 for the whole board
+	 */
+	private void storeDepartures(int stationId, int upcomingLimit, QueryDeparturesResult qdr)
+	{
+		if(qdr.status == QueryDeparturesResult.Status.OK)
+		{
+			departureCache.put(networkProvider.id(), stationId, QUERY_EQUIVS, upcomingLimit, qdr);
+			for (StationDepartures stationDepartures : qdr.stationDepartures)
+				stationIndex.addStations(networkProvider.id(), Collections.singletonList(stationDepartures.location));
+		}
+		else if(qdr.status == QueryDeparturesResult.Status.INVALID_STATION)
+		{
+			//station list of this provider is outdated
+			nearbyStationsCache.invalidate(networkProvider.id());
+			stationIndex.invalidate(networkProvider.id());
+		}
+	}
+
+	/**
+	 * Fetch the whole departure board of a station, e.g. when the user
+	 * scrolls past the departures of the first query. Cached boards are only
+	 * used if they were not cut off.
+	 *
+	 * @param station the station
+	 */
+	public void getMoreDepatures(de.schildbach.pte.dto.Location station)
+	{
+		if(deliverCached(station, QUERY_ALL_DEPARTURES))
+			return;
+		//the user is waiting for this one
+		fetchEngine.submit(new FetchDepaturesTask(station, 0, QUERY_ALL_DEPARTURES));
+	}
+
+
+	class FetchNearByStationsTask extends FetchEngine.Job<NearbyStationsResult>
 	{
 		public static final String TAG = "SMT/FNBST";
 		private static final int MAX_STATIONS = 10;
 
+		private final Location location;
+
+		FetchNearByStationsTask(Location location)
+		{
+			super(networkProvider.id(), PRIORITY_NEARBY_STATIONS, generation);
+			this.location = location;
+		}
+
 		@Override
-		protected NearbyStationsResult doInBackground(Location... params) {
+		NearbyStationsResult fetch() {
 
 			if(BuildConfig.DEBUG)
 				Log.v(TAG, "fetching stations....");
-			de.schildbach.pte.dto.Location pteLoc = new de.schildbach.pte.dto.Location(LocationType.ANY, (int)(params[0].getLatitude()*1E6), (int)(params[0].getLongitude()*1E6));
+			de.schildbach.pte.dto.Location pteLoc = new de.schildbach.pte.dto.Location(LocationType.ANY, (int)(location.getLatitude()*1E6), (int)(location.getLongitude()*1E6));
+			NearbyStationsResult cached = nearbyStationsCache.get(networkProvider.id(), pteLoc.lat, pteLoc.lon);
+			if(cached != null)
+				return cached;
+			//area might be known from other queries
+			NearbyStationsResult local = stationIndex.queryNearbyStations(networkProvider.id(), pteLoc.lat, pteLoc.lon, MAX_STATIONS);
+			if(local != null)
+				return local;
 			try {
 				NearbyStationsResult nsr = networkProvider.queryNearbyStations(pteLoc, 0, MAX_STATIONS);
 
 				if(nsr.status == nsr.status.OK)
 				{
+					nearbyStationsCache.put(networkProvider.id(), pteLoc.lat, pteLoc.lon, nsr.stations);
+					stationIndex.addStations(networkProvider.id(), nsr.stations);
+					stationIndex.addCoverage(networkProvider.id(), pteLoc.lat, pteLoc.lon, nsr.stations);
 					if(BuildConfig.DEBUG)
 					{
 						Log.v(TAG, "!! Status ok, found "+nsr.stations.size()+ "stations");
@@ -131,25 +309,41 @@ public class PublicNetworkProvider {
 			return null;
 		}
 		@Override
-		protected void onPostExecute(NearbyStationsResult result) {		
-			super.onPostExecute(result);
+		void deliver(NearbyStationsResult result) {
 			recievedStations(result);
 		}
 	}
 
 
-	class FetchDepaturesTask extends AsyncTask<de.schildbach.pte.dto.Location, Void, QueryDeparturesResult>
+	class FetchDepaturesTask extends FetchEngine.Job<QueryDeparturesResult>
 	{
 		public static final String TAG = "SMT/FDT";
 
+		private final de.schildbach.pte.dto.Location station;
+		private final int upcomingLimit;
+
+		/**
+		 * @param upcomingLimit stop reading the response after this many upcoming departures, or 0 for all
+		 */
+		FetchDepaturesTask(de.schildbach.pte.dto.Location station, int priority, int upcomingLimit)
+		{
+			super(networkProvider.id(), priority, generation);
+			this.station = station;
+			this.upcomingLimit = upcomingLimit;
+		}
+
 		@Override
-		protected QueryDeparturesResult doInBackground(
-				de.schildbach.pte.dto.Location... params) {
-			de.schildbach.pte.dto.Location station = params[0];
+		QueryDeparturesResult fetch() {
 			try {
-				QueryDeparturesResult qdr = networkProvider.queryDepartures(station.id, 15, true);
+				QueryDeparturesResult qdr = networkProvider.queryDepartures(station.id, QUERY_MAX_DEPARTURES, QUERY_EQUIVS, upcomingLimit, new PartialDepartures());
+				//the board was cut off where the job became stale
+				if(isStale())
+					return null;
+				storeDepartures(station.id, upcomingLimit, qdr);
 				if(BuildConfig.DEBUG)
 				{
+					Log.v(TAG, "merged "+networkProvider.mergedCalls()+" of "+networkProvider.calls()+" queries");
+					logConnectionStats(TAG);
 					if(qdr.status == de.schildbach.pte.dto.QueryDeparturesResult.Status.OK)
 					{
 						Log.v(TAG, "QDR: Okay Headers: "+qdr.header+" dep: "+qdr.stationDepartures);
@@ -173,11 +367,139 @@ public class PublicNetworkProvider {
 			return null;
 		}
 		@Override
-		protected void onPostExecute(QueryDeparturesResult result) {		
-			super.onPostExecute(result);
-			recievedDepatures(result);
+		void deliver(QueryDeparturesResult result) {
+			recievedDepatures(station.id, result);
+		}
+
+		/**
+		 * Collects the first departures while the provider is still parsing
+		 * and publishes them as soon as there are enough to fill the screen.
+		 * Stops the query once the upcoming limit is reached, or as soon as
+		 * the job is stale.
+		 */
+		private class PartialDepartures implements SingleFlightNetworkProvider.CancellableListener
+		{
+			private final Map<Integer, StationDepartures> stations = new LinkedHashMap<Integer, StationDepartures>();
+			private final long now = System.currentTimeMillis();
+			private int upcoming = 0;
+			private boolean published = false;
+
+			@Override
+			public boolean departure(de.schildbach.pte.dto.Location location, Departure departure) {
+				if(isStale())
+					return false;
+
+				//gone departures are filtered by the watch and do not fill a row
+				Date time = departure.predictedTime != null ? departure.predictedTime : departure.plannedTime;
+				if(time.getTime() > now)
+					upcoming++;
+
+				//the lists belong to the main thread once published
+				if(!published)
+				{
+					StationDepartures stationDepartures = stations.get(location.id);
+					if(stationDepartures == null)
+					{
+						stationDepartures = new StationDepartures(location, new ArrayList<Departure>(), Collections.<LineDestination>emptyList());
+						stations.put(location.id, stationDepartures);
+					}
+					stationDepartures.departures.add(departure);
+
+					if(upcoming == PARTIAL_DEPARTURES)
+					{
+						QueryDeparturesResult partial = new QueryDeparturesResult(null);
+						partial.stationDepartures.addAll(stations.values());
+						published = true;
+						publish(partial);
+					}
+				}
+
+				return upcomingLimit == QUERY_ALL_DEPARTURES || upcoming < upcomingLimit;
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return isStale();
+			}
 		}
 	}
 
 
+	/**
+	 * Departures of several stations in one job, for network providers that
+	 * answer for more than one station per request. Every station is
+	 * delivered as soon as its departures are known and the requests still
+	 * to come are skipped once the job is stale. The shared boards are not
+	 * cut off at the upcoming limit, one answer serves several stations.
+	 * Stations that need a request of their own get a job of their own, so
+	 * they stream and run in parallel.
+	 */
+	class FetchBatchDepaturesTask extends FetchEngine.Job<Map<Integer, QueryDeparturesResult>>
+	{
+		public static final String TAG = "SMT/FBDT";
+
+		private final List<de.schildbach.pte.dto.Location> stations;
+		private final int priority;
+
+		FetchBatchDepaturesTask(List<de.schildbach.pte.dto.Location> stations, int priority)
+		{
+			super(networkProvider.id(), priority, generation);
+			this.stations = stations;
+			this.priority = priority;
+		}
+
+		@Override
+		Map<Integer, QueryDeparturesResult> fetch() {
+			int[] stationIds = new int[stations.size()];
+			//stations that are not published are delivered as failed in the end
+			final Map<Integer, QueryDeparturesResult> unpublished = new LinkedHashMap<Integer, QueryDeparturesResult>();
+			for (int i = 0; i < stationIds.length; i++) {
+				stationIds[i] = stations.get(i).id;
+				unpublished.put(stationIds[i], null);
+			}
+			//left to jobs of their own
+			final Set<Integer> alone = new HashSet<Integer>();
+			try {
+				networkProvider.queryDepartures(stationIds, QUERY_MAX_DEPARTURES, QUERY_EQUIVS, new NetworkProvider.DeparturesBatchListener() {
+					@Override
+					public boolean departures(int stationId, QueryDeparturesResult result) {
+						//shared boards are never cut off
+						storeDepartures(stationId, QUERY_ALL_DEPARTURES, result);
+						unpublished.remove(stationId);
+						publish(Collections.singletonMap(stationId, result));
+						return !isStale();
+					}
+					@Override
+					public boolean queryAlone(int stationId) {
+						alone.add(stationId);
+						return false;
+					}
+				});
+				if(BuildConfig.DEBUG)
+					Log.v(TAG, "fetched departures of "+(stationIds.length - unpublished.size())+" of "+stationIds.length+" stations, "+alone.size()+" on their own");
+
+			} catch (IOException e) {
+				ACRA.getErrorReporter().putCustomData("NetworkProvider", networkProvider.id().toString());
+				ACRA.getErrorReporter().handleException(e);
+			}
+
+			if(!isStale())
+			{
+				for (de.schildbach.pte.dto.Location station : stations) {
+					if(alone.contains(station.id))
+					{
+						unpublished.remove(station.id);
+						fetchEngine.submit(new FetchDepaturesTask(station, priority, QUERY_UPCOMING_DEPARTURES));
+					}
+				}
+			}
+
+			return unpublished;
+		}
+		@Override
+		void deliver(Map<Integer, QueryDeparturesResult> results) {
+			for (Map.Entry<Integer, QueryDeparturesResult> result : results.entrySet())
+				recievedDepatures(result.getKey(), result.getValue());
+		}
+	}
 }
@@ -51,6 +51,8 @@
 
 package com.dlka.android.apps.smarttransport;
 
+import java.io.File;
+
 import android.os.Build;
 import android.util.Log;
 import org.acra.ACRA;
@@ -58,12 +60,22 @@ import org.acra.ACRAConfiguration;
 import org.acra.annotation.ReportsCrashes;
 
 import android.app.Application;
+import de.schildbach.pte.util.CachingTransport;
+import de.schildbach.pte.util.HttpUrlConnectionTransport;
+import de.schildbach.pte.util.ParserUtils;
 
 @ReportsCrashes(formKey = "")
 public class SmartTransportApplication extends Application {
 
+	//disk space for provider responses that can be revalidated with ETag/Last-Modified
+	private static final long HTTP_CACHE_SIZE = 1024 * 1024;
+
 	@Override
 	public void onCreate() {
+		//the platform reads its keep-alive limits once, set them before anything opens a connection
+		HttpUrlConnectionTransport transport = new HttpUrlConnectionTransport();
+		HttpUrlConnectionTransport.configurePlatformPool(transport.getPool());
+
 		ACRAConfiguration config=ACRA.getNewDefaultConfig(this);
 		//config.setFormUri(getString(R.string.acra_form_uri)); TODO:add acra data
 		config.setFormUri("http://github.com/The1andONLYdave");
@@ -74,6 +86,8 @@ public class SmartTransportApplication extends Application {
         if(!isEmulator())
 		    ACRA.init(this);
 
+		ParserUtils.setTransport(new CachingTransport(transport, new File(getCacheDir(), "http"), HTTP_CACHE_SIZE));
+
 		super.onCreate();
 	}
 
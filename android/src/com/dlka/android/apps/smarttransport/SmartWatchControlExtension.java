@@ -120,7 +120,10 @@
 package com.dlka.android.apps.smarttransport;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 import com.dlka.android.apps.smarttransport.PublicNetworkProvider.ResultCallbacks;
 import com.sonyericsson.extras.liveware.extension.util.control.ControlTouchEvent;
@@ -129,7 +132,7 @@ import org.acra.ACRA;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
+import android.graphics.Color;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
@@ -137,12 +140,8 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.text.TextUtils;
-import android.util.DisplayMetrics;
 import android.util.Log;
-import android.view.LayoutInflater;
 import android.view.View;
-import android.view.ViewGroup;
-import android.view.ViewGroup.LayoutParams;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
@@ -174,17 +173,21 @@ import de.schildbach.pte.dto.StationDepartures;
  *   You should have received a copy of the GNU General Public License
  *   along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
  */
-public class SmartWatchControlExtension extends ControlExtension implements ResultCallbacks {
+public class SmartWatchControlExtension extends ControlExtension implements ResultCallbacks, DirtyRegionRenderer.FrameCallbacks {
 
 	private static final int MAX_DEPATURE_ROWS = 3;
+	//minimum time between two frames sent to the watch
+	private static final long FRAME_INTERVAL_MS = 300;
+	//how many stations ahead in swipe direction are prefetched in lazy mode
+	private static final int PREFETCH_AHEAD = 2;
 
 
     private Handler mHandler;
 	private Context mContext;
 	private int width;
 	private int height;
-	private Bitmap mBackground;
-	private static final Bitmap.Config BITMAP_CONFIG = Bitmap.Config.RGB_565;
+	private WatchScreenPool mScreenPool;
+	private StaticScreenCache mStaticScreens;
 
 	private static final int STATE_INITIAL = 1;
 	private static final int STATE_SEARCHING = 2;
@@ -203,14 +206,24 @@ public class SmartWatchControlExtension extends ControlExtension implements Resu
 	private PublicNetworkProvider publicNetworkProvider;
 	private NearbyStationsResult mNearbyStationsResult;
 	private int mStationIndex;
-	private List<QueryDeparturesResult> mQueryDeparturesResults;
-	private LayoutInflater mInflater;
+	private DepartureStore mDepartureStore;
 	private int mScrollIndex;
     private String mNetwork;
     private SharedPreferences mSharedPref;
     private int mProviderIndex;
     private String mErrorMessage = "";
     private String[] mProviderEntries;
+    private DirtyRegionRenderer mRenderer;
+    private FrameScheduler mFrameScheduler;
+    //incremented on every data change, part of the frame content hash
+    private int mDataVersion = 0;
+    private boolean mLazyPrefetch;
+    //1 when the user swipes to the next station, -1 for the previous one
+    private int mSwipeDirection = 1;
+    //stations whose departures have been requested for the current nearby result
+    private Set<Integer> mRequestedStations = new HashSet<Integer>();
+    //stations whose whole departure board has been requested after scrolling
+    private Set<Integer> mMoreRequestedStations = new HashSet<Integer>();
 
 
     public SmartWatchControlExtension(Context context, String hostAppPackageName, Handler handler) {
@@ -222,8 +235,17 @@ public class SmartWatchControlExtension extends ControlExtension implements Resu
 		mContext = context;
 		width = getSupportedControlWidth(context);
 		height = getSupportedControlHeight(context);
+		mRenderer = new DirtyRegionRenderer(this, width, height);
+		mScreenPool = new WatchScreenPool(context, width, height);
+		mStaticScreens = StaticScreenCache.getInstance();
+		mFrameScheduler = new FrameScheduler(handler, FRAME_INTERVAL_MS, new Runnable() {
+			@Override
+			public void run() {
+				drawFrame();
+			}
+		});
 
-		mQueryDeparturesResults = new ArrayList<QueryDeparturesResult>(0);
+		mDepartureStore = new DepartureStore();
 	}
 
 
@@ -274,12 +296,12 @@ public class SmartWatchControlExtension extends ControlExtension implements Resu
 
         // Acquire a reference to the system Location Manager
         locationManager = (LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
-        mInflater = (LayoutInflater) mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 
 
         mSharedPref = PreferenceManager.getDefaultSharedPreferences(mContext);
 
         mProviderEntries = mContext.getResources().getStringArray(R.array.pref_transportNetwork_Entries);
+        mLazyPrefetch = mSharedPref.getBoolean(mContext.getResources().getString(R.string.pref_lazyprefetch), true);
 
         //detect not selected provider
         if(!mSharedPref.contains(mContext.getResources().getString(R.string.pref_publicnetwork)))
@@ -332,25 +354,46 @@ public class SmartWatchControlExtension extends ControlExtension implements Resu
 
         }
 
-        publicNetworkProvider = new PublicNetworkProvider(this, networkProvider);
+        publicNetworkProvider = new PublicNetworkProvider(mContext, this, networkProvider);
     }
 
     @Override
 	public void onPause() {
 		super.onPause();
+		mFrameScheduler.cancel();
 		locationManager.removeUpdates(locationListener);
 	}
 
+	@Override
+	public void onStop() {
+		super.onStop();
+		if(publicNetworkProvider != null)
+			publicNetworkProvider.cancel();
+	}
+
 	/**
 	 * this method is expected to display a bitmap
 	 */
 	@Override
 	public void onResume() {
 		super.onResume();
+		//we don't know what the watch shows right now
+		mRenderer.invalidate();
+		mFrameScheduler.invalidate();
 		redraw();
 	}
 
+	/**
+	 * Schedule a new frame, multiple calls within the frame interval result in one frame.
+	 */
 	private void redraw() {
+		mFrameScheduler.requestFrame();
+	}
+
+	private void drawFrame() {
+		if(!mFrameScheduler.contentChanged(frameContentHash()))
+			return;
+
 		switch (state) {
 		case STATE_SEARCHING:
 			showSearchImage();
@@ -378,12 +421,20 @@ public class SmartWatchControlExtension extends ControlExtension implements Resu
 
 	}
 
+    private int frameContentHash() {
+        int hash = state;
+        hash = 31 * hash + mStationIndex;
+        hash = 31 * hash + mScrollIndex;
+        hash = 31 * hash + mProviderIndex;
+        hash = 31 * hash + mDataVersion;
+        hash = 31 * hash + (mNetwork != null ? mNetwork.hashCode() : 0);
+        //departure times are shown in minutes
+        hash = 31 * hash + (int)(System.currentTimeMillis() / 60000);
+        return hash;
+    }
+
     private void showProviderSelection() {
-        // Create background bitmap for animation.
-        mBackground = Bitmap.createBitmap(width, height, BITMAP_CONFIG); // Set default density to avoid scaling. background.setDensity(DisplayMetrics.DENSITY_DEFAULT);
-        mBackground.setDensity(DisplayMetrics.DENSITY_DEFAULT);
-        RelativeLayout selectProviderLayout = (RelativeLayout) RelativeLayout.inflate(mContext, R.layout.select_provider,null);
-        selectProviderLayout.setLayoutParams(new LayoutParams(width, height));
+        RelativeLayout selectProviderLayout = (RelativeLayout) mScreenPool.getScreen(R.layout.select_provider);
 
         TextView selectedProviderText = (TextView) selectProviderLayout.findViewById(R.id.textSelectedProvider);
         selectedProviderText.setText(mProviderEntries[mProviderIndex]);
@@ -392,29 +443,66 @@ public class SmartWatchControlExtension extends ControlExtension implements Resu
         drawLayout(selectProviderLayout);
     }
 
-    private void drawLayout(RelativeLayout selectProviderLayout) {
+    private void drawLayout(View layout) {
         // Draw on canvas
-        Canvas canvas = new Canvas(mBackground);
-        selectProviderLayout.draw(canvas);
-        // Send bitmap to accessory
-        showBitmap(mBackground);
+        Bitmap frame = mScreenPool.draw(layout);
+        // Send changed parts of the bitmap to accessory
+        mRenderer.render(frame);
+    }
+
+    /**
+     * Resend the encoded frame of a static screen if it was drawn before.
+     *
+     * @param text the text bound into the screen, part of the cache key
+     * @return true if the cached frame was sent
+     */
+    private boolean showCachedScreen(String text) {
+        byte[] frame = mStaticScreens.get(width, height, state, currentLocale(), text);
+        if(frame == null)
+            return false;
+        if(BuildConfig.DEBUG)
+            Log.d(TAG, "static screen from cache, state: "+state);
+        showEncodedFrame(frame);
+        //the renderer does not know what is on the watch anymore
+        mRenderer.invalidate();
+        return true;
+    }
+
+    /**
+     * Draw and encode a static screen, keep the encoded frame for the next time.
+     */
+    private void drawStaticScreen(View layout, String text) {
+        layout(layout);
+        byte[] frame = mStaticScreens.put(width, height, state, currentLocale(), text,
+                encodeFrame(mScreenPool.draw(layout)));
+        showEncodedFrame(frame);
+        mRenderer.invalidate();
+    }
+
+    private Locale currentLocale() {
+        return mContext.getResources().getConfiguration().locale;
+    }
+
+    @Override
+    public void showFullFrame(Bitmap frame) {
+        showBitmap(frame);
+    }
+
+    @Override
+    public void showPartialFrame(Bitmap region, int x, int y) {
+        showBitmap(region, x, y);
     }
 
     private void showErrorMessage() {
-        // Create background bitmap for animation.
-        mBackground = Bitmap.createBitmap(width, height, BITMAP_CONFIG); // Set default density to avoid scaling. background.setDensity(DisplayMetrics.DENSITY_DEFAULT);
-        mBackground.setDensity(DisplayMetrics.DENSITY_DEFAULT);
-        RelativeLayout errorLayout = (RelativeLayout)RelativeLayout.inflate(mContext, R.layout.no_stations, null);
-        errorLayout.setLayoutParams(new LayoutParams(width, height));
+        //the message depends on the state and the locale only
+        if(showCachedScreen(null))
+            return;
+        RelativeLayout errorLayout = (RelativeLayout) mScreenPool.getScreen(R.layout.no_stations);
 
         TextView textViewErrorMsg = (TextView) errorLayout.findViewById(R.id.errortext);
         textViewErrorMsg.setText(mErrorMessage);
 
-        //layout
-        layout(errorLayout);
-
-        // Draw on canvas
-        drawLayout(errorLayout);
+        drawStaticScreen(errorLayout, null);
 
 
     }
@@ -502,6 +590,9 @@ public class SmartWatchControlExtension extends ControlExtension implements Resu
 				mStationIndex--;
 				if(mStationIndex < 0)
 					mStationIndex = mNearbyStationsResult.stations.size()-1;
+				mSwipeDirection = -1;
+				if(mLazyPrefetch)
+					prefetchDepartures();
 				redraw();
 			}
 			break;
@@ -512,6 +603,9 @@ public class SmartWatchControlExtension extends ControlExtension implements Resu
 				mStationIndex++;
 				if(mStationIndex > mNearbyStationsResult.stations.size()-1)
 					mStationIndex = 0;
+				mSwipeDirection = 1;
+				if(mLazyPrefetch)
+					prefetchDepartures();
 				redraw();
 			}
 			break;
@@ -525,6 +619,7 @@ public class SmartWatchControlExtension extends ControlExtension implements Resu
 
 		case Control.Intents.SWIPE_DIRECTION_UP:
 			mScrollIndex++;
+			requestMoreDepartures();
 			redraw();
 			break;
 
@@ -536,40 +631,29 @@ public class SmartWatchControlExtension extends ControlExtension implements Resu
 
 
 	private void showSearchImage() {
-		// Create background bitmap for animation.
-		mBackground = Bitmap.createBitmap(width, height, BITMAP_CONFIG); // Set default density to avoid scaling. background.setDensity(DisplayMetrics.DENSITY_DEFAULT);
-		mBackground.setDensity(DisplayMetrics.DENSITY_DEFAULT);
-		RelativeLayout locatingLayout = (RelativeLayout)RelativeLayout.inflate(mContext, R.layout.locating, null);
-		locatingLayout.setLayoutParams(new LayoutParams(width, height));
+		if(showCachedScreen(mNetwork))
+			return;
+		RelativeLayout locatingLayout = (RelativeLayout) mScreenPool.getScreen(R.layout.locating);
 
         //getTextView and set current network
         TextView textView = (TextView) locatingLayout.findViewById(R.id.networkText);
         textView.setText(mNetwork);
 
-
-		//layout
-        layout(locatingLayout);
-		// Draw on canvas
-        drawLayout(locatingLayout);
+        drawStaticScreen(locatingLayout, mNetwork);
 
 	}
 
 
 	private void showLoadingImage() {
-		// Create background bitmap for animation.
-		mBackground = Bitmap.createBitmap(width, height, BITMAP_CONFIG); // Set default density to avoid scaling. background.setDensity(DisplayMetrics.DENSITY_DEFAULT);
-		mBackground.setDensity(DisplayMetrics.DENSITY_DEFAULT);
-		RelativeLayout loadingLayout = (RelativeLayout)RelativeLayout.inflate(mContext, R.layout.loading, null);
-		loadingLayout.setLayoutParams(new LayoutParams(width, height));
+		if(showCachedScreen(mNetwork))
+			return;
+		RelativeLayout loadingLayout = (RelativeLayout) mScreenPool.getScreen(R.layout.loading);
 
         //getTextView and set current network
         TextView textView = (TextView) loadingLayout.findViewById(R.id.networkText);
         textView.setText(mNetwork);
 
-        //layout
-        layout(loadingLayout);
-		// Draw on canvas
-        drawLayout(loadingLayout);
+        drawStaticScreen(loadingLayout, mNetwork);
 
 	}
 
@@ -596,25 +680,21 @@ public class SmartWatchControlExtension extends ControlExtension implements Resu
 
     public void showData()
 	{
-		// Create background bitmap.
-		mBackground = Bitmap.createBitmap(width, height, BITMAP_CONFIG); // Set default density to avoid scaling. background.setDensity(DisplayMetrics.DENSITY_DEFAULT);
-		//LinearLayout root = new LinearLayout(mContext); root.setLayoutParams(new LayoutParams(width, height));
-		//mBackground.setDensity(DisplayMetrics.DENSITY_DEFAULT);
-		LinearLayout stationsLayout = (LinearLayout)LinearLayout.inflate(mContext, R.layout.smartwatch_stations, null);
-		stationsLayout.setLayoutParams(new LayoutParams(width, height));
+		LinearLayout stationsLayout = (LinearLayout) mScreenPool.getScreen(R.layout.smartwatch_stations);
 		if(BuildConfig.DEBUG)
 			Log.d(TAG, "Using: w:"+width+" h: "+height);
 
 		//fill Data
 		//station name
 		int departureRows = -1;
+		de.schildbach.pte.dto.Location station = null;
 		if(mNearbyStationsResult != null)
 		{
 			if(BuildConfig.DEBUG)
 				Log.d(TAG, "mStation index: "+mStationIndex+ " stations size: "+mNearbyStationsResult.stations.size());
 
             LinearLayout stationHeader = (LinearLayout) stationsLayout.findViewById(R.id.station_header);
-			de.schildbach.pte.dto.Location station = mNearbyStationsResult.stations.get(mStationIndex);
+			station = mNearbyStationsResult.stations.get(mStationIndex);
 			TextView stationName = (TextView) stationsLayout.findViewById(R.id.Station);
 			stationName.setText(shortStationName(station));
             layout(stationHeader);
@@ -632,71 +712,70 @@ public class SmartWatchControlExtension extends ControlExtension implements Resu
             }
 		}
 		//depatures
-		if(mQueryDeparturesResults.size() > 0)
+		if(station != null)
 		{
 			int offset = mScrollIndex * (departureRows-1);
 			if(BuildConfig.DEBUG)
-				Log.d(TAG, "mStation index: "+mStationIndex+ " departure size: "+mQueryDeparturesResults.size()+ "offset: "+offset);
+				Log.d(TAG, "mStation index: "+mStationIndex+ " station id: "+station.id+ " departure size: "+mDepartureStore.size()+ "offset: "+offset);
 
 			TableLayout tl = (TableLayout) stationsLayout.findViewById(R.id.departuesTable);
+			ImageView loadingImage = (ImageView) stationsLayout.findViewById(R.id.loadingimage);
+			TextView loadingText = (TextView) stationsLayout.findViewById(R.id.loadingText);
+			//rows are reused, count the ones bound in this frame
+			int rowCount = 0;
 			//check if we have the depatures already...
-			if(mQueryDeparturesResults.size() >= mStationIndex+1)
+			DepartureStore.Entry entry = mDepartureStore.get(station.id);
+			if(entry != null)
 			{
+				loadingImage.setVisibility(View.GONE);
+				loadingText.setVisibility(View.GONE);
 
-				List<StationDepartures> dep = mQueryDeparturesResults.get(mStationIndex).stationDepartures;
-
-                //filter list for already gone departures first
-                filterGoneDepartures(dep);
+				List<StationDepartures> dep = entry.result.stationDepartures;
 
 				for (StationDepartures stationDepartures : dep) {
-					List<Departure> depatures = stationDepartures.departures;
-					for(int i = 0; i < depatures.size(); i++)
+					//the lists are shared with the cache and other queries, gone departures are skipped, not removed
+					int upcoming = 0;
+					for(Departure depature : stationDepartures.departures)
 					{
-                        if(i+offset >= depatures.size())
-                            break;
-
-						Departure depature = depatures.get(i+offset);
-						View table = mInflater.inflate(R.layout.table_row_departure, tl, true);
+						if(rowCount >= departureRows)
+							break;
+						if(alreadyDeparted(depature) || upcoming++ < offset)
+							continue;
 
-						View row = ((ViewGroup)table).getChildAt(i*2);
-						View textView = ((ViewGroup)table).getChildAt((i*2)+1);
+						WatchScreenPool.DepartureRow row = mScreenPool.getDepartureRow(tl, rowCount++);
 
-						TextView depLine = (TextView) row.findViewById(R.id.depLine);
-						depLine.setText(getLineText(depature.line));
-						//set color if style exist
+						row.line.setText(getLineText(depature.line));
+						//set color if style exist, otherwise the defaults of table_row_departure
 						if(depature.line.style != null)
 						{
-							depLine.setBackgroundColor(depature.line.style.backgroundColor);
-							depLine.setTextColor(depature.line.style.foregroundColor);
+							row.line.setBackgroundColor(depature.line.style.backgroundColor);
+							row.line.setTextColor(depature.line.style.foregroundColor);
+						}
+						else
+						{
+							row.line.setBackgroundResource(R.color.red);
+							row.line.setTextColor(Color.WHITE);
 						}
 
-						TextView depTime = (TextView) row.findViewById(R.id.depTime);
-						depTime.setText(getDepartureText(depature));//TODO: delays
+						row.time.setText(getDepartureText(depature));//TODO: delays
 
-						TextView depDest = (TextView) textView.findViewById(R.id.depTarget);
-						depDest.setText(depature.destination.name);
-						if(i == departureRows-1)
-							break;
+						row.target.setText(depature.destination.name);
 					}
 				}
 			}
 			else
 			{
 				//we are still loading depatures, show loading image & Text
-				ImageView loadingImage = (ImageView) stationsLayout.findViewById(R.id.loadingimage);
-				TextView loadingText = (TextView) stationsLayout.findViewById(R.id.loadingText);
 				loadingImage.setVisibility(View.VISIBLE);
 				loadingText.setVisibility(View.VISIBLE);
 			}
+			mScreenPool.hideDepartureRows(rowCount);
 
 		}
         layout(stationsLayout);
 
 		// Draw on canvas
-		Canvas canvas = new Canvas(mBackground);
-		stationsLayout.draw(canvas);
-		// Send bitmap to accessory
-		showBitmap(mBackground);
+		drawLayout(stationsLayout);
 	}
 
 
@@ -719,17 +798,6 @@ public class SmartWatchControlExtension extends ControlExtension implements Resu
 		return depatureTimeText;
 	}
 
-    private void filterGoneDepartures(List<StationDepartures> departuresList) {
-        for (StationDepartures stationDepartures : departuresList) {
-            List<Departure> depatures = stationDepartures.departures;
-            for(int i = 0; i < depatures.size(); i++)
-            {
-                if(alreadyDeparted(depatures.get(i)))
-                    depatures.remove(i);
-            }
-        }
-    }
-
     private boolean alreadyDeparted(Departure departure) {
         long now = System.currentTimeMillis();
         long planned = (((departure.plannedTime.getTime() - now)/1000)/60);
@@ -766,17 +834,32 @@ public class SmartWatchControlExtension extends ControlExtension implements Resu
 
 	@Override
 	public void nearbyStationsReceived(NearbyStationsResult result) {
-		this.mQueryDeparturesResults.clear();
+		this.mDepartureStore.clear();
 		this.mNearbyStationsResult = result;
+		this.mRequestedStations.clear();
+		this.mMoreRequestedStations.clear();
+		mDataVersion++;
         if(result != null && result.stations != null && result.stations.size() > 0)
         {
             state = STATE_DISPLAY_DATA;
             if(BuildConfig.DEBUG)
                 Log.d(TAG, "Found: "+result.stations.size()+" stations");
             redraw();
-            // for eacht station, request depatures
-            for (de.schildbach.pte.dto.Location station: result.stations ) {
-                publicNetworkProvider.getDepatures(station);
+            if(mLazyPrefetch)
+            {
+                prefetchDepartures();
+            }
+            else
+            {
+                // the station on the watch first, the others together in as few requests as possible
+                requestDepartures(mStationIndex, 0);
+                List<de.schildbach.pte.dto.Location> others = new ArrayList<de.schildbach.pte.dto.Location>();
+                for (de.schildbach.pte.dto.Location station : result.stations) {
+                    if (mRequestedStations.add(station.id))
+                        others.add(station);
+                }
+                if (!others.isEmpty())
+                    publicNetworkProvider.getDepatures(others, 1);
             }
         }
         else
@@ -788,11 +871,50 @@ public class SmartWatchControlExtension extends ControlExtension implements Resu
 	}
 
 
+    /**
+     * Request departures of the shown station and the next ones in swipe direction,
+     * plus the previous one. Other stations are loaded once the user swipes to them.
+     */
+    private void prefetchDepartures() {
+        requestDepartures(mStationIndex, 0);
+        for (int i = 1; i <= PREFETCH_AHEAD; i++) {
+            requestDepartures(mStationIndex + i * mSwipeDirection, i);
+        }
+        requestDepartures(mStationIndex - mSwipeDirection, PREFETCH_AHEAD + 1);
+    }
+
+    private void requestDepartures(int index, int priority) {
+        int stations = mNearbyStationsResult.stations.size();
+        //stations wrap around when swiping
+        index = ((index % stations) + stations) % stations;
+        de.schildbach.pte.dto.Location station = mNearbyStationsResult.stations.get(index);
+        if (mRequestedStations.add(station.id))
+            publicNetworkProvider.getDepatures(station, priority);
+    }
+
+    /**
+     * Departure queries stop after the first rows, the whole board of the
+     * shown station is fetched once the user scrolls.
+     */
+    private void requestMoreDepartures() {
+        if(mNearbyStationsResult == null || mNearbyStationsResult.stations == null)
+            return;
+        de.schildbach.pte.dto.Location station = mNearbyStationsResult.stations.get(mStationIndex);
+        if (mMoreRequestedStations.add(station.id))
+            publicNetworkProvider.getMoreDepatures(station);
+    }
+
 	@Override
-	public void departuresReceived(QueryDeparturesResult result) {
-		if(this.mQueryDeparturesResults == null)
-			this.mQueryDeparturesResults = new ArrayList<QueryDeparturesResult>(0);
-		this.mQueryDeparturesResults.add(result);
+	public void departuresReceived(int stationId, QueryDeparturesResult result) {
+		if(result == null || result.stationDepartures == null)
+		{
+			//query failed, allow to request it again when the user comes back to this station
+			mRequestedStations.remove(stationId);
+			mMoreRequestedStations.remove(stationId);
+			return;
+		}
+		this.mDepartureStore.put(stationId, result);
+		mDataVersion++;
 		redraw();
 
 	}
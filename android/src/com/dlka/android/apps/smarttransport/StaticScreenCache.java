@@ -0,0 +1,132 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.sonyericsson.extras.liveware.extension.util.control.EncodedFrame;
+
+/**
+ * Process wide cache of encoded frames for the screens that only depend on
+ * the watch resolution, the state, the locale and an optional text like the
+ * network name. Such a screen is drawn and encoded once and then resent as
+ * it is.
+ */
+public class StaticScreenCache {
+
+	private static final int DEFAULT_MAX_ENTRIES = 16;
+
+	private static StaticScreenCache sInstance;
+
+	private static final class Key {
+		private final int width;
+		private final int height;
+		private final int state;
+		private final Locale locale;
+		private final String text;
+
+		Key(int width, int height, int state, Locale locale, String text)
+		{
+			this.width = width;
+			this.height = height;
+			this.state = state;
+			this.locale = locale;
+			this.text = text;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (o == this)
+				return true;
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return width == other.width && height == other.height && state == other.state
+					&& equal(locale, other.locale) && equal(text, other.text);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = width;
+			hash = 31 * hash + height;
+			hash = 31 * hash + state;
+			hash = 31 * hash + (locale != null ? locale.hashCode() : 0);
+			hash = 31 * hash + (text != null ? text.hashCode() : 0);
+			return hash;
+		}
+
+		private static boolean equal(Object a, Object b)
+		{
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+	private final LinkedHashMap<Key, byte[]> frames;
+
+	public static synchronized StaticScreenCache getInstance()
+	{
+		if(sInstance == null)
+			sInstance = new StaticScreenCache(DEFAULT_MAX_ENTRIES);
+		return sInstance;
+	}
+
+	/**
+	 * @param maxEntries number of encoded frames kept
+	 */
+	public StaticScreenCache(final int maxEntries)
+	{
+		this.frames = new LinkedHashMap<Key, byte[]>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @param text the text bound into the screen, or null if there is none
+	 * @return the encoded frame or null if the screen was not drawn yet
+	 */
+	public synchronized byte[] get(int width, int height, int state, Locale locale, String text)
+	{
+		return frames.get(new Key(width, height, state, locale, text));
+	}
+
+	/**
+	 * Remember an encoded frame. The data is copied, encoders may reuse
+	 * their output buffer.
+	 *
+	 * @return the copy that was kept, ready to be sent
+	 */
+	public synchronized byte[] put(int width, int height, int state, Locale locale, String text, EncodedFrame frame)
+	{
+		byte[] copy = new byte[frame.getLength()];
+		System.arraycopy(frame.getData(), 0, copy, 0, copy.length);
+		frames.put(new Key(width, height, state, locale, text), copy);
+		return copy;
+	}
+
+	public synchronized void clear()
+	{
+		frames.clear();
+	}
+}
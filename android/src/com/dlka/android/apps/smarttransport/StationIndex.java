@@ -0,0 +1,780 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.util.Log;
+import de.schildbach.pte.LocationUtils;
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyStationsResult;
+
+/**
+ * Local database of all stations seen so far, one memory mapped file per
+ * network provider. Station records are sorted by grid cell, so the
+ * stations around a location are found by binary search in the mapped file.
+ * Every nearby stations query that went to the network covers a disc around
+ * its location, up to the farthest station it returned: all stations inside
+ * are known. A location is only answered locally if its nearest stations lie
+ * within such a disc. Discs are looked up by the grid cells they overlap,
+ * discs inside another one are dropped and only the newest are kept.
+ *
+ * New stations and discs are appended to a journal next to the mapped file.
+ * Once the journal holds a quarter as many stations as the mapped file, both
+ * are merged into a new mapped file.
+ *
+ * <pre>
+ * int magic, int version, int stationCount, int coveredCount
+ * coveredCount discs: int lat, int lon, float radius in meters
+ * stationCount records: long cell, int id, int lat, int lon, byte type, int string offset
+ * strings: per station place and name, each as short length (-1 for null) and UTF-8 bytes
+ * </pre>
+ *
+ * The journal is a sequence of entries, a station as byte 0, int id, int lat,
+ * int lon, byte type and the place and name strings, a disc as byte 1, int
+ * lat, int lon and float radius.
+ */
+public class StationIndex {
+
+	public static final String TAG = "SMT/SI";
+
+	private static final int FILE_MAGIC = 0x53544958;
+	private static final int FILE_VERSION = 2;
+	private static final String FILE_PREFIX = "stations_";
+	private static final String JOURNAL_SUFFIX = ".log";
+	private static final int HEADER_SIZE = 16;
+	private static final int RECORD_SIZE = 8 + 4 + 4 + 4 + 1 + 4;
+	private static final int DISC_SIZE = 4 + 4 + 4;
+	private static final byte JOURNAL_STATION = 0;
+	private static final byte JOURNAL_DISC = 1;
+	//meters per grid cell in latitude
+	private static final double CELL_METERS = GeoGrid.CELL_SIZE / 1E6 * 111195;
+	//larger discs are not searched cell by cell
+	private static final int MAX_SEARCH_CELLS = 10;
+	//discs are shrunk to this radius, the rest of them is never searched
+	private static final float MAX_DISC_RADIUS = (float) (MAX_SEARCH_CELLS * CELL_METERS);
+	//discs kept per network provider, the oldest are dropped
+	private static final int MAX_DISCS = 200;
+	//rounding of the distance computation, in meters
+	private static final float DISTANCE_TOLERANCE = 1;
+	//new stations are appended to the journal once there are that many
+	private static final int FLUSH_THRESHOLD = 50;
+	//the journal is merged into the mapped file once it holds that many stations, or a quarter of the mapped ones
+	private static final int MIN_COMPACT_STATIONS = 500;
+	private static final String CHARSET = "UTF-8";
+
+	private static StationIndex sInstance;
+
+	private static class ProviderIndex {
+		MappedByteBuffer buffer;
+		int stationCount;
+		int recordsStart;
+		int stringsStart;
+		//oldest first
+		final List<Disc> covered = new ArrayList<Disc>();
+		//cell -> discs overlapping it
+		final Map<Long, List<Disc>> coveredCells = new HashMap<Long, List<Disc>>();
+		//stations not in the mapped file, by id and by cell
+		final Map<Integer, Location> pending = new HashMap<Integer, Location>();
+		final Map<Long, List<Location>> pendingCells = new HashMap<Long, List<Location>>();
+		//pending stations not in the journal yet
+		final List<Location> unsaved = new ArrayList<Location>();
+		int journalDiscs;
+	}
+
+	private static class Disc {
+		final int lat;
+		final int lon;
+		final float radius;
+
+		Disc(int lat, int lon, float radius)
+		{
+			this.lat = lat;
+			this.lon = lon;
+			this.radius = radius;
+		}
+
+		boolean contains(Disc other)
+		{
+			return distance(lat, lon, other.lat, other.lon) + other.radius <= radius;
+		}
+	}
+
+	private static class Candidate {
+		final int id;
+		final float distance;
+		//record number in the mapped file or -1 for pending stations
+		final int record;
+		final Location location;
+
+		Candidate(int id, float distance, int record, Location location)
+		{
+			this.id = id;
+			this.distance = distance;
+			this.record = record;
+			this.location = location;
+		}
+	}
+
+	private static final Comparator<Candidate> BY_DISTANCE = new Comparator<Candidate>() {
+		@Override
+		public int compare(Candidate lhs, Candidate rhs) {
+			return Float.compare(lhs.distance, rhs.distance);
+		}
+	};
+
+	private final File directory;
+	private final Map<NetworkId, ProviderIndex> providers = new EnumMap<NetworkId, ProviderIndex>(NetworkId.class);
+
+	public static synchronized StationIndex getInstance(Context context)
+	{
+		if(sInstance == null)
+			sInstance = new StationIndex(context.getApplicationContext().getFilesDir());
+		return sInstance;
+	}
+
+	public StationIndex(File directory)
+	{
+		this.directory = directory;
+	}
+
+	/**
+	 * Add stations seen in any query result. Locations without id or
+	 * coordinates are ignored, as are stations that are known already.
+	 */
+	public synchronized void addStations(NetworkId network, Collection<Location> locations)
+	{
+		ProviderIndex index = load(network);
+		for(Location location : locations)
+		{
+			if(location == null || location.type != LocationType.STATION || !location.hasId() || !location.hasLocation())
+				continue;
+			if(isKnown(index, location))
+				continue;
+			addPending(index, location);
+			index.unsaved.add(location);
+		}
+		if(index.unsaved.size() >= FLUSH_THRESHOLD)
+			save(network, index, null);
+	}
+
+	/**
+	 * Mark the area around a location as completely known, i.e. the result
+	 * of a nearby stations query from the network has been added for it. The
+	 * known area reaches up to the farthest station of the result.
+	 */
+	public synchronized void addCoverage(NetworkId network, int lat, int lon, Collection<Location> stations)
+	{
+		float radius = 0;
+		for(Location station : stations)
+		{
+			if(station.hasLocation())
+				radius = Math.max(radius, distance(lat, lon, station.lat, station.lon));
+		}
+		if(radius <= 0)
+			return;
+
+		ProviderIndex index = load(network);
+		Disc disc = new Disc(lat, lon, Math.min(radius, MAX_DISC_RADIUS));
+		if(cover(index, disc))
+			save(network, index, disc);
+	}
+
+	/**
+	 * Forget all stations of a network provider, e.g. because its station ids changed.
+	 */
+	public synchronized void invalidate(NetworkId network)
+	{
+		providers.remove(network);
+		if(!file(network).delete() && BuildConfig.DEBUG)
+			Log.d(TAG, "no station index to delete for "+network);
+		journal(network).delete();
+	}
+
+	/**
+	 * @return the stations closest to the location or null if they might not all be known
+	 */
+	public synchronized NearbyStationsResult queryNearbyStations(NetworkId network, int lat, int lon, int maxStations)
+	{
+		if(maxStations <= 0)
+			return null;
+
+		//all stations closer than this are known: the location lies inside a disc by at least that much
+		ProviderIndex index = load(network);
+		List<Disc> discs = index.coveredCells.get(GeoGrid.cellKeyOf(lat, lon));
+		if(discs == null)
+			return null;
+		float known = 0;
+		for(Disc disc : discs)
+			known = Math.max(known, disc.radius - distance(lat, lon, disc.lat, disc.lon) + DISTANCE_TOLERANCE);
+		if(known <= 0)
+			return null;
+
+		int cellsLat = (int) Math.ceil(known / CELL_METERS);
+		int cellsLon = cellsLon(lat, known);
+		if(cellsLat > MAX_SEARCH_CELLS || cellsLon > MAX_SEARCH_CELLS)
+			return null;
+
+		int cellLat = GeoGrid.cell(lat);
+		int cellLon = GeoGrid.cell(lon);
+		Map<Integer, Candidate> candidates = new HashMap<Integer, Candidate>();
+		for(int dLat = -cellsLat; dLat <= cellsLat; dLat++)
+		{
+			for(int dLon = -cellsLon; dLon <= cellsLon; dLon++)
+			{
+				long key = GeoGrid.cellKey(cellLat + dLat, cellLon + dLon);
+				for(int record = firstRecord(index, key); record >= 0 && record < index.stationCount; record++)
+				{
+					int pos = index.recordsStart + record * RECORD_SIZE;
+					if(index.buffer.getLong(pos) != key)
+						break;
+					int id = index.buffer.getInt(pos + 8);
+					//a pending station replaces its record
+					if(index.pending.containsKey(id))
+						continue;
+					float distance = distance(lat, lon, index.buffer.getInt(pos + 12), index.buffer.getInt(pos + 16));
+					if(distance <= known)
+						candidates.put(id, new Candidate(id, distance, record, null));
+				}
+				List<Location> pending = index.pendingCells.get(key);
+				if(pending == null)
+					continue;
+				for(Location location : pending)
+				{
+					float distance = distance(lat, lon, location.lat, location.lon);
+					if(distance <= known)
+						candidates.put(location.id, new Candidate(location.id, distance, -1, location));
+				}
+			}
+		}
+		//stations farther away are not known, a closer one might be missing in between
+		if(candidates.size() < maxStations)
+			return null;
+
+		List<Candidate> sorted = new ArrayList<Candidate>(candidates.values());
+		Collections.sort(sorted, BY_DISTANCE);
+		int count = maxStations;
+		List<Location> stations = new ArrayList<Location>(count);
+		for(int i = 0; i < count; i++)
+		{
+			Candidate candidate = sorted.get(i);
+			stations.add(candidate.location != null ? candidate.location : readRecord(index, candidate.record));
+		}
+		if(BuildConfig.DEBUG)
+			Log.d(TAG, "answered nearby stations of "+network+" locally, "+stations.size()+" stations");
+		return new NearbyStationsResult(null, stations);
+	}
+
+	private static float distance(int lat1, int lon1, int lat2, int lon2)
+	{
+		return LocationUtils.computeDistance(lat1 / 1E6, lon1 / 1E6, lat2 / 1E6, lon2 / 1E6);
+	}
+
+	/**
+	 * @return cells to search east and west of the latitude to cover the distance
+	 */
+	private static int cellsLon(int lat, float meters)
+	{
+		//cells are narrower in longitude away from the equator
+		return (int) Math.ceil(meters / (CELL_METERS * Math.cos(Math.toRadians(lat / 1E6))));
+	}
+
+	/**
+	 * @return keys of the cells the disc overlaps
+	 */
+	private static List<Long> cells(Disc disc)
+	{
+		int cellsLat = (int) Math.ceil(disc.radius / CELL_METERS);
+		//the side towards the pole spans the most cells
+		int poleward = Math.abs(disc.lat) + (int) (disc.radius / CELL_METERS * GeoGrid.CELL_SIZE);
+		int cellsLon = cellsLon(Math.min(poleward, 89000000), disc.radius);
+		int cellLat = GeoGrid.cell(disc.lat);
+		int cellLon = GeoGrid.cell(disc.lon);
+		List<Long> cells = new ArrayList<Long>((2 * cellsLat + 1) * (2 * cellsLon + 1));
+		for(int dLat = -cellsLat; dLat <= cellsLat; dLat++)
+			for(int dLon = -cellsLon; dLon <= cellsLon; dLon++)
+				cells.add(GeoGrid.cellKey(cellLat + dLat, cellLon + dLon));
+		return cells;
+	}
+
+	/**
+	 * Add a disc unless another one contains it, and drop the discs it contains.
+	 *
+	 * @return false if the disc was covered already
+	 */
+	private static boolean cover(ProviderIndex index, Disc disc)
+	{
+		//a disc containing the new one overlaps the cell of its center
+		List<Disc> atCenter = index.coveredCells.get(GeoGrid.cellKeyOf(disc.lat, disc.lon));
+		if(atCenter != null)
+		{
+			for(Disc other : atCenter)
+			{
+				if(other.contains(disc))
+					return false;
+			}
+		}
+
+		List<Long> cells = cells(disc);
+		Map<Disc, Boolean> contained = new IdentityHashMap<Disc, Boolean>();
+		for(Long cell : cells)
+		{
+			List<Disc> discs = index.coveredCells.get(cell);
+			if(discs == null)
+				continue;
+			for(Disc other : discs)
+			{
+				if(disc.contains(other))
+					contained.put(other, Boolean.TRUE);
+			}
+		}
+		for(Disc other : contained.keySet())
+			uncover(index, other);
+		if(index.covered.size() >= MAX_DISCS)
+			uncover(index, index.covered.get(0));
+
+		index.covered.add(disc);
+		for(Long cell : cells)
+		{
+			List<Disc> discs = index.coveredCells.get(cell);
+			if(discs == null)
+			{
+				discs = new ArrayList<Disc>(2);
+				index.coveredCells.put(cell, discs);
+			}
+			discs.add(disc);
+		}
+		return true;
+	}
+
+	private static void uncover(ProviderIndex index, Disc disc)
+	{
+		index.covered.remove(disc);
+		for(Long cell : cells(disc))
+		{
+			List<Disc> discs = index.coveredCells.get(cell);
+			if(discs != null && discs.remove(disc) && discs.isEmpty())
+				index.coveredCells.remove(cell);
+		}
+	}
+
+	private static void addPending(ProviderIndex index, Location location)
+	{
+		Location previous = index.pending.put(location.id, location);
+		if(previous != null)
+		{
+			Long previousCell = GeoGrid.cellKeyOf(previous.lat, previous.lon);
+			List<Location> locations = index.pendingCells.get(previousCell);
+			if(locations != null && locations.remove(previous) && locations.isEmpty())
+				index.pendingCells.remove(previousCell);
+		}
+		Long cell = GeoGrid.cellKeyOf(location.lat, location.lon);
+		List<Location> locations = index.pendingCells.get(cell);
+		if(locations == null)
+		{
+			locations = new ArrayList<Location>(2);
+			index.pendingCells.put(cell, locations);
+		}
+		locations.add(location);
+	}
+
+	/**
+	 * @return true if the station is stored with the same position and names
+	 */
+	private static boolean isKnown(ProviderIndex index, Location location)
+	{
+		Location pending = index.pending.get(location.id);
+		if(pending != null)
+			return sameStation(pending, location);
+
+		long key = GeoGrid.cellKeyOf(location.lat, location.lon);
+		for(int record = firstRecord(index, key); record >= 0 && record < index.stationCount; record++)
+		{
+			int pos = index.recordsStart + record * RECORD_SIZE;
+			if(index.buffer.getLong(pos) != key)
+				break;
+			if(index.buffer.getInt(pos + 8) == location.id)
+				return sameStation(readRecord(index, record), location);
+		}
+		return false;
+	}
+
+	private static boolean sameStation(Location a, Location b)
+	{
+		return a.id == b.id && a.lat == b.lat && a.lon == b.lon && equals(a.place, b.place) && equals(a.name, b.name);
+	}
+
+	private static boolean equals(String a, String b)
+	{
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * @return first record of the cell or -1 if there is none
+	 */
+	private static int firstRecord(ProviderIndex index, long key)
+	{
+		if(index.buffer == null)
+			return -1;
+		int low = 0;
+		int high = index.stationCount;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(index.buffer.getLong(index.recordsStart + mid * RECORD_SIZE) < key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private static Location readRecord(ProviderIndex index, int record)
+	{
+		int pos = index.recordsStart + record * RECORD_SIZE;
+		int id = index.buffer.getInt(pos + 8);
+		int lat = index.buffer.getInt(pos + 12);
+		int lon = index.buffer.getInt(pos + 16);
+		LocationType type = LocationType.values()[index.buffer.get(pos + 20)];
+		int stringPos = index.stringsStart + index.buffer.getInt(pos + 21);
+		int placeLength = index.buffer.getShort(stringPos);
+		String place = readString(index.buffer, stringPos);
+		String name = readString(index.buffer, stringPos + 2 + Math.max(placeLength, 0));
+		return new Location(type, id, lat, lon, place, name);
+	}
+
+	private static String readString(MappedByteBuffer buffer, int pos)
+	{
+		int length = buffer.getShort(pos);
+		if(length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		for(int i = 0; i < length; i++)
+			bytes[i] = buffer.get(pos + 2 + i);
+		try {
+			return new String(bytes, CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private ProviderIndex load(NetworkId network)
+	{
+		ProviderIndex index = providers.get(network);
+		if(index != null)
+			return index;
+
+		index = new ProviderIndex();
+		providers.put(network, index);
+		File file = file(network);
+		if(file.exists() && map(network, index, file))
+		{
+			int coveredCount = index.buffer.getInt(12);
+			for(int i = 0; i < coveredCount; i++)
+			{
+				int pos = HEADER_SIZE + i * DISC_SIZE;
+				cover(index, new Disc(index.buffer.getInt(pos), index.buffer.getInt(pos + 4), index.buffer.getFloat(pos + 8)));
+			}
+		}
+		File journal = journal(network);
+		if(journal.exists() && !replay(network, index, journal))
+			compact(network, index);
+		return index;
+	}
+
+	/**
+	 * @return false if the mapped file could not be used
+	 */
+	private boolean map(NetworkId network, ProviderIndex index, File file)
+	{
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if(buffer.getInt(0) != FILE_MAGIC || buffer.getInt(4) != FILE_VERSION)
+			{
+				Log.w(TAG, "ignoring station index of "+network+" with unknown format");
+				return false;
+			}
+			int stationCount = buffer.getInt(8);
+			int coveredCount = buffer.getInt(12);
+			index.buffer = buffer;
+			index.stationCount = stationCount;
+			index.recordsStart = HEADER_SIZE + coveredCount * DISC_SIZE;
+			index.stringsStart = index.recordsStart + stationCount * RECORD_SIZE;
+			return true;
+		} catch (IOException e) {
+			Log.w(TAG, "could not map station index of "+network, e);
+			return false;
+		} finally {
+			if(raf != null)
+			{
+				try {
+					raf.close();
+				} catch (IOException e) {
+					//mapping stays valid
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the journal into the pending stations and discs.
+	 *
+	 * @return false if the journal ends with a broken entry and has to be rewritten
+	 */
+	private boolean replay(NetworkId network, ProviderIndex index, File journal)
+	{
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+			while(true)
+			{
+				int kind = in.read();
+				if(kind == -1)
+					return true;
+				if(kind == JOURNAL_STATION)
+				{
+					int id = in.readInt();
+					int lat = in.readInt();
+					int lon = in.readInt();
+					LocationType type = LocationType.values()[in.readByte()];
+					String place = readString(in);
+					String name = readString(in);
+					Location location = new Location(type, id, lat, lon, place, name);
+					if(!isKnown(index, location))
+						addPending(index, location);
+				}
+				else if(kind == JOURNAL_DISC)
+				{
+					cover(index, new Disc(in.readInt(), in.readInt(), in.readFloat()));
+					index.journalDiscs++;
+				}
+				else
+				{
+					throw new IOException("unknown journal entry "+kind);
+				}
+			}
+		} catch (EOFException e) {
+			Log.w(TAG, "station journal of "+network+" was cut off");
+			return false;
+		} catch (IOException e) {
+			Log.w(TAG, "could not read station journal of "+network, e);
+			return false;
+		} finally {
+			if(in != null)
+			{
+				try {
+					in.close();
+				} catch (IOException e) {
+					//read already
+				}
+			}
+		}
+	}
+
+	/**
+	 * Append the unsaved stations and the disc, if any, to the journal. A
+	 * journal that grew large enough is merged into the mapped file instead.
+	 */
+	private void save(NetworkId network, ProviderIndex index, Disc disc)
+	{
+		if(disc != null)
+			index.journalDiscs++;
+		if(index.pending.size() >= Math.max(MIN_COMPACT_STATIONS, index.stationCount / 4) || index.journalDiscs >= MAX_DISCS)
+		{
+			compact(network, index);
+			return;
+		}
+
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journal(network), true)));
+			//stations go first, a disc must never be read without the stations it covers
+			for(Location location : index.unsaved)
+			{
+				out.writeByte(JOURNAL_STATION);
+				out.writeInt(location.id);
+				out.writeInt(location.lat);
+				out.writeInt(location.lon);
+				out.writeByte(location.type.ordinal());
+				writeString(out, location.place);
+				writeString(out, location.name);
+			}
+			if(disc != null)
+			{
+				out.writeByte(JOURNAL_DISC);
+				out.writeInt(disc.lat);
+				out.writeInt(disc.lon);
+				out.writeFloat(disc.radius);
+			}
+			out.close();
+			out = null;
+			index.unsaved.clear();
+		} catch (IOException e) {
+			Log.w(TAG, "could not append to station journal of "+network, e);
+		} finally {
+			if(out != null)
+			{
+				try {
+					out.close();
+				} catch (IOException e) {
+					//nothing we can do
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rewrite the file with the mapped and pending stations, map it again
+	 * and start a new journal.
+	 */
+	private void compact(NetworkId network, ProviderIndex index)
+	{
+		Map<Integer, Location> all = new HashMap<Integer, Location>(index.stationCount + index.pending.size());
+		for(int record = 0; record < index.stationCount; record++)
+		{
+			Location location = readRecord(index, record);
+			all.put(location.id, location);
+		}
+		all.putAll(index.pending);
+
+		List<Location> sorted = new ArrayList<Location>(all.values());
+		Collections.sort(sorted, new Comparator<Location>() {
+			@Override
+			public int compare(Location lhs, Location rhs) {
+				long l = GeoGrid.cellKeyOf(lhs.lat, lhs.lon);
+				long r = GeoGrid.cellKeyOf(rhs.lat, rhs.lon);
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+		});
+
+		File file = file(network);
+		File tmp = new File(directory, FILE_PREFIX + network.name() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			ByteArrayOutputStream strings = new ByteArrayOutputStream(sorted.size() * 32);
+			DataOutputStream stringsOut = new DataOutputStream(strings);
+
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(sorted.size());
+			out.writeInt(index.covered.size());
+			for(Disc disc : index.covered)
+			{
+				out.writeInt(disc.lat);
+				out.writeInt(disc.lon);
+				out.writeFloat(disc.radius);
+			}
+			for(Location location : sorted)
+			{
+				out.writeLong(GeoGrid.cellKeyOf(location.lat, location.lon));
+				out.writeInt(location.id);
+				out.writeInt(location.lat);
+				out.writeInt(location.lon);
+				out.writeByte(location.type.ordinal());
+				out.writeInt(stringsOut.size());
+				writeString(stringsOut, location.place);
+				writeString(stringsOut, location.name);
+			}
+			stringsOut.flush();
+			strings.writeTo(out);
+			out.close();
+			out = null;
+
+			if(!tmp.renameTo(file))
+				throw new IOException("could not rename "+tmp);
+			//a journal left behind is read again on the next start, its entries are known then
+			journal(network).delete();
+			index.pending.clear();
+			index.pendingCells.clear();
+			index.unsaved.clear();
+			index.journalDiscs = 0;
+			map(network, index, file);
+		} catch (IOException e) {
+			Log.w(TAG, "could not write station index of "+network, e);
+		} finally {
+			if(out != null)
+			{
+				try {
+					out.close();
+				} catch (IOException e) {
+					//nothing we can do
+				}
+			}
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		if(value == null)
+		{
+			out.writeShort(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(CHARSET);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException
+	{
+		int length = in.readShort();
+		if(length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, CHARSET);
+	}
+
+	private File file(NetworkId network)
+	{
+		return new File(directory, FILE_PREFIX + network.name());
+	}
+
+	private File journal(NetworkId network)
+	{
+		return new File(directory, FILE_PREFIX + network.name() + JOURNAL_SUFFIX);
+	}
+}
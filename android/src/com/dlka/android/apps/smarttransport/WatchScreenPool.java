@@ -0,0 +1,142 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.util.DisplayMetrics;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewGroup.LayoutParams;
+import android.widget.TextView;
+
+/**
+ * Frame bitmap and views of the watch screens, created once per extension
+ * and rebound on every redraw instead of being allocated and inflated again.
+ */
+public class WatchScreenPool {
+
+	private static final Bitmap.Config BITMAP_CONFIG = Bitmap.Config.RGB_565;
+
+	/**
+	 * One inflated {@code table_row_departure}: the line and time row and
+	 * the destination line below it.
+	 */
+	static class DepartureRow {
+		final View row;
+		final TextView line;
+		final TextView time;
+		final TextView target;
+
+		DepartureRow(View row, TextView target)
+		{
+			this.row = row;
+			this.line = (TextView) row.findViewById(R.id.depLine);
+			this.time = (TextView) row.findViewById(R.id.depTime);
+			this.target = target;
+		}
+
+		void setVisibility(int visibility)
+		{
+			row.setVisibility(visibility);
+			target.setVisibility(visibility);
+		}
+	}
+
+	private final Context mContext;
+	private final LayoutInflater mInflater;
+	private final int width;
+	private final int height;
+	private final Bitmap mFrame;
+	private final Canvas mCanvas;
+	private final SparseArray<View> mScreens = new SparseArray<View>();
+	private final List<DepartureRow> mDepartureRows = new ArrayList<DepartureRow>();
+
+	public WatchScreenPool(Context context, int width, int height)
+	{
+		mContext = context;
+		mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+		this.width = width;
+		this.height = height;
+		mFrame = Bitmap.createBitmap(width, height, BITMAP_CONFIG);
+		// Set default density to avoid scaling.
+		mFrame.setDensity(DisplayMetrics.DENSITY_DEFAULT);
+		mCanvas = new Canvas(mFrame);
+	}
+
+	/**
+	 * @return the screen of the layout, inflated on first use
+	 */
+	public View getScreen(int layoutId)
+	{
+		View screen = mScreens.get(layoutId);
+		if(screen == null)
+		{
+			screen = View.inflate(mContext, layoutId, null);
+			screen.setLayoutParams(new LayoutParams(width, height));
+			mScreens.put(layoutId, screen);
+		}
+		return screen;
+	}
+
+	/**
+	 * @return the departure row at the position in the table, rows are
+	 * inflated into the table as needed and made visible
+	 */
+	public DepartureRow getDepartureRow(ViewGroup table, int index)
+	{
+		while(mDepartureRows.size() <= index)
+		{
+			mInflater.inflate(R.layout.table_row_departure, table, true);
+			int count = table.getChildCount();
+			mDepartureRows.add(new DepartureRow(table.getChildAt(count - 2), (TextView) table.getChildAt(count - 1)));
+		}
+		DepartureRow row = mDepartureRows.get(index);
+		row.setVisibility(View.VISIBLE);
+		return row;
+	}
+
+	/**
+	 * Hide the departure rows from the position on, they stay inflated for
+	 * the next redraw.
+	 */
+	public void hideDepartureRows(int fromIndex)
+	{
+		for(int i = fromIndex; i < mDepartureRows.size(); i++)
+			mDepartureRows.get(i).setVisibility(View.GONE);
+	}
+
+	/**
+	 * Draw the screen into the shared frame bitmap.
+	 *
+	 * @return the frame bitmap, it is overwritten by the next call
+	 */
+	public Bitmap draw(View screen)
+	{
+		mFrame.eraseColor(Color.BLACK);
+		screen.draw(mCanvas);
+		return mFrame;
+	}
+}
@@ -49,7 +49,6 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlPullParserFactory;
 
 import de.schildbach.pte.dto.Departure;
 import de.schildbach.pte.dto.Fare;
@@ -75,6 +74,7 @@ import de.schildbach.pte.exception.ParserException;
 import de.schildbach.pte.exception.ProtocolException;
 import de.schildbach.pte.exception.SessionExpiredException;
 import de.schildbach.pte.util.ParserUtils;
+import de.schildbach.pte.util.XmlPullParserPool;
 import de.schildbach.pte.util.XmlPullUtil;
 
 /**
@@ -108,8 +108,6 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 	private boolean useStringCoordListOutputFormat = true;
 	private float fareCorrectionFactor = 1f;
 
-	private final XmlPullParserFactory parserFactory;
-
 	private static class Context implements QueryTripsContext
 	{
 		private final String context;
@@ -153,15 +151,6 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 	public AbstractEfaProvider(final String departureMonitorEndpoint, final String tripEndpoint, final String stopFinderEndpoint,
 			final String coordEndpoint)
 	{
-		try
-		{
-			parserFactory = XmlPullParserFactory.newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME), null);
-		}
-		catch (final XmlPullParserException x)
-		{
-			throw new RuntimeException(x);
-		}
-
 		this.departureMonitorEndpoint = departureMonitorEndpoint;
 		this.tripEndpoint = tripEndpoint;
 		this.stopFinderEndpoint = stopFinderEndpoint;
@@ -381,11 +370,12 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		// System.out.println(parameters);
 
 		InputStream is = null;
+		XmlPullParser pp = null;
 		try
 		{
 			is = ParserUtils.scrapeInputStream(uri.toString(), httpPost ? parameters.substring(1) : null, null, httpReferer, null, 3);
 
-			final XmlPullParser pp = parserFactory.newPullParser();
+			pp = XmlPullParserPool.obtain();
 			pp.setInput(is, null);
 			enterItdRequest(pp);
 
@@ -438,6 +428,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		{
 			if (is != null)
 				is.close();
+			XmlPullParserPool.recycle(pp);
 		}
 	}
 
@@ -504,11 +495,12 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		// System.out.println(parameters);
 
 		InputStream is = null;
+		XmlPullParser pp = null;
 		try
 		{
 			is = ParserUtils.scrapeInputStream(uri.toString(), httpPost ? parameters.substring(1) : null, null, httpReferer, null, 3);
 
-			final XmlPullParser pp = parserFactory.newPullParser();
+			pp = XmlPullParserPool.obtain();
 			pp.setInput(is, null);
 			enterEfa(pp);
 
@@ -579,6 +571,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		{
 			if (is != null)
 				is.close();
+			XmlPullParserPool.recycle(pp);
 		}
 	}
 
@@ -608,11 +601,12 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		// System.out.println(parameters);
 
 		InputStream is = null;
+		XmlPullParser pp = null;
 		try
 		{
 			is = ParserUtils.scrapeInputStream(uri.toString(), httpPost ? parameters.substring(1) : null, null, httpReferer, null, 3);
 
-			final XmlPullParser pp = parserFactory.newPullParser();
+			pp = XmlPullParserPool.obtain();
 			pp.setInput(is, null);
 			final ResultHeader header = enterItdRequest(pp);
 
@@ -661,6 +655,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		{
 			if (is != null)
 				is.close();
+			XmlPullParserPool.recycle(pp);
 		}
 	}
 
@@ -676,11 +671,12 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		// System.out.println(parameters);
 
 		InputStream is = null;
+		XmlPullParser pp = null;
 		try
 		{
 			is = ParserUtils.scrapeInputStream(uri.toString(), httpPost ? parameters.substring(1) : null, null, httpReferer, null, 3);
 
-			final XmlPullParser pp = parserFactory.newPullParser();
+			pp = XmlPullParserPool.obtain();
 			pp.setInput(is, null);
 			final ResultHeader header = enterEfa(pp);
 
@@ -733,6 +729,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		{
 			if (is != null)
 				is.close();
+			XmlPullParserPool.recycle(pp);
 		}
 	}
 
@@ -950,11 +947,12 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		// System.out.println(parameters);
 
 		InputStream is = null;
+		XmlPullParser pp = null;
 		try
 		{
-			is = ParserUtils.scrapeInputStream(uri.toString(), httpPost ? parameters.substring(1) : null, null, httpReferer, "NSC_", 3);
+			is = ParserUtils.scrapeInputStream(uri.toString(), httpPost ? parameters.substring(1) : null, null, httpReferer, "NSC_", sessionStore(), 3);
 
-			final XmlPullParser pp = parserFactory.newPullParser();
+			pp = XmlPullParserPool.obtain();
 			pp.setInput(is, null);
 			final ResultHeader header = enterItdRequest(pp);
 
@@ -1034,6 +1032,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		{
 			if (is != null)
 				is.close();
+			XmlPullParserPool.recycle(pp);
 		}
 	}
 
@@ -1459,6 +1458,13 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 	}
 
 	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs) throws IOException
+	{
+		return queryDepartures(stationId, maxDepartures, equivs, null);
+	}
+
+	@Override
+	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs,
+			final DeparturesListener listener) throws IOException
 	{
 		final StringBuilder parameters = queryDeparturesParameters(stationId, maxDepartures, equivs);
 
@@ -1470,11 +1476,12 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		// System.out.println(parameters);
 
 		InputStream is = null;
+		XmlPullParser pp = null;
 		try
 		{
 			is = ParserUtils.scrapeInputStream(uri.toString(), httpPost ? parameters.substring(1) : null, null, httpReferer, null, 3);
 
-			final XmlPullParser pp = parserFactory.newPullParser();
+			pp = XmlPullParserPool.obtain();
 			pp.setInput(is, null);
 			final ResultHeader header = enterItdRequest(pp);
 
@@ -1638,6 +1645,12 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 								predictedDepartureTime.isSet(Calendar.HOUR_OF_DAY) ? predictedDepartureTime.getTime() : null, line, position,
 								destination, null, null);
 						assignedStationDepartures.departures.add(departure);
+						if (listener != null && !listener.departure(assignedStationDepartures.location, departure))
+						{
+							// enough departures, the rest of the response is not needed
+							ParserUtils.abortInputStream(is);
+							return result;
+						}
 					}
 
 					XmlPullUtil.exit(pp, "itdDepartureList");
@@ -1666,10 +1679,112 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		{
 			if (is != null)
 				is.close();
+			XmlPullParserPool.recycle(pp);
+		}
+	}
+
+	/**
+	 * The departure monitor answers for the assigned stops of a station as well, which nearby stations often are. With
+	 * equivalents, the other stations that are assigned stops of the first one are served from its answer, but only if
+	 * that answer did not reach the departures limit: the limit applies to the merged board, so the slice of a single
+	 * stop could be cut short. Such a station gets the departures of its own stop only. The stations not covered by
+	 * the answer are queried one after another.
+	 */
+	@Override
+	public QueryDeparturesResult[] queryDepartures(final int[] stationIds, final int maxDepartures, final boolean equivs,
+			final DeparturesBatchListener listener) throws IOException
+	{
+		if (stationIds.length <= 1)
+			return super.queryDepartures(stationIds, maxDepartures, equivs, listener);
+
+		final QueryDeparturesResult[] results = new QueryDeparturesResult[stationIds.length];
+		IOException failure = null;
+
+		try
+		{
+			results[0] = queryDepartures(stationIds[0], maxDepartures, equivs);
+			if (equivs && !reachedLimit(results[0], maxDepartures))
+				for (int i = 1; i < stationIds.length; i++)
+					results[i] = assignedDepartures(results[0], stationIds[i]);
+		}
+		catch (final IOException x)
+		{
+			failure = x;
+		}
+
+		if (listener != null)
+			for (int i = 0; i < stationIds.length; i++)
+				if (results[i] != null && !listener.departures(stationIds[i], results[i]))
+					return checkDeparturesBatch(results, failure);
+
+		int remaining = 0;
+		for (int i = 1; i < stationIds.length; i++)
+			if (results[i] == null)
+				remaining++;
+
+		if (remaining > 0)
+		{
+			final int[] remainingIds = new int[remaining];
+			for (int i = 1, j = 0; i < stationIds.length; i++)
+				if (results[i] == null)
+					remainingIds[j++] = stationIds[i];
+
+			try
+			{
+				final QueryDeparturesResult[] remainingResults = super.queryDepartures(remainingIds, maxDepartures, equivs, listener);
+				for (int i = 1, j = 0; i < stationIds.length; i++)
+					if (results[i] == null)
+						results[i] = remainingResults[j++];
+			}
+			catch (final IOException x)
+			{
+				if (failure == null)
+					failure = x;
+			}
 		}
+
+		return checkDeparturesBatch(results, failure);
+	}
+
+	@Override
+	public boolean canBatchDepartures()
+	{
+		return true;
+	}
+
+	private static boolean reachedLimit(final QueryDeparturesResult result, final int maxDepartures)
+	{
+		if (maxDepartures == 0)
+			return false;
+
+		int departures = 0;
+		for (final StationDepartures stationDepartures : result.stationDepartures)
+			departures += stationDepartures.departures.size();
+
+		return departures >= maxDepartures;
 	}
 
-	protected QueryDeparturesResult queryDeparturesMobile(final int stationId, final int maxDepartures, final boolean equivs) throws IOException
+	/**
+	 * @return the departures of the station itself, without its own equivalents, or {@code null} if they are not part
+	 *         of the result
+	 */
+	private QueryDeparturesResult assignedDepartures(final QueryDeparturesResult result, final int stationId)
+	{
+		if (result.status != QueryDeparturesResult.Status.OK)
+			return null;
+
+		final StationDepartures stationDepartures = findStationDepartures(result.stationDepartures, stationId);
+		if (stationDepartures == null)
+			return null;
+
+		final QueryDeparturesResult assigned = new QueryDeparturesResult(result.header);
+		assigned.stationDepartures.add(stationDepartures);
+
+		return assigned;
+	}
+
+	protected QueryDeparturesResult queryDeparturesMobile(final int stationId, final int maxDepartures, final boolean equivs,
+			final DeparturesListener listener) throws IOException
 	{
 		final StringBuilder parameters = queryDeparturesParameters(stationId, maxDepartures, equivs);
 
@@ -1681,11 +1796,12 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		// System.out.println(parameters);
 
 		InputStream is = null;
+		XmlPullParser pp = null;
 		try
 		{
 			is = ParserUtils.scrapeInputStream(uri.toString(), httpPost ? parameters.substring(1) : null, null, httpReferer, null, 3);
 
-			final XmlPullParser pp = parserFactory.newPullParser();
+			pp = XmlPullParserPool.obtain();
 			pp.setInput(is, null);
 			final ResultHeader header = enterEfa(pp);
 			final QueryDeparturesResult result = new QueryDeparturesResult(header);
@@ -1731,9 +1847,16 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 						result.stationDepartures.add(stationDepartures);
 					}
 
-					stationDepartures.departures.add(new Departure(plannedDepartureTime.getTime(),
+					final Departure departure = new Departure(plannedDepartureTime.getTime(),
 							predictedDepartureTime.isSet(Calendar.HOUR_OF_DAY) ? predictedDepartureTime.getTime() : null, lineDestination.line,
-							position, lineDestination.destination, null, null));
+							position, lineDestination.destination, null, null);
+					stationDepartures.departures.add(departure);
+					if (listener != null && !listener.departure(stationDepartures.location, departure))
+					{
+						// enough departures, the rest of the response is not needed
+						ParserUtils.abortInputStream(is);
+						return result;
+					}
 
 					XmlPullUtil.exit(pp, "dp");
 				}
@@ -1755,6 +1878,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		{
 			if (is != null)
 				is.close();
+			XmlPullParserPool.recycle(pp);
 		}
 	}
 
@@ -2144,10 +2268,13 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		// System.out.println(parameters);
 
 		InputStream is = null;
+		XmlPullParser pp = null;
 		try
 		{
-			is = ParserUtils.scrapeInputStream(uri.toString(), httpPost ? parameters.substring(1) : null, null, httpRefererTrip, "NSC_", 3);
-			return queryTrips(uri.toString(), is);
+			is = ParserUtils.scrapeInputStream(uri.toString(), httpPost ? parameters.substring(1) : null, null, httpRefererTrip, "NSC_", sessionStore(), 3);
+			pp = XmlPullParserPool.obtain();
+			pp.setInput(is, null);
+			return queryTrips(uri.toString(), pp);
 		}
 		catch (final XmlPullParserException x)
 		{
@@ -2161,6 +2288,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		{
 			if (is != null)
 				is.close();
+			XmlPullParserPool.recycle(pp);
 		}
 	}
 
@@ -2179,10 +2307,13 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		// System.out.println(parameters);
 
 		InputStream is = null;
+		XmlPullParser pp = null;
 		try
 		{
-			is = ParserUtils.scrapeInputStream(uri.toString(), httpPost ? parameters.substring(1) : null, null, httpRefererTrip, "NSC_", 3);
-			return queryTripsMobile(uri.toString(), from, via, to, is);
+			is = ParserUtils.scrapeInputStream(uri.toString(), httpPost ? parameters.substring(1) : null, null, httpRefererTrip, "NSC_", sessionStore(), 3);
+			pp = XmlPullParserPool.obtain();
+			pp.setInput(is, null);
+			return queryTripsMobile(uri.toString(), from, via, to, pp);
 		}
 		catch (final XmlPullParserException x)
 		{
@@ -2196,6 +2327,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		{
 			if (is != null)
 				is.close();
+			XmlPullParserPool.recycle(pp);
 		}
 	}
 
@@ -2209,12 +2341,15 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		uri.append("&command=").append(later ? "tripNext" : "tripPrev");
 
 		InputStream is = null;
+		XmlPullParser pp = null;
 		try
 		{
-			is = new BufferedInputStream(ParserUtils.scrapeInputStream(uri.toString(), null, null, httpRefererTrip, "NSC_", 3));
+			is = new BufferedInputStream(ParserUtils.scrapeInputStream(uri.toString(), null, null, httpRefererTrip, "NSC_", sessionStore(), 3));
 			is.mark(512);
 
-			return queryTrips(uri.toString(), is);
+			pp = XmlPullParserPool.obtain();
+			pp.setInput(is, null);
+			return queryTrips(uri.toString(), pp);
 		}
 		catch (final XmlPullParserException x)
 		{
@@ -2244,6 +2379,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		{
 			if (is != null)
 				is.close();
+			XmlPullParserPool.recycle(pp);
 		}
 	}
 
@@ -2256,12 +2392,15 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		uri.append("&command=").append(later ? "tripNext" : "tripPrev");
 
 		InputStream is = null;
+		XmlPullParser pp = null;
 		try
 		{
-			is = new BufferedInputStream(ParserUtils.scrapeInputStream(uri.toString(), null, null, httpRefererTrip, "NSC_", 3));
+			is = new BufferedInputStream(ParserUtils.scrapeInputStream(uri.toString(), null, null, httpRefererTrip, "NSC_", sessionStore(), 3));
 			is.mark(512);
 
-			return queryTripsMobile(uri.toString(), null, null, null, is);
+			pp = XmlPullParserPool.obtain();
+			pp.setInput(is, null);
+			return queryTripsMobile(uri.toString(), null, null, null, pp);
 		}
 		catch (final XmlPullParserException x)
 		{
@@ -2287,15 +2426,14 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		{
 			if (is != null)
 				is.close();
+			XmlPullParserPool.recycle(pp);
 		}
 	}
 
-	private QueryTripsResult queryTrips(final String uri, final InputStream is) throws XmlPullParserException, IOException
+	private QueryTripsResult queryTrips(final String uri, final XmlPullParser pp) throws XmlPullParserException, IOException
 	{
 		// System.out.println(uri);
 
-		final XmlPullParser pp = parserFactory.newPullParser();
-		pp.setInput(is, null);
 		final ResultHeader header = enterItdRequest(pp);
 		final Object context = header.context;
 
@@ -2827,13 +2965,11 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider
 		return new QueryTripsResult(header, uri, from, via, to, new Context(commandLink((String) context, requestId)), trips);
 	}
 
-	private QueryTripsResult queryTripsMobile(final String uri, final Location from, final Location via, final Location to, final InputStream is)
+	private QueryTripsResult queryTripsMobile(final String uri, final Location from, final Location via, final Location to, final XmlPullParser pp)
 			throws XmlPullParserException, IOException
 	{
 		// System.out.println(uri);
 
-		final XmlPullParser pp = parserFactory.newPullParser();
-		pp.setInput(is, null);
 		final ResultHeader header = enterEfa(pp);
 
 		final Calendar plannedTime = new GregorianCalendar(timeZone());
@@ -17,9 +17,6 @@
 
 package de.schildbach.pte;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -48,7 +45,6 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlPullParserFactory;
 
 import de.schildbach.pte.dto.Departure;
 import de.schildbach.pte.dto.Line;
@@ -66,9 +62,10 @@ import de.schildbach.pte.dto.StationDepartures;
 import de.schildbach.pte.dto.Stop;
 import de.schildbach.pte.dto.Trip;
 import de.schildbach.pte.exception.SessionExpiredException;
-import de.schildbach.pte.util.LittleEndianDataInputStream;
+import de.schildbach.pte.util.LittleEndianBuffer;
+import de.schildbach.pte.util.MultiReplaceReader;
 import de.schildbach.pte.util.ParserUtils;
-import de.schildbach.pte.util.StringReplaceReader;
+import de.schildbach.pte.util.XmlPullParserPool;
 import de.schildbach.pte.util.XmlPullUtil;
 
 /**
@@ -412,13 +409,13 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 	protected final List<Location> xmlLocationList(final String uri) throws IOException
 	{
 		Reader reader = null;
+		XmlPullParser pp = null;
 
 		try
 		{
 			reader = new InputStreamReader(ParserUtils.scrapeInputStream(uri), UTF_8);
 
-			final XmlPullParserFactory factory = XmlPullParserFactory.newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME), null);
-			final XmlPullParser pp = factory.newPullParser();
+			pp = XmlPullParserPool.obtain();
 			pp.setInput(reader);
 
 			final List<Location> results = new ArrayList<Location>();
@@ -473,6 +470,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 		{
 			if (reader != null)
 				reader.close();
+			XmlPullParserPool.recycle(pp);
 		}
 	}
 
@@ -487,13 +485,13 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 		// ParserUtils.printXml(ParserUtils.scrape(queryEndpoint, request, xmlMlcResEncoding, null));
 
 		Reader reader = null;
+		XmlPullParser pp = null;
 
 		try
 		{
 			reader = new InputStreamReader(ParserUtils.scrapeInputStream(queryEndpoint, request, xmlMlcResEncoding, null, null, 3), xmlMlcResEncoding);
 
-			final XmlPullParserFactory factory = XmlPullParserFactory.newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME), null);
-			final XmlPullParser pp = factory.newPullParser();
+			pp = XmlPullParserPool.obtain();
 			pp.setInput(reader);
 
 			final List<Location> results = new ArrayList<Location>();
@@ -566,6 +564,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 		{
 			if (reader != null)
 				reader.close();
+			XmlPullParserPool.recycle(pp);
 		}
 	}
 
@@ -588,14 +587,34 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 
 	private static final Pattern P_XML_QUERY_DEPARTURES_DELAY = Pattern.compile("(?:-|k\\.A\\.?|cancel|\\+?\\s*(\\d+))");
 
-	protected QueryDeparturesResult xmlQueryDepartures(final String uri, final int stationId) throws IOException
+	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs) throws IOException
 	{
-		StringReplaceReader reader = null;
+		return queryDepartures(stationId, maxDepartures, equivs, null);
+	}
+
+	/**
+	 * The three argument variant calls this one, so the fallback of {@link AbstractNetworkProvider} would call back
+	 * into it. Providers that cannot stream implement this with
+	 * {@link AbstractNetworkProvider#deliverDepartures(QueryDeparturesResult, DeparturesListener)}.
+	 */
+	@Override
+	public abstract QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs,
+			final DeparturesListener listener) throws IOException;
+
+	protected QueryDeparturesResult xmlQueryDepartures(final String uri, final int stationId, final DeparturesListener listener)
+			throws IOException
+	{
+		InputStream is = null;
+		MultiReplaceReader reader = null;
+		XmlPullParser pp = null;
 
 		try
 		{
-			// work around unparsable XML
-			reader = new StringReplaceReader(new InputStreamReader(ParserUtils.scrapeInputStream(uri), ISO_8859_1), " & ", " &amp; ");
+			is = ParserUtils.scrapeInputStream(uri);
+
+			// work around unparsable XML, all patterns are replaced in a single pass
+			reader = new MultiReplaceReader(new InputStreamReader(is, ISO_8859_1));
+			reader.replace(" & ", " &amp; ");
 			reader.replace("<b>", " ");
 			reader.replace("</b>", " ");
 			reader.replace("<u>", " ");
@@ -609,14 +628,14 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 			// System.out.println(uri);
 			// ParserUtils.printFromReader(reader);
 
-			final XmlPullParserFactory factory = XmlPullParserFactory.newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME), null);
-			final XmlPullParser pp = factory.newPullParser();
+			pp = XmlPullParserPool.obtain();
 			pp.setInput(reader);
 
 			pp.nextTag();
 
 			final ResultHeader header = new ResultHeader(SERVER_PRODUCT);
 			final QueryDeparturesResult result = new QueryDeparturesResult(header);
+			final Location station = new Location(LocationType.STATION, stationId);
 			final List<Departure> departures = new ArrayList<Departure>(8);
 
 			if (XmlPullUtil.test(pp, "Err"))
@@ -628,8 +647,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 					return new QueryDeparturesResult(header, QueryDeparturesResult.Status.INVALID_STATION);
 				if (code.equals("H890"))
 				{
-					result.stationDepartures.add(new StationDepartures(new Location(LocationType.STATION, stationId), Collections
-							.<Departure> emptyList(), null));
+					result.stationDepartures.add(new StationDepartures(station, Collections.<Departure> emptyList(), null));
 					return result;
 				}
 				throw new IllegalArgumentException("unknown error " + code + ", " + text);
@@ -772,6 +790,12 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 					final Departure departure = new Departure(plannedTime.getTime(), predictedTime != null ? predictedTime.getTime() : null, line,
 							position, destination, capacity, message);
 					departures.add(departure);
+					if (listener != null && !listener.departure(station, departure))
+					{
+						// enough departures, the rest of the response is not needed
+						ParserUtils.abortInputStream(is);
+						break;
+					}
 				}
 
 				if (pp.isEmptyElementTag())
@@ -788,7 +812,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 					pp.nextTag();
 			}
 
-			result.stationDepartures.add(new StationDepartures(new Location(LocationType.STATION, stationId), departures, null));
+			result.stationDepartures.add(new StationDepartures(station, departures, null));
 			return result;
 		}
 		catch (final XmlPullParserException x)
@@ -799,10 +823,13 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 		{
 			if (reader != null)
 				reader.close();
+			else if (is != null)
+				is.close();
+			XmlPullParserPool.recycle(pp);
 		}
 	}
 
-	protected void addCustomReplaces(final StringReplaceReader reader)
+	protected void addCustomReplaces(final MultiReplaceReader reader)
 	{
 	}
 
@@ -999,14 +1026,14 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 		// ParserUtils.printXml(ParserUtils.scrape(queryEndpoint, request, null, null));
 
 		Reader reader = null;
+		XmlPullParser pp = null;
 
 		try
 		{
 			final String endpoint = extXmlEndpoint != null ? extXmlEndpoint : queryEndpoint;
 			reader = new InputStreamReader(ParserUtils.scrapeInputStream(endpoint, request, null, null, null, 3), ISO_8859_1);
 
-			final XmlPullParserFactory factory = XmlPullParserFactory.newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME), null);
-			final XmlPullParser pp = factory.newPullParser();
+			pp = XmlPullParserPool.obtain();
 			pp.setInput(reader);
 
 			XmlPullUtil.require(pp, "ResC");
@@ -1370,6 +1397,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 		{
 			if (reader != null)
 				reader.close();
+			XmlPullParserPool.recycle(pp);
 		}
 	}
 
@@ -1513,7 +1541,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 	{
 	}
 
-	private final static int QUERY_TRIPS_BINARY_BUFFER_SIZE = 384 * 1024;
+	private final static int QUERY_TRIPS_BINARY_BUFFER_SIZE = 64 * 1024;
 
 	protected final QueryTripsResult queryTripsBinary(Location from, Location via, Location to, final Date date, final boolean dep,
 			final int numTrips, final Collection<Product> products, final WalkSpeed walkSpeed, final Accessibility accessibility,
@@ -1570,20 +1598,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 		uri.append("&REQ0HafasScrollDir=").append(later ? 1 : 2);
 		appendCustomTripsQueryBinaryUri(uri);
 
-		return queryTripsBinary(uri.toString(), null, null, null, QUERY_TRIPS_BINARY_BUFFER_SIZE + context.usedBufferSize);
-	}
-
-	private class CustomBufferedInputStream extends BufferedInputStream
-	{
-		public CustomBufferedInputStream(final InputStream in)
-		{
-			super(in);
-		}
-
-		public int getCount()
-		{
-			return count;
-		}
+		return queryTripsBinary(uri.toString(), null, null, null, context.usedBufferSize);
 	}
 
 	private QueryTripsResult queryTripsBinary(final String uri, final Location from, final Location via, final Location to,
@@ -1595,13 +1610,13 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 
 		// System.out.println(uri);
 
-		LittleEndianDataInputStream is = null;
+		InputStream body = null;
 
 		try
 		{
-			final CustomBufferedInputStream bis = new CustomBufferedInputStream(ParserUtils.scrapeInputStream(uri));
-			is = new LittleEndianDataInputStream(bis);
-			is.mark(expectedBufferSize);
+			// the whole payload is needed for seeking back and forth
+			body = ParserUtils.scrapeInputStream(uri);
+			final LittleEndianBuffer is = LittleEndianBuffer.readFully(body, expectedBufferSize);
 
 			// quick check of status
 			final int version = is.readShortReverse();
@@ -1610,25 +1625,21 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 			final ResultHeader header = new ResultHeader(SERVER_PRODUCT, Integer.toString(version), 0, null);
 
 			// quick seek for pointers
-			is.reset();
-			is.skipBytes(0x20);
+			is.position(0x20);
 			final int serviceDaysTablePtr = is.readIntReverse();
 			final int stringTablePtr = is.readIntReverse();
 
-			is.reset();
-			is.skipBytes(0x36);
+			is.position(0x36);
 			final int stationTablePtr = is.readIntReverse();
 			final int commentTablePtr = is.readIntReverse();
 
-			is.reset();
-			is.skipBytes(0x46);
+			is.position(0x46);
 			final int extensionHeaderPtr = is.readIntReverse();
 
 			// read strings
 			final StringTable strings = new StringTable(is, stringTablePtr, serviceDaysTablePtr - stringTablePtr);
 
-			is.reset();
-			is.skipBytes(extensionHeaderPtr);
+			is.position(extensionHeaderPtr);
 
 			// read extension header
 			final int extensionHeaderLength = is.readIntReverse();
@@ -1640,8 +1651,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 
 			if (errorCode == 0)
 			{
-				is.reset();
-				is.skipBytes(extensionHeaderPtr + 0x8);
+				is.position(extensionHeaderPtr + 0x8);
 
 				final int seqNr = is.readShortReverse();
 				if (seqNr == 0)
@@ -1666,8 +1676,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 				{
 					if (extensionHeaderLength < 0x32)
 						throw new IllegalArgumentException("too short: " + extensionHeaderLength);
-					is.reset();
-					is.skipBytes(extensionHeaderPtr + 0x2c);
+					is.position(extensionHeaderPtr + 0x2c);
 					tripAttrsPtr = is.readIntReverse();
 				}
 				else
@@ -1676,8 +1685,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 				}
 
 				// determine stops offset
-				is.reset();
-				is.skipBytes(tripDetailsPtr);
+				is.position(tripDetailsPtr);
 				final int tripDetailsVersion = is.readShortReverse();
 				if (tripDetailsVersion != 1)
 					throw new IllegalStateException("unknown trip details version: " + tripDetailsVersion);
@@ -1696,16 +1704,14 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 				final CommentTable comments = new CommentTable(is, commentTablePtr, tripDetailsPtr - commentTablePtr, strings);
 
 				// really read header
-				is.reset();
-				is.skipBytes(0x02);
+				is.position(0x02);
 
 				final Location resDeparture = location(is, strings);
 				final Location resArrival = location(is, strings);
 
 				final int numTrips = is.readShortReverse();
 
-				is.readInt();
-				is.readInt();
+				is.skipBytes(8);
 
 				final long resDate = date(is);
 				/* final long resDate30 = */date(is);
@@ -1715,8 +1721,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 				// read trips
 				for (int iTrip = 0; iTrip < numTrips; iTrip++)
 				{
-					is.reset();
-					is.skipBytes(0x4a + iTrip * 12);
+					is.position(0x4a + iTrip * 12);
 
 					final int serviceDaysTableOffset = is.readShortReverse();
 
@@ -1728,8 +1733,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 
 					/* final long duration = time(is, 0, 0); */is.readShortReverse();
 
-					is.reset();
-					is.skipBytes(serviceDaysTablePtr + serviceDaysTableOffset);
+					is.position(serviceDaysTablePtr + serviceDaysTableOffset);
 
 					/* final String serviceDaysText = */strings.read(is);
 
@@ -1753,12 +1757,10 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 						break;
 					}
 
-					is.reset();
-					is.skipBytes(tripDetailsPtr + tripDetailsIndexOffset + iTrip * 2);
+					is.position(tripDetailsPtr + tripDetailsIndexOffset + iTrip * 2);
 					final int tripDetailsOffset = is.readShortReverse();
 
-					is.reset();
-					is.skipBytes(tripDetailsPtr + tripDetailsOffset);
+					is.position(tripDetailsPtr + tripDetailsOffset);
 					final int realtimeStatus = is.readShortReverse();
 
 					/* final short delay = */is.readShortReverse();
@@ -1766,12 +1768,10 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 					String connectionId = null;
 					if (tripAttrsPtr != 0)
 					{
-						is.reset();
-						is.skipBytes(tripAttrsPtr + iTrip * 2);
+						is.position(tripAttrsPtr + iTrip * 2);
 						final int tripAttrsIndex = is.readShortReverse();
 
-						is.reset();
-						is.skipBytes(attrsOffset + tripAttrsIndex * 4);
+						is.position(attrsOffset + tripAttrsIndex * 4);
 						while (true)
 						{
 							final String key = strings.read(is);
@@ -1788,8 +1788,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 
 					for (int iLegs = 0; iLegs < numLegs; iLegs++)
 					{
-						is.reset();
-						is.skipBytes(0x4a + legsOffset + iLegs * 20);
+						is.position(0x4a + legsOffset + iLegs * 20);
 
 						final long plannedDepartureTime = time(is, resDate, tripDayOffset);
 						final Location departureLocation = stations.read(is);
@@ -1826,8 +1825,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 							}
 						}
 
-						is.reset();
-						is.skipBytes(attrsOffset + legAttrIndex * 4);
+						is.position(attrsOffset + legAttrIndex * 4);
 						String directionStr = null;
 						int lineClass = 0;
 						String lineCategory = null;
@@ -1855,8 +1853,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 						if (lineCategory == null && lineName != null)
 							lineCategory = categoryFromName(lineName);
 
-						is.reset();
-						is.skipBytes(tripDetailsPtr + tripDetailsOffset + tripDetailsLegOffset + iLegs * tripDetailsLegSize);
+						is.position(tripDetailsPtr + tripDetailsOffset + tripDetailsLegOffset + iLegs * tripDetailsLegSize);
 
 						if (tripDetailsLegSize != 16)
 							throw new IllegalStateException("unhandled trip details leg size: " + tripDetailsLegSize);
@@ -1866,7 +1863,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 						final Position predictedDeparturePosition = normalizePosition(strings.read(is));
 						final Position predictedArrivalPosition = normalizePosition(strings.read(is));
 
-						is.readInt();
+						is.skipBytes(4);
 
 						final int firstStopIndex = is.readShortReverse();
 
@@ -1876,8 +1873,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 
 						if (numStops > 0)
 						{
-							is.reset();
-							is.skipBytes(tripDetailsPtr + stopsOffset + firstStopIndex * stopsSize);
+							is.position(tripDetailsPtr + stopsOffset + firstStopIndex * stopsSize);
 
 							if (stopsSize != 26)
 								throw new IllegalStateException("unhandled stops size: " + stopsSize);
@@ -1893,7 +1889,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 								final Position plannedStopDeparturePosition = normalizePosition(strings.read(is));
 								final Position plannedStopArrivalPosition = normalizePosition(strings.read(is));
 
-								is.readInt();
+								is.skipBytes(4);
 
 								final long predictedStopDepartureTime = time(is, resDate, tripDayOffset);
 								final Date predictedStopDepartureDate = predictedStopDepartureTime != 0 ? new Date(predictedStopDepartureTime) : null;
@@ -1902,7 +1898,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 								final Position predictedStopDeparturePosition = normalizePosition(strings.read(is));
 								final Position predictedStopArrivalPosition = normalizePosition(strings.read(is));
 
-								is.readInt();
+								is.skipBytes(4);
 
 								final Location stopLocation = stations.read(is);
 
@@ -1992,7 +1988,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 				}
 
 				final QueryTripsResult result = new QueryTripsResult(header, uri, from, via, to, new QueryTripsBinaryContext(requestId, seqNr, ld,
-						bis.getCount()), trips);
+						is.length()), trips);
 
 				return result;
 			}
@@ -2046,15 +2042,15 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 		}
 		finally
 		{
-			if (is != null)
-				is.close();
+			if (body != null)
+				body.close();
 		}
 	}
 
-	private Location location(final LittleEndianDataInputStream is, final StringTable strings) throws IOException
+	private Location location(final LittleEndianBuffer is, final StringTable strings) throws IOException
 	{
 		final String[] placeAndName = splitPlaceAndName(strings.read(is));
-		is.readShort();
+		is.skipBytes(2);
 		final int type = is.readShortReverse();
 		final LocationType locationType;
 		if (type == 1)
@@ -2071,7 +2067,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 		return new Location(locationType, 0, lat, lon, placeAndName[0], placeAndName[1]);
 	}
 
-	private long date(final LittleEndianDataInputStream is) throws IOException
+	private long date(final LittleEndianBuffer is) throws IOException
 	{
 		final int days = is.readShortReverse();
 
@@ -2083,7 +2079,7 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 		return date.getTimeInMillis();
 	}
 
-	private long time(final LittleEndianDataInputStream is, final long baseDate, final int dayOffset) throws IOException
+	private long time(final LittleEndianBuffer is, final long baseDate, final int dayOffset) throws IOException
 	{
 		final int value = is.readShortReverse();
 		if (value == 0xffff)
@@ -2111,127 +2107,119 @@ public abstract class AbstractHafasProvider extends AbstractNetworkProvider
 
 	private static class StringTable
 	{
-		private Charset encoding = Charset.forName("ASCII");
-		private final byte[] table;
+		private final LittleEndianBuffer buffer;
+		private final int tablePtr;
+		private final int length;
+		private String encoding = "ASCII";
+		// decoded strings by pointer, most pointers are used many times
+		private final String[] cache;
 
-		public StringTable(final DataInputStream is, final int stringTablePtr, final int length) throws IOException
+		public StringTable(final LittleEndianBuffer buffer, final int stringTablePtr, final int length)
 		{
-			is.reset();
-			is.skipBytes(stringTablePtr);
-			table = new byte[length];
-			is.readFully(table);
+			this.buffer = buffer;
+			this.tablePtr = stringTablePtr;
+			this.length = length;
+			this.cache = new String[length];
 		}
 
 		public void setEncoding(final Charset encoding)
 		{
-			this.encoding = encoding;
+			this.encoding = encoding.name();
+			Arrays.fill(cache, null);
 		}
 
-		public String read(final LittleEndianDataInputStream is) throws IOException
+		public String read(final LittleEndianBuffer is) throws IOException
+		{
+			return get(is.readShortReverse());
+		}
+
+		public String get(final int pointer) throws IOException
 		{
-			final int pointer = is.readShortReverse();
 			if (pointer == 0)
 				return null;
-			if (pointer >= table.length)
-				throw new IllegalStateException("pointer " + pointer + " cannot exceed strings table size " + table.length);
-
-			final InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(table, pointer, table.length - pointer), encoding);
+			if (pointer >= length)
+				throw new IllegalStateException("pointer " + pointer + " cannot exceed strings table size " + length);
 
-			try
+			String string = cache[pointer];
+			if (string == null)
 			{
-				final StringBuilder builder = new StringBuilder();
-
-				int c;
-				while ((c = reader.read()) != 0)
-					builder.append((char) c);
-
-				return builder.toString().trim();
-			}
-			finally
-			{
-				reader.close();
+				string = buffer.getString(tablePtr + pointer, tablePtr + length, encoding).trim();
+				cache[pointer] = string;
 			}
+			return string;
 		}
 	}
 
 	private static class CommentTable
 	{
+		private final LittleEndianBuffer buffer;
+		private final int tablePtr;
+		private final int length;
 		private final StringTable strings;
-		private final byte[] table;
 
-		public CommentTable(final DataInputStream is, final int commentTablePtr, final int length, final StringTable strings) throws IOException
+		public CommentTable(final LittleEndianBuffer buffer, final int commentTablePtr, final int length, final StringTable strings)
 		{
-			is.reset();
-			is.skipBytes(commentTablePtr);
-			table = new byte[length];
-			is.readFully(table);
-
+			this.buffer = buffer;
+			this.tablePtr = commentTablePtr;
+			this.length = length;
 			this.strings = strings;
 		}
 
-		public String[] read(final LittleEndianDataInputStream is) throws IOException
+		public String[] read(final LittleEndianBuffer is) throws IOException
 		{
 			final int pointer = is.readShortReverse();
-			if (pointer >= table.length)
-				throw new IllegalStateException("pointer " + pointer + " cannot exceed comments table size " + table.length);
-
-			final LittleEndianDataInputStream commentsInputStream = new LittleEndianDataInputStream(new ByteArrayInputStream(table, pointer,
-					table.length - pointer));
+			if (pointer >= length)
+				throw new IllegalStateException("pointer " + pointer + " cannot exceed comments table size " + length);
 
-			try
-			{
-				final int numComments = commentsInputStream.readShortReverse();
-				final String[] comments = new String[numComments];
+			final int ptr = tablePtr + pointer;
+			final int numComments = buffer.getShortReverse(ptr);
+			final String[] comments = new String[numComments];
 
-				for (int i = 0; i < numComments; i++)
-					comments[i] = strings.read(commentsInputStream);
+			for (int i = 0; i < numComments; i++)
+				comments[i] = strings.get(buffer.getShortReverse(ptr + 2 + i * 2));
 
-				return comments;
-			}
-			finally
-			{
-				commentsInputStream.close();
-			}
+			return comments;
 		}
 	}
 
 	private class StationTable
 	{
+		private final LittleEndianBuffer buffer;
+		private final int tablePtr;
+		private final int length;
 		private final StringTable strings;
-		private final byte[] table;
+		// decoded stations by index, intermediate stops repeat a lot
+		private final Location[] cache;
 
-		public StationTable(final DataInputStream is, final int stationTablePtr, final int length, final StringTable strings) throws IOException
+		public StationTable(final LittleEndianBuffer buffer, final int stationTablePtr, final int length, final StringTable strings)
 		{
-			is.reset();
-			is.skipBytes(stationTablePtr);
-			table = new byte[length];
-			is.readFully(table);
-
+			this.buffer = buffer;
+			this.tablePtr = stationTablePtr;
+			this.length = length;
 			this.strings = strings;
+			this.cache = new Location[(length + 13) / 14];
 		}
 
-		private Location read(final LittleEndianDataInputStream is) throws IOException
+		private Location read(final LittleEndianBuffer is) throws IOException
 		{
 			final int index = is.readShortReverse();
 			final int ptr = index * 14;
-			if (ptr >= table.length)
-				throw new IllegalStateException("pointer " + ptr + " cannot exceed stations table size " + table.length);
+			if (ptr >= length)
+				throw new IllegalStateException("pointer " + ptr + " cannot exceed stations table size " + length);
 
-			final LittleEndianDataInputStream stationInputStream = new LittleEndianDataInputStream(new ByteArrayInputStream(table, ptr, 14));
-
-			try
-			{
-				final String[] placeAndName = splitPlaceAndName(strings.read(stationInputStream));
-				final int id = stationInputStream.readIntReverse();
-				final int lon = stationInputStream.readIntReverse();
-				final int lat = stationInputStream.readIntReverse();
-
-				return new Location(LocationType.STATION, id, lat, lon, placeAndName[0], placeAndName[1]);
-			}
-			finally
+			Location station = cache[index];
+			if (station == null)
 			{
-				stationInputStream.close();
+				final int stationPtr = tablePtr + ptr;
+				final String[] placeAndName = splitPlaceAndName(strings.get(buffer.getShortReverse(stationPtr)));
+				final int id = buffer.getIntReverse(stationPtr + 2);
+				final int lon = buffer.getIntReverse(stationPtr + 6);
+				final int lat = buffer.getIntReverse(stationPtr + 10);
+
+				station = new Location(LocationType.STATION, id, lat, lon, placeAndName[0], placeAndName[1]);
+				cache[index] = station;
 			}
+			return station;
 		}
 	}
 
@@ -17,15 +17,20 @@
 
 package de.schildbach.pte;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import de.schildbach.pte.dto.Departure;
 import de.schildbach.pte.dto.Point;
 import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.StationDepartures;
 import de.schildbach.pte.dto.Style;
+import de.schildbach.pte.util.SessionStore;
 
 /**
  * @author Andreas Schildbach
@@ -37,6 +42,7 @@ public abstract class AbstractNetworkProvider implements NetworkProvider
 	protected static final Set<Product> ALL_EXCEPT_HIGHSPEED;
 
 	private Map<String, Style> styles = null;
+	private SessionStore sessionStore = new SessionStore();
 
 	static
 	{
@@ -49,11 +55,107 @@ public abstract class AbstractNetworkProvider implements NetworkProvider
 		return ALL_EXCEPT_HIGHSPEED;
 	}
 
+	/**
+	 * Fallback for providers that cannot stream: the listener is called with all departures once the result is
+	 * complete, stopping early only ends the calls. Streaming providers override this and implement the three argument
+	 * variant on top of it.
+	 */
+	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs,
+			final DeparturesListener listener) throws IOException
+	{
+		return deliverDepartures(queryDepartures(stationId, maxDepartures, equivs), listener);
+	}
+
+	/**
+	 * Call the listener with the departures of a complete result, until it stops.
+	 * 
+	 * @return the result
+	 */
+	protected static QueryDeparturesResult deliverDepartures(final QueryDeparturesResult result, final DeparturesListener listener)
+	{
+		if (listener != null && result.status == QueryDeparturesResult.Status.OK)
+			for (final StationDepartures stationDepartures : result.stationDepartures)
+				for (final Departure departure : stationDepartures.departures)
+					if (!listener.departure(stationDepartures.location, departure))
+						return result;
+
+		return result;
+	}
+
+	/**
+	 * Fallback for providers that cannot query several stations in one request: the stations are queried one after
+	 * another, so the batch never sends more than one request at a time.
+	 */
+	public QueryDeparturesResult[] queryDepartures(final int[] stationIds, final int maxDepartures, final boolean equivs,
+			final DeparturesBatchListener listener) throws IOException
+	{
+		final QueryDeparturesResult[] results = new QueryDeparturesResult[stationIds.length];
+		IOException failure = null;
+
+		for (int i = 0; i < stationIds.length; i++)
+		{
+			if (listener != null && !listener.queryAlone(stationIds[i]))
+				continue;
+
+			try
+			{
+				results[i] = queryDepartures(stationIds[i], maxDepartures, equivs);
+			}
+			catch (final IOException x)
+			{
+				if (failure == null)
+					failure = x;
+				continue;
+			}
+
+			if (listener != null && !listener.departures(stationIds[i], results[i]))
+				break;
+		}
+
+		return checkDeparturesBatch(results, failure);
+	}
+
+	public boolean canBatchDepartures()
+	{
+		return false;
+	}
+
+	/**
+	 * @return the results, unless every single query failed
+	 */
+	protected static QueryDeparturesResult[] checkDeparturesBatch(final QueryDeparturesResult[] results, final IOException failure)
+			throws IOException
+	{
+		if (failure != null)
+		{
+			for (final QueryDeparturesResult result : results)
+				if (result != null)
+					return results;
+
+			throw failure;
+		}
+
+		return results;
+	}
+
 	protected void setStyles(final Map<String, Style> styles)
 	{
 		this.styles = styles;
 	}
 
+	/**
+	 * Keep a separate session cookie for every host of this provider.
+	 */
+	protected void setSessionPerHost(final boolean sessionPerHost)
+	{
+		this.sessionStore = new SessionStore(sessionPerHost);
+	}
+
+	protected SessionStore sessionStore()
+	{
+		return sessionStore;
+	}
+
 	private static final char STYLES_SEP = '|';
 
 	public Style lineStyle(final String network, final String line)
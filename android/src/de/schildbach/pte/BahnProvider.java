@@ -156,12 +156,13 @@ public final class BahnProvider extends AbstractHafasProvider
 		}
 	}
 
-	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs) throws IOException
+	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs,
+			final DeparturesListener listener) throws IOException
 	{
 		final StringBuilder uri = new StringBuilder(stationBoardEndpoint);
 		uri.append(xmlQueryDeparturesParameters(stationId));
 
-		return xmlQueryDepartures(uri.toString(), stationId);
+		return xmlQueryDepartures(uri.toString(), stationId, listener);
 	}
 
 	public List<Location> autocompleteStations(final CharSequence constraint) throws IOException
@@ -111,9 +111,10 @@ public class BayernProvider extends AbstractEfaProvider
 	}
 
 	@Override
-	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs) throws IOException
+	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs,
+			final DeparturesListener listener) throws IOException
 	{
-		return queryDeparturesMobile(stationId, maxDepartures, equivs);
+		return queryDeparturesMobile(stationId, maxDepartures, equivs, listener);
 	}
 
 	@Override
@@ -48,6 +48,7 @@ import de.schildbach.pte.dto.Style;
 import de.schildbach.pte.dto.Style.Shape;
 import de.schildbach.pte.exception.UnexpectedRedirectException;
 import de.schildbach.pte.geo.Berlin;
+import de.schildbach.pte.util.HtmlTokenizer;
 import de.schildbach.pte.util.ParserUtils;
 
 /**
@@ -175,9 +176,7 @@ public final class BvgProvider extends AbstractHafasProvider
 
 	private final static Pattern P_NEARBY_OWN = Pattern.compile("/Fahrinfo/bin/query\\.bin.*?"
 			+ "location=(\\d+),HST,WGS84,(-?\\d+\\.\\d+),(-?\\d+\\.\\d+)&amp;label=([^\"]*)\"");
-	private final static Pattern P_NEARBY_PAGE = Pattern.compile("<table class=\"ivuTableOverview\".*?<tbody>(.*?)</tbody>", Pattern.DOTALL);
-	private final static Pattern P_NEARBY_COARSE = Pattern.compile("<tr>(.*?)</tr>", Pattern.DOTALL);
-	private final static Pattern P_NEARBY_FINE_LOCATION = Pattern.compile("input=(\\d+)&[^\"]*\">([^<]*)<");
+	private final static Pattern P_NEARBY_FINE_LOCATION = Pattern.compile("input=(\\d+)&");
 	private static final Pattern P_NEARBY_ERRORS = Pattern.compile("(Haltestellen in der Umgebung anzeigen)");
 
 	public NearbyStationsResult queryNearbyStations(final Location location, final int maxDistance, final int maxStations) throws IOException
@@ -217,26 +216,22 @@ public final class BvgProvider extends AbstractHafasProvider
 				stations.add(new Location(LocationType.STATION, parsedId, parsedLat, parsedLon, parsedPlaceAndName[0], parsedPlaceAndName[1]));
 			}
 
-			final Matcher mPage = P_NEARBY_PAGE.matcher(page);
-			if (mPage.find())
+			final HtmlTokenizer html = new HtmlTokenizer(page);
+			if (html.skipToStartTag("table", "ivuTableOverview") && html.skipToStartTag("tbody", null))
 			{
-				final Matcher mCoarse = P_NEARBY_COARSE.matcher(mPage.group(1));
-
-				while (mCoarse.find())
+				HtmlTokenizer.Row row;
+				while ((row = html.nextRow("tbody")) != null)
 				{
-					final Matcher mFineLocation = P_NEARBY_FINE_LOCATION.matcher(mCoarse.group(1));
+					final Location station = nearbyStation(row);
 
-					if (mFineLocation.find())
+					if (station != null)
 					{
-						final int parsedId = Integer.parseInt(mFineLocation.group(1));
-						final String[] parsedPlaceAndName = splitPlaceAndName(ParserUtils.resolveEntities(mFineLocation.group(2)));
-						final Location station = new Location(LocationType.STATION, parsedId, parsedPlaceAndName[0], parsedPlaceAndName[1]);
 						if (!stations.contains(station))
 							stations.add(station);
 					}
 					else
 					{
-						throw new IllegalArgumentException("cannot parse '" + mCoarse.group(1) + "' on " + uri);
+						throw new IllegalArgumentException("cannot parse '" + row + "' on " + uri);
 					}
 				}
 
@@ -256,6 +251,25 @@ public final class BvgProvider extends AbstractHafasProvider
 		}
 	}
 
+	private Location nearbyStation(final HtmlTokenizer.Row row)
+	{
+		for (final HtmlTokenizer.Link link : row.links)
+		{
+			if (link.href == null)
+				continue;
+
+			final Matcher mFineLocation = P_NEARBY_FINE_LOCATION.matcher(link.href);
+			if (mFineLocation.find())
+			{
+				final int parsedId = Integer.parseInt(mFineLocation.group(1));
+				final String[] parsedPlaceAndName = splitPlaceAndName(ParserUtils.resolveEntities(link.text));
+				return new Location(LocationType.STATION, parsedId, parsedPlaceAndName[0], parsedPlaceAndName[1]);
+			}
+		}
+
+		return null;
+	}
+
 	private static final String DEPARTURE_URL_LIVE = DEPARTURE_URL + "/IstAbfahrtzeiten/index/mobil?";
 
 	private String departuresQueryLiveUri(final int stationId)
@@ -281,12 +295,7 @@ public final class BvgProvider extends AbstractHafasProvider
 		return uri.toString();
 	}
 
-	private static final Pattern P_DEPARTURES_PLAN_HEAD = Pattern.compile(".*?" //
-			+ "<strong>(.*?)</strong>.*?Datum:\\s*([^<\n]+)[<\n].*?" //
-	, Pattern.DOTALL);
-	private static final Pattern P_DEPARTURES_PLAN_COARSE = Pattern.compile("" //
-			+ "<tr class=\"ivu_table_bg\\d\">\\s*((?:<td class=\"ivu_table_c_dep\">|<td>).+?)\\s*</tr>" //
-	, Pattern.DOTALL);
+	private static final Pattern P_DEPARTURES_HEAD_DATE = Pattern.compile("Datum:\\s*([^<\n]+)");
 	private static final Pattern P_DEPARTURES_PLAN_FINE = Pattern.compile("" //
 			+ "<td><strong>(\\d{1,2}:\\d{2})</strong></td>.*?" // time
 			+ "<strong>\\s*(.*?)[\\s\\*]*</strong>.*?" // line
@@ -297,29 +306,63 @@ public final class BvgProvider extends AbstractHafasProvider
 	private static final Pattern P_DEPARTURES_PLAN_ERRORS = Pattern.compile("(Bhf\\./Hst\\.:)|(Wartungsarbeiten)|" //
 			+ "(http-equiv=\"refresh\")", Pattern.CASE_INSENSITIVE);
 
-	private static final Pattern P_DEPARTURES_LIVE_HEAD = Pattern.compile(".*?" //
-			+ "<strong>(.*?)</strong>.*?Datum:\\s*([^<\n]+)[<\n].*?" //
-	, Pattern.DOTALL);
-	private static final Pattern P_DEPARTURES_LIVE_COARSE = Pattern.compile("" //
-			+ "<tr class=\"ivu_table_bg\\d\">\\s*((?:<td class=\"ivu_table_c_dep\">|<td>).+?)\\s*</tr>" //
-	, Pattern.DOTALL);
-	private static final Pattern P_DEPARTURES_LIVE_FINE = Pattern.compile("" //
-			+ "<td class=\"ivu_table_c_dep\">\\s*(\\d{1,2}:\\d{2})\\s*" // time
-			+ "(\\*)?\\s*</td>\\s*" // planned
-			+ "<td class=\"ivu_table_c_line\">\\s*(.*?)\\s*</td>\\s*" // line
-			+ "<td>.*?<a.*?[^-]>\\s*(.*?)\\s*</a>.*?</td>" // destination
-	, Pattern.DOTALL);
-	private static final Pattern P_DEPARTURES_LIVE_MSGS_COARSE = Pattern.compile("" //
-			+ "<tr class=\"ivu_table_bg\\d\">\\s*(<td class=\"ivu_table_c_line\">.+?)\\s*</tr>" //
-	, Pattern.DOTALL);
-	private static final Pattern P_DEPARTURES_LIVE_MSGS_FINE = Pattern.compile("" //
-			+ "<td class=\"ivu_table_c_line\">\\s*(.*?)\\s*</td>\\s*" // line
-			+ "<td class=\"ivu_table_c_dep\">\\s*(\\d{2}\\.\\d{2}\\.\\d{4})\\s*</td>\\s*" // date
-			+ "<td>([^<]*)</td>" // message
-	, Pattern.DOTALL);
+	private static final Pattern P_DEPARTURES_LIVE_TIME = Pattern.compile("(\\d{1,2}:\\d{2})\\s*(\\*)?");
 	private static final Pattern P_DEPARTURES_LIVE_ERRORS = Pattern.compile(
 			"(Haltestelle:)|(Wartungsgr&uuml;nden|nur eingeschränkt)|(http-equiv=\"refresh\")", Pattern.CASE_INSENSITIVE);
 
+	private static final String CLASS_DEPARTURES_ROW = "ivu_table_bg";
+	private static final String CLASS_DEPARTURES_TIME = "ivu_table_c_dep";
+	private static final String CLASS_DEPARTURES_LINE = "ivu_table_c_line";
+
+	/**
+	 * @return station name and date of a departures page, or null if there is none
+	 */
+	private static String[] departuresHead(final CharSequence page)
+	{
+		final HtmlTokenizer html = new HtmlTokenizer(page);
+		if (!html.skipToStartTag("strong", null))
+			return null;
+		final String name = html.elementText();
+
+		while (html.next() != HtmlTokenizer.END_DOCUMENT)
+		{
+			if (html.getEventType() == HtmlTokenizer.TEXT)
+			{
+				final Matcher mDate = P_DEPARTURES_HEAD_DATE.matcher(html.getText());
+				if (mDate.find())
+					return new String[] { name, mDate.group(1) };
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return true for {@code <tr class="ivu_table_bgN">} rows, which hold departures or messages
+	 */
+	private static boolean isDeparturesRow(final HtmlTokenizer.Row row)
+	{
+		final String className = row.className;
+		return className != null && className.length() == CLASS_DEPARTURES_ROW.length() + 1 && className.startsWith(CLASS_DEPARTURES_ROW)
+				&& Character.isDigit(className.charAt(CLASS_DEPARTURES_ROW.length())) && !row.cells.isEmpty();
+	}
+
+	/**
+	 * @return true if the row starts with {@code <td class="ivu_table_c_dep">} or a plain {@code <td>}
+	 */
+	private static boolean isDepartureRow(final HtmlTokenizer.Row row)
+	{
+		final HtmlTokenizer.Cell first = row.cells.get(0);
+		return CLASS_DEPARTURES_TIME.equals(first.className) || !first.hasAttributes;
+	}
+
+	@Override
+	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs,
+			final DeparturesListener listener) throws IOException
+	{
+		return deliverDepartures(queryDepartures(stationId, maxDepartures, equivs), listener);
+	}
+
 	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs) throws IOException
 	{
 		final ResultHeader header = new ResultHeader(SERVER_PRODUCT);
@@ -343,51 +386,65 @@ public final class BvgProvider extends AbstractHafasProvider
 			}
 
 			// parse page
-			final Matcher mHead = P_DEPARTURES_LIVE_HEAD.matcher(page);
-			if (mHead.matches())
+			final String[] head = departuresHead(page);
+			if (head != null)
 			{
-				final String[] placeAndName = splitPlaceAndName(ParserUtils.resolveEntities(mHead.group(1)));
+				final String[] placeAndName = splitPlaceAndName(ParserUtils.resolveEntities(head[0]));
 				final Calendar currentTime = new GregorianCalendar(timeZone());
 				currentTime.clear();
-				parseDateTime(currentTime, mHead.group(2));
+				parseDateTime(currentTime, head[1]);
 
 				final Map<String, String> messages = new HashMap<String, String>();
+				final List<HtmlTokenizer.Row> departureRows = new ArrayList<HtmlTokenizer.Row>();
 
-				final Matcher mMsgsCoarse = P_DEPARTURES_LIVE_MSGS_COARSE.matcher(page);
-				while (mMsgsCoarse.find())
+				// messages and departures share one pass over the rows, messages are applied afterwards
+				final HtmlTokenizer html = new HtmlTokenizer(page);
+				HtmlTokenizer.Row row;
+				while ((row = html.nextRow()) != null)
 				{
-					final Matcher mMsgsFine = P_DEPARTURES_LIVE_MSGS_FINE.matcher(mMsgsCoarse.group(1));
-					if (mMsgsFine.matches())
-					{
-						final String lineName = ParserUtils.resolveEntities(mMsgsFine.group(1));
-						final char linePproduct = normalizeType(categoryFromName(lineName));
-						final Line line = newLine(linePproduct, normalizeLineName(lineName), null);
+					if (!isDeparturesRow(row))
+						continue;
 
-						final String message = ParserUtils.resolveEntities(mMsgsFine.group(3)).replace('\n', ' ');
-						messages.put(line.label, message);
+					final List<HtmlTokenizer.Cell> cells = row.cells;
+					if (CLASS_DEPARTURES_LINE.equals(cells.get(0).className))
+					{
+						if (cells.size() >= 3 && CLASS_DEPARTURES_TIME.equals(cells.get(1).className) && !cells.get(2).hasAttributes)
+						{
+							final String lineName = ParserUtils.resolveEntities(cells.get(0).text);
+							final char linePproduct = normalizeType(categoryFromName(lineName));
+							final Line line = newLine(linePproduct, normalizeLineName(lineName), null);
+
+							final String message = ParserUtils.resolveEntities(cells.get(2).text).replace('\n', ' ');
+							messages.put(line.label, message);
+						}
+						else
+						{
+							throw new IllegalArgumentException("cannot parse '" + row + "' on " + uri);
+						}
 					}
-					else
+					else if (isDepartureRow(row))
 					{
-						throw new IllegalArgumentException("cannot parse '" + mMsgsCoarse.group(1) + "' on " + uri);
+						departureRows.add(row);
 					}
 				}
 
-				final List<Departure> departures = new ArrayList<Departure>(8);
+				final List<Departure> departures = new ArrayList<Departure>(departureRows.size());
 
-				final Matcher mDepCoarse = P_DEPARTURES_LIVE_COARSE.matcher(page);
-				while (mDepCoarse.find())
+				for (final HtmlTokenizer.Row departureRow : departureRows)
 				{
-					final Matcher mDepFine = P_DEPARTURES_LIVE_FINE.matcher(mDepCoarse.group(1));
-					if (mDepFine.matches())
+					final List<HtmlTokenizer.Cell> cells = departureRow.cells;
+					final Matcher mTime = P_DEPARTURES_LIVE_TIME.matcher(cells.get(0).text);
+					if (cells.size() >= 3 && CLASS_DEPARTURES_TIME.equals(cells.get(0).className) && mTime.matches()
+							&& CLASS_DEPARTURES_LINE.equals(cells.get(1).className) && !cells.get(2).hasAttributes && !cells.get(2).links.isEmpty())
 					{
 						final Calendar parsedTime = new GregorianCalendar(timeZone());
 						parsedTime.setTimeInMillis(currentTime.getTimeInMillis());
-						ParserUtils.parseEuropeanTime(parsedTime, mDepFine.group(1));
+						ParserUtils.parseEuropeanTime(parsedTime, mTime.group(1));
 
 						if (parsedTime.getTimeInMillis() - currentTime.getTimeInMillis() < -PARSER_DAY_ROLLOVER_THRESHOLD_MS)
 							parsedTime.add(Calendar.DAY_OF_MONTH, 1);
 
-						boolean isPlanned = mDepFine.group(2) != null;
+						boolean isPlanned = mTime.group(2) != null;
 
 						Date plannedTime = null;
 						Date predictedTime = null;
@@ -396,13 +453,13 @@ public final class BvgProvider extends AbstractHafasProvider
 						else
 							plannedTime = parsedTime.getTime();
 
-						final String lineName = ParserUtils.resolveEntities(mDepFine.group(3));
+						final String lineName = ParserUtils.resolveEntities(cells.get(1).text);
 						final char lineProduct = normalizeType(categoryFromName(lineName));
 						final Line line = newLine(lineProduct, normalizeLineName(lineName), null);
 
 						final Position position = null;
 
-						final String[] destinationPlaceAndName = splitPlaceAndName(ParserUtils.resolveEntities(mDepFine.group(4)));
+						final String[] destinationPlaceAndName = splitPlaceAndName(ParserUtils.resolveEntities(cells.get(2).links.get(0).text));
 						final Location destination = new Location(LocationType.ANY, 0, destinationPlaceAndName[0], destinationPlaceAndName[1]);
 
 						final String message = messages.get(line.label);
@@ -413,7 +470,7 @@ public final class BvgProvider extends AbstractHafasProvider
 					}
 					else
 					{
-						throw new IllegalArgumentException("cannot parse '" + mDepCoarse.group(1) + "' on " + uri);
+						throw new IllegalArgumentException("cannot parse '" + departureRow + "' on " + uri);
 					}
 				}
 
@@ -444,19 +501,24 @@ public final class BvgProvider extends AbstractHafasProvider
 			}
 
 			// parse page
-			final Matcher mHead = P_DEPARTURES_PLAN_HEAD.matcher(page);
-			if (mHead.matches())
+			final String[] head = departuresHead(page);
+			if (head != null)
 			{
-				final String[] placeAndName = splitPlaceAndName(ParserUtils.resolveEntities(mHead.group(1)));
+				final String[] placeAndName = splitPlaceAndName(ParserUtils.resolveEntities(head[0]));
 				final Calendar currentTime = new GregorianCalendar(timeZone());
 				currentTime.clear();
-				ParserUtils.parseGermanDate(currentTime, mHead.group(2));
+				ParserUtils.parseGermanDate(currentTime, head[1]);
 				final List<Departure> departures = new ArrayList<Departure>(8);
 
-				final Matcher mDepCoarse = P_DEPARTURES_PLAN_COARSE.matcher(page);
-				while (mDepCoarse.find())
+				final HtmlTokenizer html = new HtmlTokenizer(page);
+				HtmlTokenizer.Row row;
+				while ((row = html.nextRow()) != null)
 				{
-					final Matcher mDepFine = P_DEPARTURES_PLAN_FINE.matcher(mDepCoarse.group(1));
+					if (!isDeparturesRow(row) || !isDepartureRow(row))
+						continue;
+
+					// the fine pattern only ever sees a single row
+					final Matcher mDepFine = P_DEPARTURES_PLAN_FINE.matcher(row.html);
 					if (mDepFine.matches())
 					{
 						final Calendar parsedTime = new GregorianCalendar(timeZone());
@@ -485,7 +547,7 @@ public final class BvgProvider extends AbstractHafasProvider
 					}
 					else
 					{
-						throw new IllegalArgumentException("cannot parse '" + mDepCoarse.group(1) + "' on " + uri);
+						throw new IllegalArgumentException("cannot parse '" + row + "' on " + uri);
 					}
 				}
 
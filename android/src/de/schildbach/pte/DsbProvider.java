@@ -135,12 +135,13 @@ public class DsbProvider extends AbstractHafasProvider
 		}
 	}
 
-	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs) throws IOException
+	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs,
+			final DeparturesListener listener) throws IOException
 	{
 		final StringBuilder uri = new StringBuilder(stationBoardEndpoint);
 		uri.append(xmlQueryDeparturesParameters(stationId));
 
-		return xmlQueryDepartures(uri.toString(), stationId);
+		return xmlQueryDepartures(uri.toString(), stationId, listener);
 	}
 
 	private static final String AUTOCOMPLETE_URI = "http://xmlopen.rejseplanen.dk/bin/rest.exe/location.name?input=%s";
@@ -23,6 +23,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Set;
 
+import de.schildbach.pte.dto.Departure;
 import de.schildbach.pte.dto.Location;
 import de.schildbach.pte.dto.NearbyStationsResult;
 import de.schildbach.pte.dto.Point;
@@ -66,6 +67,49 @@ public interface NetworkProvider
 		BIKE
 	}
 
+	/**
+	 * Receives departures while the response is still being parsed, and can stop parsing once it has enough.
+	 */
+	public interface DeparturesListener
+	{
+		/**
+		 * Called for every departure as soon as it is parsed, in the order of the response and on the querying thread.
+		 * 
+		 * @param station
+		 *            station the departure belongs to, may be one of the equivalent stations
+		 * @param departure
+		 *            the departure, also contained in the final result
+		 * @return {@code false} to stop reading the response, the result then holds the departures parsed so far
+		 */
+		boolean departure(Location station, Departure departure);
+	}
+
+	/**
+	 * Receives the results of a batch departures query station by station.
+	 */
+	public interface DeparturesBatchListener
+	{
+		/**
+		 * Called as soon as the departures of one of the stations are known, on the querying thread.
+		 * 
+		 * @param stationId
+		 *            id of the station as it was passed to the query
+		 * @param result
+		 *            the departures, also contained in the final result
+		 * @return {@code false} to skip the stations not queried yet, their results stay {@code null}
+		 */
+		boolean departures(int stationId, QueryDeparturesResult result);
+
+		/**
+		 * Called before a station is queried with a request that no other station shares, on the querying thread.
+		 * 
+		 * @param stationId
+		 *            id of the station as it was passed to the query
+		 * @return {@code false} to leave the station to the caller, its result stays {@code null}
+		 */
+		boolean queryAlone(int stationId);
+	}
+
 	NetworkId id();
 
 	boolean hasCapabilities(final Capability... capabilities);
@@ -98,6 +142,51 @@ public interface NetworkProvider
 	 */
 	QueryDeparturesResult queryDepartures(int stationId, int maxDepartures, boolean equivs) throws IOException;
 
+	/**
+	 * Get departures at a given station, handing out every departure as soon as it has been parsed. The listener can
+	 * stop the query early, which closes the connection without downloading the rest of the response. Providers that
+	 * cannot stream call the listener once the result is complete.
+	 * 
+	 * @param stationId
+	 *            id of the station
+	 * @param maxDepartures
+	 *            maximum number of departures to get or {@code 0}
+	 * @param equivs
+	 *            also query equivalent stations?
+	 * @param listener
+	 *            receives the departures while parsing, may be {@code null}
+	 * @return result object containing the departures
+	 * @throws IOException
+	 */
+	QueryDeparturesResult queryDepartures(int stationId, int maxDepartures, boolean equivs, DeparturesListener listener) throws IOException;
+
+	/**
+	 * Get departures at several stations at once. Providers that can answer for more than one station per request need
+	 * fewer round-trips, see {@link #canBatchDepartures()}. Stations that need a request of their own are queried one
+	 * after another, callers that want them in parallel leave them out through
+	 * {@link DeparturesBatchListener#queryAlone(int)} and query them on their own.
+	 * 
+	 * @param stationIds
+	 *            ids of the stations
+	 * @param maxDepartures
+	 *            maximum number of departures to get per request or {@code 0}
+	 * @param equivs
+	 *            also query equivalent stations?
+	 * @param listener
+	 *            receives the result of every station as soon as it is known, may be {@code null}
+	 * @return one result per station in the order of the ids, {@code null} where the query failed, was skipped or was
+	 *         left to the caller
+	 * @throws IOException
+	 *             if the queries of all stations failed
+	 */
+	QueryDeparturesResult[] queryDepartures(int[] stationIds, int maxDepartures, boolean equivs, DeparturesBatchListener listener)
+			throws IOException;
+
+	/**
+	 * @return {@code true} if a batch departures query can need fewer requests than there are stations
+	 */
+	boolean canBatchDepartures();
+
 	/**
 	 * Meant for auto-completion of station names, like in an {@link android.widget.AutoCompleteTextView}
 	 * 
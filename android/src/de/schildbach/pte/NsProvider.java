@@ -128,6 +128,13 @@ public class NsProvider extends AbstractHafasProvider
 		}
 	}
 
+	@Override
+	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs,
+			final DeparturesListener listener) throws IOException
+	{
+		return deliverDepartures(queryDepartures(stationId, maxDepartures, equivs), listener);
+	}
+
 	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs) throws IOException
 	{
 		throw new UnsupportedOperationException();
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.NearbyStationsResult;
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsContext;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.StationDepartures;
+import de.schildbach.pte.dto.Style;
+
+/**
+ * Merges concurrent identical departure and nearby station queries into one request to the wrapped provider. A call
+ * that finds the same query in flight waits for it and gets its result, or its exception. Callers share the result
+ * object, so they must not modify it. All other queries are passed through.
+ *
+ * Streaming departure queries are merged among themselves only, and only if their listeners stop the query at the same
+ * limit, see {@link #queryDepartures(int, int, boolean, int, NetworkProvider.DeparturesListener)}. A merged listener gets
+ * the departures of the shared result after it is complete. If the first call cancelled its query, see
+ * {@link CancellableListener}, the merged calls query again.
+ */
+public class SingleFlightNetworkProvider implements NetworkProvider
+{
+	private final NetworkProvider provider;
+	private final Map<List<Object>, Flight<?>> flights = new HashMap<List<Object>, Flight<?>>();
+	private final AtomicInteger calls = new AtomicInteger();
+	private final AtomicInteger mergedCalls = new AtomicInteger();
+
+	/**
+	 * Listener that can stop a streaming query because its caller lost interest, not because it has enough. A board
+	 * that was cancelled this way is not handed to merged calls, they query again.
+	 */
+	public interface CancellableListener extends DeparturesListener
+	{
+		/**
+		 * @return {@code true} if the listener stopped or will stop the query because its caller lost interest
+		 */
+		boolean isCancelled();
+	}
+
+	private static final class Flight<T>
+	{
+		final CountDownLatch done = new CountDownLatch(1);
+		T result;
+		Throwable failure;
+		boolean cancelled;
+	}
+
+	private static abstract class Query<T>
+	{
+		abstract T run() throws IOException;
+
+		/**
+		 * @return {@code true} if the result of {@link #run()} must not be shared
+		 */
+		boolean cancelled()
+		{
+			return false;
+		}
+	}
+
+	public SingleFlightNetworkProvider(final NetworkProvider provider)
+	{
+		this.provider = provider;
+	}
+
+	public NetworkProvider getProvider()
+	{
+		return provider;
+	}
+
+	/**
+	 * @return number of departure and nearby station queries so far
+	 */
+	public int calls()
+	{
+		return calls.get();
+	}
+
+	/**
+	 * @return number of those queries that shared a request already in flight
+	 */
+	public int mergedCalls()
+	{
+		return mergedCalls.get();
+	}
+
+	public NetworkId id()
+	{
+		return provider.id();
+	}
+
+	public boolean hasCapabilities(final Capability... capabilities)
+	{
+		return provider.hasCapabilities(capabilities);
+	}
+
+	public NearbyStationsResult queryNearbyStations(final Location location, final int maxDistance, final int maxStations) throws IOException
+	{
+		final List<Object> key = Arrays.<Object> asList("nearby", location.type, location.id, location.lat, location.lon, maxDistance,
+				maxStations);
+
+		return execute(key, new Query<NearbyStationsResult>()
+		{
+			public NearbyStationsResult run() throws IOException
+			{
+				return provider.queryNearbyStations(location, maxDistance, maxStations);
+			}
+		});
+	}
+
+	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs) throws IOException
+	{
+		final List<Object> key = Arrays.<Object> asList("departures", stationId, maxDepartures, equivs);
+
+		return execute(key, new Query<QueryDeparturesResult>()
+		{
+			public QueryDeparturesResult run() throws IOException
+			{
+				return provider.queryDepartures(stationId, maxDepartures, equivs);
+			}
+		});
+	}
+
+	/**
+	 * The listener might stop the query at any point, so the query is not merged.
+	 */
+	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs,
+			final DeparturesListener listener) throws IOException
+	{
+		if (listener == null)
+			return queryDepartures(stationId, maxDepartures, equivs);
+
+		calls.incrementAndGet();
+		return provider.queryDepartures(stationId, maxDepartures, equivs, listener);
+	}
+
+	/**
+	 * Streaming departures query that is merged with concurrent queries whose listeners stop at the same limit. A call
+	 * never gets a board that was cut off by a listener with a lower limit than its own.
+	 * 
+	 * @param listenerLimit
+	 *            limit at which the listener stops the query, in whatever the listener counts, or {@code 0} if it reads
+	 *            the whole board
+	 */
+	public QueryDeparturesResult queryDepartures(final int stationId, final int maxDepartures, final boolean equivs, final int listenerLimit,
+			final DeparturesListener listener) throws IOException
+	{
+		if (listener == null)
+			return queryDepartures(stationId, maxDepartures, equivs);
+
+		final List<Object> key = Arrays.<Object> asList("streamingDepartures", stationId, maxDepartures, equivs, listenerLimit);
+		final boolean[] streamed = new boolean[1];
+
+		final QueryDeparturesResult result = execute(key, new Query<QueryDeparturesResult>()
+		{
+			public QueryDeparturesResult run() throws IOException
+			{
+				streamed[0] = true;
+				return provider.queryDepartures(stationId, maxDepartures, equivs, listener);
+			}
+
+			@Override
+			boolean cancelled()
+			{
+				return listener instanceof CancellableListener && ((CancellableListener) listener).isCancelled();
+			}
+		});
+
+		if (!streamed[0] && result.status == QueryDeparturesResult.Status.OK)
+			for (final StationDepartures stationDepartures : result.stationDepartures)
+				for (final Departure departure : stationDepartures.departures)
+					if (!listener.departure(stationDepartures.location, departure))
+						return result;
+
+		return result;
+	}
+
+	public QueryDeparturesResult[] queryDepartures(final int[] stationIds, final int maxDepartures, final boolean equivs,
+			final DeparturesBatchListener listener) throws IOException
+	{
+		return provider.queryDepartures(stationIds, maxDepartures, equivs, listener);
+	}
+
+	public boolean canBatchDepartures()
+	{
+		return provider.canBatchDepartures();
+	}
+
+	public List<Location> autocompleteStations(final CharSequence constraint) throws IOException
+	{
+		return provider.autocompleteStations(constraint);
+	}
+
+	public Collection<Product> defaultProducts()
+	{
+		return provider.defaultProducts();
+	}
+
+	public QueryTripsResult queryTrips(final Location from, final Location via, final Location to, final Date date, final boolean dep,
+			final int numTrips, final Collection<Product> products, final WalkSpeed walkSpeed, final Accessibility accessibility,
+			final Set<Option> options) throws IOException
+	{
+		return provider.queryTrips(from, via, to, date, dep, numTrips, products, walkSpeed, accessibility, options);
+	}
+
+	public QueryTripsResult queryMoreTrips(final QueryTripsContext context, final boolean later, final int numTrips) throws IOException
+	{
+		return provider.queryMoreTrips(context, later, numTrips);
+	}
+
+	public Style lineStyle(final String network, final String line)
+	{
+		return provider.lineStyle(network, line);
+	}
+
+	public Point[] getArea()
+	{
+		return provider.getArea();
+	}
+
+	private <T> T execute(final List<Object> key, final Query<T> query) throws IOException
+	{
+		calls.incrementAndGet();
+
+		while (true)
+		{
+			final Flight<T> flight;
+			final boolean leader;
+			synchronized (flights)
+			{
+				@SuppressWarnings("unchecked")
+				final Flight<T> inFlight = (Flight<T>) flights.get(key);
+				if (inFlight != null)
+				{
+					flight = inFlight;
+					leader = false;
+				}
+				else
+				{
+					flight = new Flight<T>();
+					flights.put(key, flight);
+					leader = true;
+				}
+			}
+
+			if (leader)
+			{
+				try
+				{
+					flight.result = query.run();
+					flight.cancelled = query.cancelled();
+					return flight.result;
+				}
+				catch (final IOException x)
+				{
+					flight.failure = x;
+					throw x;
+				}
+				catch (final RuntimeException x)
+				{
+					flight.failure = x;
+					throw x;
+				}
+				catch (final Error x)
+				{
+					flight.failure = x;
+					throw x;
+				}
+				finally
+				{
+					synchronized (flights)
+					{
+						flights.remove(key);
+					}
+					flight.done.countDown();
+				}
+			}
+
+			mergedCalls.incrementAndGet();
+
+			try
+			{
+				flight.done.await();
+			}
+			catch (final InterruptedException x)
+			{
+				throw new InterruptedIOException("interrupted while waiting for " + key);
+			}
+
+			// the first call lost interest before the result was complete
+			if (flight.failure == null && flight.cancelled)
+			{
+				mergedCalls.decrementAndGet();
+				continue;
+			}
+
+			final Throwable failure = flight.failure;
+			if (failure instanceof IOException)
+				throw (IOException) failure;
+			else if (failure instanceof RuntimeException)
+				throw (RuntimeException) failure;
+			else if (failure instanceof Error)
+				throw (Error) failure;
+
+			return flight.result;
+		}
+	}
+}
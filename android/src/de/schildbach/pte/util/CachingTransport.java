@@ -0,0 +1,540 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size bounded disk cache for responses that carry an {@code ETag} or {@code Last-Modified} header. When a cached
+ * response exists the request is sent conditionally, and a {@code 304 Not Modified} is answered from disk without
+ * downloading the body again. A server error is answered with the cached response as well. The entry is replaced by a
+ * new {@code 200 OK} and dropped on {@code 404 Not Found} or {@code 410 Gone}, other responses leave it alone. Post
+ * requests and requests that carry a session cookie are not cached.
+ *
+ * Cacheable bodies are handed to the caller as they arrive and copied to a temporary file on the way. The entry is
+ * only kept if the caller read the body to its end, an aborted or closed early body leaves the cache as it was. Disk
+ * access happens outside of the lock that guards the index.
+ */
+public class CachingTransport implements HttpTransport
+{
+	private static final String FILE_SUFFIX = ".cache";
+	private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+	private final HttpTransport delegate;
+	private final File directory;
+	private final long maxBytes;
+
+	// key -> file size, least recently used first
+	private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private long totalBytes = 0;
+	private boolean indexLoaded = false;
+	private int notModifiedCount = 0;
+	private int staleCount = 0;
+
+	/**
+	 * @param maxBytes
+	 *            disk space the cached responses may use
+	 */
+	public CachingTransport(final HttpTransport delegate, final File directory, final long maxBytes)
+	{
+		this.delegate = delegate;
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the transport requests go to when they are not answered from the cache
+	 */
+	public HttpTransport getDelegate()
+	{
+		return delegate;
+	}
+
+	public Response execute(final Request request) throws IOException
+	{
+		if (request.postBody != null || request.headers.containsKey("Cookie"))
+			return delegate.execute(request);
+
+		final String key = request.key();
+		final Response cached = lookup(key);
+		if (cached == null)
+			return fill(key, request, delegate.execute(request));
+
+		boolean answered = false;
+		try
+		{
+			final Map<String, String> headers = new LinkedHashMap<String, String>(request.headers);
+			final String etag = ResponseRecord.header(cached.headers, "ETag");
+			if (etag != null)
+				headers.put("If-None-Match", etag);
+			final String lastModified = ResponseRecord.header(cached.headers, "Last-Modified");
+			if (lastModified != null)
+				headers.put("If-Modified-Since", lastModified);
+			final Response response = delegate.execute(new Request(request.url, null, headers, request.connectTimeout,
+					request.readTimeout));
+
+			final int responseCode = response.responseCode;
+			if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED)
+			{
+				synchronized (this)
+				{
+					notModifiedCount++;
+				}
+				answered = true;
+				return cached;
+			}
+			else if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR)
+			{
+				// the server has trouble, the cached copy is better than nothing
+				synchronized (this)
+				{
+					staleCount++;
+				}
+				answered = true;
+				return cached;
+			}
+			else if (responseCode == HttpURLConnection.HTTP_NOT_FOUND || responseCode == HttpURLConnection.HTTP_GONE)
+			{
+				remove(key);
+				return response;
+			}
+			else if (responseCode == HttpURLConnection.HTTP_OK)
+			{
+				// a complete new body replaces the entry
+				return fill(key, request, response);
+			}
+			else
+			{
+				return response;
+			}
+		}
+		finally
+		{
+			if (!answered && cached.body != null)
+				cached.body.close();
+		}
+	}
+
+	/**
+	 * @return the response, with a body that is copied to the cache if it can be cached
+	 */
+	private Response fill(final String key, final Request request, final Response response)
+	{
+		if (response.responseCode != HttpURLConnection.HTTP_OK || response.body == null)
+			return response;
+
+		if (isCacheable(response))
+		{
+			final InputStream body = cacheFillingBody(key, request, response);
+			if (body != null)
+				return new Response(response.responseCode, response.responseMessage, response.url, response.contentType,
+						response.contentEncoding, response.headers, body);
+		}
+
+		// whatever is cached is outdated and cannot be replaced
+		remove(key);
+		return response;
+	}
+
+	/**
+	 * @return how many requests were answered from the cache after a {@code 304 Not Modified}
+	 */
+	public synchronized int getNotModifiedCount()
+	{
+		return notModifiedCount;
+	}
+
+	/**
+	 * @return how many requests were answered from the cache because the server failed with a {@code 5xx} error
+	 */
+	public synchronized int getStaleCount()
+	{
+		return staleCount;
+	}
+
+	public synchronized void clear()
+	{
+		loadIndex();
+		for (final String key : index.keySet())
+			file(key).delete();
+		index.clear();
+		totalBytes = 0;
+	}
+
+	private static boolean isCacheable(final Response response)
+	{
+		boolean validator = false;
+		for (final Map.Entry<String, List<String>> header : response.headers.entrySet())
+		{
+			final String name = header.getKey();
+			if (name == null)
+				continue;
+			if ("Set-Cookie".equalsIgnoreCase(name))
+				return false;
+			if ("Cache-Control".equalsIgnoreCase(name) && header.getValue().toString().contains("no-store"))
+				return false;
+			if ("ETag".equalsIgnoreCase(name) || "Last-Modified".equalsIgnoreCase(name))
+				validator = true;
+		}
+		return validator;
+	}
+
+	/**
+	 * @return -1 if the response does not announce its length
+	 */
+	private static long contentLength(final Response response)
+	{
+		for (final Map.Entry<String, List<String>> header : response.headers.entrySet())
+		{
+			if ("Content-Length".equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty())
+			{
+				try
+				{
+					return Long.parseLong(header.getValue().get(0).trim());
+				}
+				catch (final NumberFormatException x)
+				{
+					return -1;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the cached response, its body still on disk, or null if there is none
+	 */
+	private Response lookup(final String key)
+	{
+		synchronized (this)
+		{
+			loadIndex();
+			if (index.get(key) == null)
+				return null;
+		}
+
+		final File file = file(key);
+		try
+		{
+			final Response cached = ResponseRecord.open(file);
+			file.setLastModified(System.currentTimeMillis());
+			return cached;
+		}
+		catch (final IOException x)
+		{
+			// unreadable entry, forget it
+			remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the body of the response, copying itself to the cache as it is read, or null if no cache file could be
+	 *         started
+	 */
+	private InputStream cacheFillingBody(final String key, final Request request, final Response response)
+	{
+		synchronized (this)
+		{
+			loadIndex();
+		}
+		if (!directory.isDirectory() && !directory.mkdirs())
+			return null;
+
+		File tempFile = null;
+		try
+		{
+			tempFile = File.createTempFile(key, TEMP_FILE_SUFFIX, directory);
+			final OutputStream os = ResponseRecord.startWrite(tempFile, response, request);
+			return new CacheFillingInputStream(response.body, os, key, tempFile, contentLength(response));
+		}
+		catch (final IOException x)
+		{
+			if (tempFile != null)
+				tempFile.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Move a complete temporary file into place and make room for it.
+	 */
+	private void store(final String key, final File tempFile)
+	{
+		final File file = file(key);
+		if (!tempFile.renameTo(file))
+		{
+			tempFile.delete();
+			return;
+		}
+		final long size = file.length();
+
+		final List<File> evicted = new ArrayList<File>();
+		synchronized (this)
+		{
+			final Long previous = index.put(key, size);
+			if (previous != null)
+				totalBytes -= previous;
+			totalBytes += size;
+
+			for (final Iterator<Map.Entry<String, Long>> i = index.entrySet().iterator(); totalBytes > maxBytes && i.hasNext();)
+			{
+				final Map.Entry<String, Long> eldest = i.next();
+				evicted.add(file(eldest.getKey()));
+				totalBytes -= eldest.getValue();
+				i.remove();
+			}
+		}
+
+		for (final File evictedFile : evicted)
+			evictedFile.delete();
+	}
+
+	private void remove(final String key)
+	{
+		synchronized (this)
+		{
+			final Long size = index.remove(key);
+			if (size != null)
+				totalBytes -= size;
+		}
+		file(key).delete();
+	}
+
+	private void loadIndex()
+	{
+		if (indexLoaded)
+			return;
+		indexLoaded = true;
+
+		final File[] files = directory.listFiles();
+		if (files == null)
+			return;
+
+		// least recently used first
+		Arrays.sort(files, new Comparator<File>()
+		{
+			public int compare(final File f1, final File f2)
+			{
+				final long m1 = f1.lastModified();
+				final long m2 = f2.lastModified();
+				return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+			}
+		});
+
+		for (final File file : files)
+		{
+			final String name = file.getName();
+			if (name.endsWith(TEMP_FILE_SUFFIX))
+			{
+				// left over from a body that was being read when the process died
+				file.delete();
+				continue;
+			}
+			if (!name.endsWith(FILE_SUFFIX))
+				continue;
+			index.put(name.substring(0, name.length() - FILE_SUFFIX.length()), file.length());
+			totalBytes += file.length();
+		}
+	}
+
+	private File file(final String key)
+	{
+		return new File(directory, key + FILE_SUFFIX);
+	}
+
+	/**
+	 * Copies what the caller reads to the cache file. The file is stored once the body was read to its end and closed,
+	 * it is dropped if the body is aborted, closed early or fails.
+	 */
+	private final class CacheFillingInputStream extends FilterInputStream implements Abortable
+	{
+		private final String key;
+		private final File tempFile;
+		private final long contentLength;
+		private OutputStream cacheOut;
+		private long length = 0;
+		private boolean eof = false;
+		private boolean closed = false;
+
+		public CacheFillingInputStream(final InputStream in, final OutputStream cacheOut, final String key, final File tempFile,
+				final long contentLength)
+		{
+			super(in);
+
+			this.cacheOut = cacheOut;
+			this.key = key;
+			this.tempFile = tempFile;
+			this.contentLength = contentLength;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			final int b = super.read();
+			if (b == -1)
+				eof = true;
+			else
+				copy(b);
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int count) throws IOException
+		{
+			final int read = super.read(buffer, offset, count);
+			if (read == -1)
+				eof = true;
+			else
+				copy(buffer, offset, read);
+			return read;
+		}
+
+		@Override
+		public long skip(final long count) throws IOException
+		{
+			// skipped bytes would be missing from the cache file
+			final byte[] buffer = new byte[(int) Math.min(count, 4096)];
+			final int read = read(buffer, 0, buffer.length);
+			return read == -1 ? 0 : read;
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if (closed)
+				return;
+			closed = true;
+
+			try
+			{
+				super.close();
+			}
+			finally
+			{
+				finish(eof && (contentLength == -1 || contentLength == length));
+			}
+		}
+
+		public void abort()
+		{
+			if (closed)
+				return;
+			closed = true;
+
+			try
+			{
+				if (in instanceof Abortable)
+					((Abortable) in).abort();
+				else
+					in.close();
+			}
+			catch (final IOException x)
+			{
+				// nothing more to read
+			}
+			finally
+			{
+				finish(false);
+			}
+		}
+
+		private void copy(final int b)
+		{
+			if (cacheOut == null)
+				return;
+			try
+			{
+				cacheOut.write(b);
+				length++;
+			}
+			catch (final IOException x)
+			{
+				drop();
+			}
+		}
+
+		private void copy(final byte[] buffer, final int offset, final int count)
+		{
+			if (cacheOut == null)
+				return;
+			try
+			{
+				cacheOut.write(buffer, offset, count);
+				length += count;
+			}
+			catch (final IOException x)
+			{
+				drop();
+			}
+		}
+
+		private void finish(final boolean complete)
+		{
+			if (cacheOut == null)
+				return;
+			try
+			{
+				cacheOut.close();
+				cacheOut = null;
+			}
+			catch (final IOException x)
+			{
+				drop();
+				return;
+			}
+
+			if (complete)
+				store(key, tempFile);
+			else
+				tempFile.delete();
+		}
+
+		private void drop()
+		{
+			try
+			{
+				cacheOut.close();
+			}
+			catch (final IOException x)
+			{
+				// deleted anyway
+			}
+			cacheOut = null;
+			tempFile.delete();
+		}
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.LinkedList;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses gzip data, members that follow each other are read as one stream. Unlike
+ * {@link java.util.zip.GZIPInputStream} the {@link Inflater} is taken from a small pool and handed back on
+ * {@link #close()}, so decoding a response does not allocate a new native inflater. Callers have to close the stream,
+ * also when they stop reading early: the inflater of a stream that is not closed is not pooled again and its native
+ * memory is only freed by finalization. Streams open at the same time each hold an inflater of their own, only the
+ * idle ones are pooled.
+ */
+public final class GunzipInputStream extends InflaterInputStream
+{
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+	private static final int BUFFER_SIZE = 4096;
+	private static final int MAX_POOLED_INFLATERS = 4;
+
+	private static final LinkedList<Inflater> INFLATERS = new LinkedList<Inflater>();
+
+	private final CRC32 crc = new CRC32();
+	private boolean eof = false;
+	private boolean closed = false;
+
+	public GunzipInputStream(final InputStream in) throws IOException
+	{
+		super(in, acquireInflater(), BUFFER_SIZE);
+
+		try
+		{
+			readHeader();
+		}
+		catch (final IOException x)
+		{
+			close();
+			throw x;
+		}
+	}
+
+	/**
+	 * Look at the first two bytes of the stream without consuming them.
+	 *
+	 * @return true if the stream starts with the gzip magic
+	 */
+	public static boolean isGzipped(final PushbackInputStream is) throws IOException
+	{
+		final int byte0 = is.read();
+		if (byte0 == -1)
+			return false;
+		final int byte1 = is.read();
+		if (byte1 == -1)
+		{
+			is.unread(byte0);
+			return false;
+		}
+
+		is.unread(byte1);
+		is.unread(byte0);
+		return byte0 == (GZIP_MAGIC & 0xff) && byte1 == (GZIP_MAGIC >> 8);
+	}
+
+	@Override
+	public int read(final byte[] buffer, final int offset, final int count) throws IOException
+	{
+		if (closed)
+			throw new IOException("Stream closed");
+		if (eof)
+			return -1;
+
+		int read;
+		while ((read = super.read(buffer, offset, count)) == -1)
+		{
+			if (!nextMember())
+			{
+				eof = true;
+				return -1;
+			}
+		}
+
+		crc.update(buffer, offset, read);
+		return read;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (closed)
+			return;
+		closed = true;
+
+		// not super.close(), some implementations end the inflater there
+		releaseInflater(inf);
+		in.close();
+	}
+
+	private void readHeader() throws IOException
+	{
+		if (readUShort(in) != GZIP_MAGIC)
+			throw new ZipException("Not in GZIP format");
+		readHeaderAfterMagic(in);
+	}
+
+	private static void readHeaderAfterMagic(final InputStream in) throws IOException
+	{
+		if (readUByte(in) != 8)
+			throw new ZipException("Unsupported compression method");
+		final int flags = readUByte(in);
+		// modification time, extra flags, operating system
+		skipBytes(in, 6);
+
+		if ((flags & FEXTRA) == FEXTRA)
+			skipBytes(in, readUShort(in));
+		if ((flags & FNAME) == FNAME)
+			while (readUByte(in) != 0)
+				;
+		if ((flags & FCOMMENT) == FCOMMENT)
+			while (readUByte(in) != 0)
+				;
+		if ((flags & FHCRC) == FHCRC)
+			skipBytes(in, 2);
+	}
+
+	/**
+	 * Check the trailer of the member that just ended and start the next member, if one follows.
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean nextMember() throws IOException
+	{
+		// the inflater may have read past the end of the deflated data
+		final int remaining = inf.getRemaining();
+		final SequenceStream rest = new SequenceStream(buf, len - remaining, remaining, in);
+
+		final long expectedCrc = readUInt(rest);
+		final long expectedSize = readUInt(rest);
+		if (expectedCrc != crc.getValue() || expectedSize != (inf.getBytesWritten() & 0xffffffffL))
+			throw new ZipException("Corrupt GZIP trailer");
+
+		// like GZIPInputStream, anything but another member after the trailer is ignored
+		final int byte0 = rest.read();
+		if (byte0 != (GZIP_MAGIC & 0xff) || rest.read() != (GZIP_MAGIC >> 8))
+			return false;
+		readHeaderAfterMagic(rest);
+
+		crc.reset();
+		inf.reset();
+		if (rest.buffered() > 0)
+			inf.setInput(buf, rest.position, rest.buffered());
+		return true;
+	}
+
+	private static long readUInt(final InputStream in) throws IOException
+	{
+		final long low = readUShort(in);
+		return ((long) readUShort(in) << 16) | low;
+	}
+
+	private static int readUShort(final InputStream in) throws IOException
+	{
+		final int low = readUByte(in);
+		return (readUByte(in) << 8) | low;
+	}
+
+	private static int readUByte(final InputStream in) throws IOException
+	{
+		final int b = in.read();
+		if (b == -1)
+			throw new EOFException();
+		return b;
+	}
+
+	private static void skipBytes(final InputStream in, int n) throws IOException
+	{
+		while (n-- > 0)
+			readUByte(in);
+	}
+
+	private static Inflater acquireInflater()
+	{
+		synchronized (INFLATERS)
+		{
+			if (!INFLATERS.isEmpty())
+				return INFLATERS.removeFirst();
+		}
+
+		// raw deflate, the gzip framing is handled here
+		return new Inflater(true);
+	}
+
+	private static void releaseInflater(final Inflater inflater)
+	{
+		inflater.reset();
+
+		synchronized (INFLATERS)
+		{
+			if (INFLATERS.size() < MAX_POOLED_INFLATERS)
+			{
+				INFLATERS.addFirst(inflater);
+				return;
+			}
+		}
+
+		inflater.end();
+	}
+
+	/**
+	 * Bytes left over in the inflater buffer, followed by the underlying stream.
+	 */
+	private static final class SequenceStream extends InputStream
+	{
+		private final byte[] buffer;
+		private int position;
+		private final int end;
+		private final InputStream next;
+
+		public SequenceStream(final byte[] buffer, final int offset, final int length, final InputStream next)
+		{
+			this.buffer = buffer;
+			this.position = offset;
+			this.end = offset + length;
+			this.next = next;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			if (position < end)
+				return buffer[position++] & 0xff;
+			return next.read();
+		}
+
+		/**
+		 * @return bytes left in the buffer, they start at {@link #position}
+		 */
+		public int buffered()
+		{
+			return end - position;
+		}
+	}
+}
@@ -0,0 +1,574 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Pull tokenizer for scraped HTML pages. The page is scanned once from start to end, tags are never matched
+ * speculatively, so the cost is linear in the size of the page. Entities are left as they are, pass text through
+ * {@link ParserUtils#resolveEntities(CharSequence)} where needed.
+ *
+ * On top of the tokens, {@link #nextRow()} collects table rows with their cells and links, which is what most scrapers
+ * are after.
+ *
+ * The tokenizer works on the whole page, not on a stream: {@link #getText()} and {@link Row#html} are cut out of it.
+ * The scrapers have the page in memory anyway, because they match error messages against it before looking for rows,
+ * and the pages are a few dozen KB at most.
+ */
+public final class HtmlTokenizer
+{
+	public static final int START_TAG = 1;
+	public static final int END_TAG = 2;
+	public static final int TEXT = 3;
+	public static final int END_DOCUMENT = 4;
+
+	private final CharSequence html;
+	private final int length;
+	private int pos = 0;
+
+	private int type = 0;
+	private boolean pushedBack = false;
+	private String name;
+	private boolean emptyElement;
+	private final List<String> attributeNames = new ArrayList<String>();
+	private final List<String> attributeValues = new ArrayList<String>();
+	private int tokenStart, tokenEnd;
+
+	public HtmlTokenizer(final CharSequence html)
+	{
+		this.html = html;
+		this.length = html.length();
+	}
+
+	/**
+	 * Advance to the next tag or text. Comments, doctype and processing instructions are skipped.
+	 *
+	 * @return type of the token
+	 */
+	public int next()
+	{
+		if (pushedBack)
+		{
+			pushedBack = false;
+			return type;
+		}
+
+		// contents of script and style are not markup
+		if (type == START_TAG && !emptyElement && ("script".equals(name) || "style".equals(name)))
+		{
+			final int end = indexOfIgnoreCase("</" + name, pos);
+			if (end > pos)
+			{
+				tokenStart = pos;
+				tokenEnd = pos = end;
+				return type = TEXT;
+			}
+		}
+
+		while (pos < length)
+		{
+			final char c = html.charAt(pos);
+			if (c != '<' || pos + 1 >= length)
+				return text();
+
+			final char c1 = html.charAt(pos + 1);
+			if (c1 == '!' || c1 == '?')
+			{
+				final boolean comment = startsWith("<!--", pos);
+				final int end = comment ? indexOf("-->", pos + 4) : indexOf(">", pos + 2);
+				pos = end < 0 ? length : end + (comment ? 3 : 1);
+			}
+			else if (c1 == '/' && pos + 2 < length && isLetter(html.charAt(pos + 2)))
+			{
+				return endTag();
+			}
+			else if (isLetter(c1))
+			{
+				return startTag();
+			}
+			else
+			{
+				return text();
+			}
+		}
+
+		tokenStart = tokenEnd = length;
+		return type = END_DOCUMENT;
+	}
+
+	/**
+	 * @return type of the current token
+	 */
+	public int getEventType()
+	{
+		return type;
+	}
+
+	/**
+	 * @return lower case name of the current tag
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	public boolean isEmptyElementTag()
+	{
+		return emptyElement;
+	}
+
+	/**
+	 * @return value of the attribute of the current start tag, or null
+	 */
+	public String getAttribute(final String attributeName)
+	{
+		for (int i = 0; i < attributeNames.size(); i++)
+			if (attributeNames.get(i).equals(attributeName))
+				return attributeValues.get(i);
+
+		return null;
+	}
+
+	public int getAttributeCount()
+	{
+		return attributeNames.size();
+	}
+
+	/**
+	 * @return the current text token, or the raw markup of the current tag
+	 */
+	public CharSequence getText()
+	{
+		return html.subSequence(tokenStart, tokenEnd);
+	}
+
+	/**
+	 * Advance to a start tag.
+	 *
+	 * @param className
+	 *            required value of the class attribute, or null for any
+	 * @return false if there is no such tag
+	 */
+	public boolean skipToStartTag(final String tagName, final String className)
+	{
+		while (next() != END_DOCUMENT)
+			if (type == START_TAG && tagName.equals(name) && (className == null || className.equals(getAttribute("class"))))
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * Collect the text up to the end of the current element, tags inside are dropped.
+	 */
+	public String elementText()
+	{
+		if (type != START_TAG)
+			throw new IllegalStateException("expecting start tag");
+		if (emptyElement)
+			return "";
+
+		final String tagName = name;
+		final StringBuilder text = new StringBuilder();
+		int depth = 1;
+		while (next() != END_DOCUMENT)
+		{
+			if (type == TEXT)
+				text.append(html, tokenStart, tokenEnd);
+			else if (type == START_TAG && tagName.equals(name) && !emptyElement)
+				depth++;
+			else if (type == END_TAG && tagName.equals(name) && --depth == 0)
+				break;
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Collect the next table row, in a nested table or not. Rows of nested tables are part of the cell they are in.
+	 *
+	 * @return the row, or null if there are no more rows
+	 */
+	public Row nextRow()
+	{
+		return nextRow(null);
+	}
+
+	/**
+	 * Collect the next table row before the end tag given.
+	 *
+	 * @param until
+	 *            name of the element that ends the search, like {@code tbody}, or null to search the whole page
+	 * @return the row, or null if there are no more rows
+	 */
+	public Row nextRow(final String until)
+	{
+		while (true)
+		{
+			final int t = next();
+			if (t == END_DOCUMENT)
+				return null;
+			if (t == END_TAG && name.equals(until))
+				return null;
+			if (t == START_TAG && "tr".equals(name))
+				break;
+		}
+
+		final String rowClass = getAttribute("class");
+		final int rowStart = pos;
+		int rowEnd = pos;
+		final List<Cell> cells = new ArrayList<Cell>();
+		final List<Link> links = new ArrayList<Link>();
+
+		CellBuilder cell = null;
+		Link link = null;
+		StringBuilder linkText = null;
+		int nestedTables = 0;
+
+		while (true)
+		{
+			final int t = next();
+			rowEnd = tokenStart;
+
+			if (t == END_DOCUMENT)
+				break;
+
+			if (t == TEXT)
+			{
+				if (cell != null)
+					cell.text.append(html, tokenStart, tokenEnd);
+				if (linkText != null)
+					linkText.append(html, tokenStart, tokenEnd);
+			}
+			else if (t == START_TAG)
+			{
+				if ("table".equals(name))
+				{
+					nestedTables++;
+				}
+				else if (nestedTables == 0 && "tr".equals(name))
+				{
+					// end tag of the row is missing
+					pushedBack = true;
+					break;
+				}
+				else if (nestedTables == 0 && ("td".equals(name) || "th".equals(name)))
+				{
+					if (cell != null)
+						cells.add(cell.build());
+					cell = new CellBuilder(getAttribute("class"), getAttributeCount() > 0);
+				}
+				else if ("a".equals(name))
+				{
+					link = new Link(getAttribute("href"), null);
+					linkText = new StringBuilder();
+				}
+				else if ("br".equals(name))
+				{
+					if (cell != null)
+						cell.text.append(' ');
+					if (linkText != null)
+						linkText.append(' ');
+				}
+			}
+			else if (t == END_TAG)
+			{
+				if ("table".equals(name))
+				{
+					if (nestedTables == 0)
+					{
+						// row was not closed
+						pushedBack = true;
+						break;
+					}
+					nestedTables--;
+				}
+				else if (nestedTables == 0 && "tr".equals(name))
+				{
+					break;
+				}
+				else if (nestedTables == 0 && ("tbody".equals(name) || "thead".equals(name) || "tfoot".equals(name)))
+				{
+					pushedBack = true;
+					break;
+				}
+				else if (nestedTables == 0 && ("td".equals(name) || "th".equals(name)))
+				{
+					if (cell != null)
+						cells.add(cell.build());
+					cell = null;
+				}
+				else if ("a".equals(name) && link != null)
+				{
+					final Link complete = new Link(link.href, linkText.toString().trim());
+					links.add(complete);
+					if (cell != null)
+						cell.links.add(complete);
+					link = null;
+					linkText = null;
+				}
+			}
+		}
+
+		if (cell != null)
+			cells.add(cell.build());
+
+		return new Row(rowClass, cells, links, html.subSequence(rowStart, Math.max(rowStart, rowEnd)).toString().trim());
+	}
+
+	public static final class Row
+	{
+		public final String className;
+		public final List<Cell> cells;
+		public final List<Link> links;
+		public final String html;
+
+		public Row(final String className, final List<Cell> cells, final List<Link> links, final String html)
+		{
+			this.className = className;
+			this.cells = cells;
+			this.links = links;
+			this.html = html;
+		}
+
+		@Override
+		public String toString()
+		{
+			return html;
+		}
+	}
+
+	public static final class Cell
+	{
+		public final String className;
+		public final boolean hasAttributes;
+		// tags removed, trimmed
+		public final String text;
+		public final List<Link> links;
+
+		public Cell(final String className, final boolean hasAttributes, final String text, final List<Link> links)
+		{
+			this.className = className;
+			this.hasAttributes = hasAttributes;
+			this.text = text;
+			this.links = links;
+		}
+	}
+
+	public static final class Link
+	{
+		public final String href;
+		// tags removed, trimmed
+		public final String text;
+
+		public Link(final String href, final String text)
+		{
+			this.href = href;
+			this.text = text;
+		}
+	}
+
+	private static final class CellBuilder
+	{
+		private final String className;
+		private final boolean hasAttributes;
+		private final StringBuilder text = new StringBuilder();
+		private final List<Link> links = new ArrayList<Link>(1);
+
+		public CellBuilder(final String className, final boolean hasAttributes)
+		{
+			this.className = className;
+			this.hasAttributes = hasAttributes;
+		}
+
+		public Cell build()
+		{
+			return new Cell(className, hasAttributes, text.toString().trim(), links);
+		}
+	}
+
+	private int text()
+	{
+		tokenStart = pos;
+		// a lone '<' belongs to the text
+		int end = indexOf("<", pos + 1);
+		while (end >= 0 && (end + 1 == length || !isMarkupStart(end)))
+			end = indexOf("<", end + 1);
+		tokenEnd = pos = end < 0 ? length : end;
+		return type = TEXT;
+	}
+
+	private boolean isMarkupStart(final int index)
+	{
+		final char c = html.charAt(index + 1);
+		return isLetter(c) || c == '/' || c == '!' || c == '?';
+	}
+
+	private int startTag()
+	{
+		tokenStart = pos;
+		pos++;
+		name = tagName();
+		attributeNames.clear();
+		attributeValues.clear();
+		emptyElement = false;
+
+		while (pos < length)
+		{
+			final char c = html.charAt(pos);
+			if (c == '>')
+			{
+				pos++;
+				break;
+			}
+			else if (c == '/' && pos + 1 < length && html.charAt(pos + 1) == '>')
+			{
+				emptyElement = true;
+				pos += 2;
+				break;
+			}
+			else if (isWhitespace(c) || c == '/')
+			{
+				pos++;
+			}
+			else
+			{
+				attribute();
+			}
+		}
+
+		tokenEnd = pos;
+		return type = START_TAG;
+	}
+
+	private void attribute()
+	{
+		final int nameStart = pos;
+		while (pos < length)
+		{
+			final char c = html.charAt(pos);
+			if (isWhitespace(c) || c == '=' || c == '>' || c == '/')
+				break;
+			pos++;
+		}
+		final String attributeName = html.subSequence(nameStart, pos).toString().toLowerCase(Locale.ENGLISH);
+
+		skipWhitespace();
+		String value = "";
+		if (pos < length && html.charAt(pos) == '=')
+		{
+			pos++;
+			skipWhitespace();
+			if (pos < length && (html.charAt(pos) == '"' || html.charAt(pos) == '\''))
+			{
+				final char quote = html.charAt(pos++);
+				final int valueStart = pos;
+				while (pos < length && html.charAt(pos) != quote)
+					pos++;
+				value = html.subSequence(valueStart, pos).toString();
+				if (pos < length)
+					pos++;
+			}
+			else
+			{
+				final int valueStart = pos;
+				while (pos < length && !isWhitespace(html.charAt(pos)) && html.charAt(pos) != '>')
+					pos++;
+				value = html.subSequence(valueStart, pos).toString();
+			}
+		}
+
+		if (attributeName.length() > 0)
+		{
+			attributeNames.add(attributeName);
+			attributeValues.add(value);
+		}
+	}
+
+	private int endTag()
+	{
+		tokenStart = pos;
+		pos += 2;
+		name = tagName();
+		final int end = indexOf(">", pos);
+		pos = end < 0 ? length : end + 1;
+		tokenEnd = pos;
+		emptyElement = false;
+		attributeNames.clear();
+		attributeValues.clear();
+		return type = END_TAG;
+	}
+
+	private String tagName()
+	{
+		final int start = pos;
+		while (pos < length && (isLetter(html.charAt(pos)) || Character.isDigit(html.charAt(pos))))
+			pos++;
+		return html.subSequence(start, pos).toString().toLowerCase(Locale.ENGLISH);
+	}
+
+	private void skipWhitespace()
+	{
+		while (pos < length && isWhitespace(html.charAt(pos)))
+			pos++;
+	}
+
+	private boolean startsWith(final String prefix, final int index)
+	{
+		if (index < 0 || index + prefix.length() > length)
+			return false;
+		for (int i = 0; i < prefix.length(); i++)
+			if (html.charAt(index + i) != prefix.charAt(i))
+				return false;
+		return true;
+	}
+
+	private int indexOf(final String str, final int fromIndex)
+	{
+		final char first = str.charAt(0);
+		for (int i = fromIndex; i <= length - str.length(); i++)
+			if (html.charAt(i) == first && startsWith(str, i))
+				return i;
+		return -1;
+	}
+
+	private int indexOfIgnoreCase(final String str, final int fromIndex)
+	{
+		for (int i = fromIndex; i <= length - str.length(); i++)
+		{
+			int j = 0;
+			while (j < str.length() && Character.toLowerCase(html.charAt(i + j)) == str.charAt(j))
+				j++;
+			if (j == str.length())
+				return i;
+		}
+		return -1;
+	}
+
+	private static boolean isLetter(final char c)
+	{
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isWhitespace(final char c)
+	{
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+	}
+}
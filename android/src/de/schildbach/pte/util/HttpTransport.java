@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Performs the HTTP exchanges of {@link ParserUtils}. Status handling, decompression, session cookies and retries stay
+ * in {@link ParserUtils}, a transport only sends the request and hands back what the server answered.
+ */
+public interface HttpTransport
+{
+	Response execute(Request request) throws IOException;
+
+	/**
+	 * Implemented by response bodies that can be dropped together with their connection. Closing a body early reads
+	 * the rest of it to keep the connection alive, aborting does not download anything more.
+	 */
+	public interface Abortable
+	{
+		void abort();
+	}
+
+	public static final class Request
+	{
+		public final URL url;
+		public final byte[] postBody;
+		public final Map<String, String> headers;
+		public final int connectTimeout;
+		public final int readTimeout;
+
+		public Request(final URL url, final byte[] postBody, final Map<String, String> headers, final int connectTimeout, final int readTimeout)
+		{
+			this.url = url;
+			this.postBody = postBody;
+			this.headers = Collections.unmodifiableMap(new LinkedHashMap<String, String>(headers));
+			this.connectTimeout = connectTimeout;
+			this.readTimeout = readTimeout;
+		}
+
+		/**
+		 * @return identifies the request by method, url and post body, usable as file name
+		 */
+		public String key()
+		{
+			try
+			{
+				final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+				digest.update((postBody != null ? "POST " : "GET ").getBytes("UTF-8"));
+				digest.update(url.toString().getBytes("UTF-8"));
+				if (postBody != null)
+				{
+					digest.update((byte) '\n');
+					digest.update(postBody);
+				}
+
+				final StringBuilder key = new StringBuilder(40);
+				for (final byte b : digest.digest())
+				{
+					key.append(Character.forDigit((b >> 4) & 0xf, 16));
+					key.append(Character.forDigit(b & 0xf, 16));
+				}
+				return key.toString();
+			}
+			catch (final NoSuchAlgorithmException x)
+			{
+				throw new RuntimeException(x);
+			}
+			catch (final UnsupportedEncodingException x)
+			{
+				throw new RuntimeException(x);
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return (postBody != null ? "POST " : "GET ") + url;
+		}
+	}
+
+	public static final class Response
+	{
+		public final int responseCode;
+		public final String responseMessage;
+		/** the url after following redirects */
+		public final URL url;
+		public final String contentType;
+		public final String contentEncoding;
+		public final Map<String, List<String>> headers;
+		/** the response body as sent by the server, null if the response code is not 200 */
+		public final InputStream body;
+
+		public Response(final int responseCode, final String responseMessage, final URL url, final String contentType,
+				final String contentEncoding, final Map<String, List<String>> headers, final InputStream body)
+		{
+			this.responseCode = responseCode;
+			this.responseMessage = responseMessage;
+			this.url = url;
+			this.contentType = contentType;
+			this.contentEncoding = contentEncoding;
+			this.headers = headers;
+			this.body = body;
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Talks to the servers using {@link HttpURLConnection}, the default transport. Connections are kept alive between
+ * requests to the same host: a response body with a small remainder is drained when it is closed early, so the
+ * platform can put the socket back into its pool instead of closing it. The platform pool itself is configured with
+ * system properties, see {@link #configurePlatformPool(KeepAlivePool)}.
+ */
+public class HttpUrlConnectionTransport implements HttpTransport
+{
+	private static final int DEFAULT_MAX_IDLE_PER_HOST = 5;
+	private static final long DEFAULT_MAX_IDLE_MILLIS = 30 * 1000;
+	// remainders larger than this, or of unknown size, are cheaper to drop together with the connection
+	private static final int DRAIN_LIMIT = 4 * 1024;
+	private static final Pattern P_KEEP_ALIVE_TIMEOUT = Pattern.compile("timeout=(\\d+)");
+
+	private final KeepAlivePool pool;
+
+	public HttpUrlConnectionTransport()
+	{
+		this(new KeepAlivePool(DEFAULT_MAX_IDLE_PER_HOST, DEFAULT_MAX_IDLE_MILLIS));
+	}
+
+	public HttpUrlConnectionTransport(final KeepAlivePool pool)
+	{
+		this.pool = pool;
+	}
+
+	/**
+	 * Hand the limits of the pool to the platform pool through the {@code http.keepAlive}, {@code http.maxConnections}
+	 * and {@code http.keepAliveDuration} system properties, unless they are set already. The properties apply to the
+	 * whole process and the platform reads them once, so the application calls this once at startup, before the first
+	 * connection is opened. {@code http.keepAliveDuration} is only read by Android, the JVM keeps idle connections for
+	 * the timeout the server announces, or 5 seconds.
+	 */
+	public static synchronized void configurePlatformPool(final KeepAlivePool pool)
+	{
+		setPropertyIfAbsent("http.keepAlive", "true");
+		setPropertyIfAbsent("http.maxConnections", Integer.toString(pool.getMaxIdlePerHost()));
+		setPropertyIfAbsent("http.keepAliveDuration", Long.toString(pool.getMaxIdleMillis()));
+	}
+
+	private static void setPropertyIfAbsent(final String key, final String value)
+	{
+		if (System.getProperty(key) == null)
+			System.setProperty(key, value);
+	}
+
+	public KeepAlivePool getPool()
+	{
+		return pool;
+	}
+
+	public Response execute(final Request request) throws IOException
+	{
+		final HttpURLConnection connection = (HttpURLConnection) request.url.openConnection();
+
+		connection.setDoInput(true);
+		connection.setDoOutput(request.postBody != null);
+		connection.setConnectTimeout(request.connectTimeout);
+		connection.setReadTimeout(request.readTimeout);
+		for (final Map.Entry<String, String> header : request.headers.entrySet())
+			connection.addRequestProperty(header.getKey(), header.getValue());
+
+		pool.acquire(request.url);
+
+		if (request.postBody != null)
+		{
+			connection.setRequestMethod("POST");
+
+			final OutputStream os = connection.getOutputStream();
+			os.write(request.postBody);
+			os.close();
+		}
+
+		final int responseCode = connection.getResponseCode();
+		final URL url = connection.getURL();
+		final long keepAliveMillis = keepAliveMillis(connection);
+
+		final InputStream body;
+		if (responseCode == HttpURLConnection.HTTP_OK)
+		{
+			body = new KeepAliveInputStream(connection.getInputStream(), connection, url, connection.getContentLength(), keepAliveMillis);
+		}
+		else
+		{
+			// the error body has to be consumed as well for the connection to be reused
+			final InputStream es = connection.getErrorStream();
+			if (es != null)
+				new KeepAliveInputStream(es, connection, url, connection.getContentLength(), keepAliveMillis).close();
+			body = null;
+		}
+
+		return new Response(responseCode, connection.getResponseMessage(), url, connection.getContentType(), connection.getContentEncoding(),
+				connection.getHeaderFields(), body);
+	}
+
+	/**
+	 * @return the keep-alive timeout the server announced, 0 if there is none or -1 if it closes the connection
+	 */
+	private static long keepAliveMillis(final HttpURLConnection connection)
+	{
+		if ("close".equalsIgnoreCase(connection.getHeaderField("Connection")))
+			return -1;
+
+		final String keepAlive = connection.getHeaderField("Keep-Alive");
+		if (keepAlive != null)
+		{
+			final Matcher m = P_KEEP_ALIVE_TIMEOUT.matcher(keepAlive);
+			if (m.find())
+				return Long.parseLong(m.group(1)) * 1000;
+		}
+
+		return 0;
+	}
+
+	private final class KeepAliveInputStream extends FilterInputStream implements Abortable
+	{
+		private final HttpURLConnection connection;
+		private final URL url;
+		private final int contentLength;
+		private final long keepAliveMillis;
+		private int position = 0;
+		private boolean eof = false;
+		private boolean closed = false;
+
+		/**
+		 * @param contentLength
+		 *            length of the body, or -1 if unknown
+		 */
+		public KeepAliveInputStream(final InputStream in, final HttpURLConnection connection, final URL url, final int contentLength,
+				final long keepAliveMillis)
+		{
+			super(in);
+
+			this.connection = connection;
+			this.url = url;
+			this.contentLength = contentLength;
+			this.keepAliveMillis = keepAliveMillis;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			final int b = super.read();
+			if (b == -1)
+				eof = true;
+			else
+				position++;
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int count) throws IOException
+		{
+			final int read = super.read(buffer, offset, count);
+			if (read == -1)
+				eof = true;
+			else
+				position += read;
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if (closed)
+				return;
+			closed = true;
+
+			try
+			{
+				if (!eof && keepAliveMillis >= 0 && contentLength >= 0 && contentLength - position <= DRAIN_LIMIT)
+					drain();
+			}
+			catch (final IOException x)
+			{
+				// connection will not be reused
+			}
+			finally
+			{
+				super.close();
+			}
+
+			if (eof && keepAliveMillis >= 0)
+				pool.release(url, keepAliveMillis);
+		}
+
+		public void abort()
+		{
+			if (closed)
+				return;
+			closed = true;
+
+			// closes the socket without reading the rest of the body
+			connection.disconnect();
+		}
+
+		private void drain() throws IOException
+		{
+			while (position < contentLength)
+			{
+				final long skipped = in.skip(contentLength - position);
+				if (skipped <= 0)
+					break;
+				position += skipped;
+			}
+			if (in.read() == -1)
+				eof = true;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Estimates the idle keep-alive connections per host. The sockets themselves are pooled by
+ * {@link java.net.HttpURLConnection}, which can only reuse a connection whose response was read completely and closed,
+ * and which does not tell whether a request went out on a reused connection. This pool books a connection as idle
+ * whenever a response was read to the end, forgets it after the idle time and counts how many requests probably went
+ * out on a reused connection versus a new one. The limits of the platform pool are set by
+ * {@link HttpUrlConnectionTransport}, the numbers here can differ from it, for example when the server closed a
+ * connection early. All numbers are estimates and only meant for logging.
+ */
+public final class KeepAlivePool
+{
+	/**
+	 * Estimated connection numbers of one host.
+	 */
+	public static final class HostStats
+	{
+		public final String host;
+		public final int newConnections;
+		public final int reusedConnections;
+		public final int idleConnections;
+
+		private HostStats(final String host, final int newConnections, final int reusedConnections, final int idleConnections)
+		{
+			this.host = host;
+			this.newConnections = newConnections;
+			this.reusedConnections = reusedConnections;
+			this.idleConnections = idleConnections;
+		}
+
+		@Override
+		public String toString()
+		{
+			return host + ": " + newConnections + " new, " + reusedConnections + " reused, " + idleConnections + " idle";
+		}
+	}
+
+	private static final class Host
+	{
+		// expiry times of the idle connections, oldest first
+		final LinkedList<Long> idle = new LinkedList<Long>();
+		int newConnections;
+		int reusedConnections;
+	}
+
+	private final int maxIdlePerHost;
+	private final long maxIdleMillis;
+	private final Map<String, Host> hosts = new HashMap<String, Host>();
+
+	/**
+	 * @param maxIdlePerHost
+	 *            idle connections kept per host
+	 * @param maxIdleMillis
+	 *            time after which an idle connection is not used anymore
+	 */
+	public KeepAlivePool(final int maxIdlePerHost, final long maxIdleMillis)
+	{
+		this.maxIdlePerHost = maxIdlePerHost;
+		this.maxIdleMillis = maxIdleMillis;
+	}
+
+	public int getMaxIdlePerHost()
+	{
+		return maxIdlePerHost;
+	}
+
+	public long getMaxIdleMillis()
+	{
+		return maxIdleMillis;
+	}
+
+	/**
+	 * A request is about to be sent to the host of the url.
+	 *
+	 * @return true if an idle connection is probably available for it
+	 */
+	public synchronized boolean acquire(final URL url)
+	{
+		final Host host = host(url);
+		evictExpired(host, System.currentTimeMillis());
+
+		if (!host.idle.isEmpty())
+		{
+			// the platform hands out the most recently used connection
+			host.idle.removeLast();
+			host.reusedConnections++;
+			return true;
+		}
+		else
+		{
+			host.newConnections++;
+			return false;
+		}
+	}
+
+	/**
+	 * The response from the host of the url was read completely, the connection is idle now.
+	 *
+	 * @param serverTimeoutMillis
+	 *            keep-alive timeout announced by the server, or 0 if none
+	 */
+	public synchronized void release(final URL url, final long serverTimeoutMillis)
+	{
+		final Host host = host(url);
+		final long now = System.currentTimeMillis();
+		evictExpired(host, now);
+
+		final long timeout = serverTimeoutMillis > 0 ? Math.min(serverTimeoutMillis, maxIdleMillis) : maxIdleMillis;
+		host.idle.addLast(now + timeout);
+		while (host.idle.size() > maxIdlePerHost)
+			host.idle.removeFirst();
+	}
+
+	public synchronized HostStats estimatedStats(final URL url)
+	{
+		final String key = key(url);
+		final Host host = hosts.get(key);
+		if (host == null)
+			return new HostStats(key, 0, 0, 0);
+
+		evictExpired(host, System.currentTimeMillis());
+		return new HostStats(key, host.newConnections, host.reusedConnections, host.idle.size());
+	}
+
+	public synchronized HostStats[] estimatedStats()
+	{
+		final long now = System.currentTimeMillis();
+		final HostStats[] stats = new HostStats[hosts.size()];
+		int i = 0;
+		for (final Map.Entry<String, Host> entry : hosts.entrySet())
+		{
+			final Host host = entry.getValue();
+			evictExpired(host, now);
+			stats[i++] = new HostStats(entry.getKey(), host.newConnections, host.reusedConnections, host.idle.size());
+		}
+		return stats;
+	}
+
+	private Host host(final URL url)
+	{
+		final String key = key(url);
+		Host host = hosts.get(key);
+		if (host == null)
+		{
+			host = new Host();
+			hosts.put(key, host);
+		}
+		return host;
+	}
+
+	private static void evictExpired(final Host host, final long now)
+	{
+		for (final Iterator<Long> i = host.idle.iterator(); i.hasNext();)
+			if (i.next() <= now)
+				i.remove();
+	}
+
+	private static String key(final URL url)
+	{
+		final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+		return url.getProtocol() + "://" + url.getHost() + ":" + port;
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Random access to a little endian binary payload held in memory. Seeking is a plain position change, and values can
+ * be read at absolute offsets without moving the position.
+ */
+public final class LittleEndianBuffer
+{
+	private final ByteBuffer buffer;
+
+	public LittleEndianBuffer(final byte[] data, final int length)
+	{
+		buffer = ByteBuffer.wrap(data, 0, length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Read the stream up to its end, without closing it.
+	 *
+	 * @param initialCapacity
+	 *            expected size of the payload
+	 */
+	public static LittleEndianBuffer readFully(final InputStream is, final int initialCapacity) throws IOException
+	{
+		byte[] data = new byte[Math.max(initialCapacity, 1024)];
+		int length = 0;
+		int read;
+		while ((read = is.read(data, length, data.length - length)) != -1)
+		{
+			length += read;
+			if (length == data.length)
+			{
+				final byte[] grown = new byte[data.length * 2];
+				System.arraycopy(data, 0, grown, 0, length);
+				data = grown;
+			}
+		}
+
+		return new LittleEndianBuffer(data, length);
+	}
+
+	public int length()
+	{
+		return buffer.limit();
+	}
+
+	public int position()
+	{
+		return buffer.position();
+	}
+
+	public void position(final int position)
+	{
+		buffer.position(position);
+	}
+
+	public void skipBytes(final int n)
+	{
+		buffer.position(buffer.position() + n);
+	}
+
+	/**
+	 * @return unsigned byte at the position
+	 */
+	public int read()
+	{
+		return buffer.get() & 0xff;
+	}
+
+	/**
+	 * @return unsigned short at the position
+	 */
+	public int readShortReverse()
+	{
+		return buffer.getShort() & 0xffff;
+	}
+
+	public int readIntReverse()
+	{
+		return buffer.getInt();
+	}
+
+	/**
+	 * @return unsigned short at the offset, the position is not changed
+	 */
+	public int getShortReverse(final int offset)
+	{
+		return buffer.getShort(offset) & 0xffff;
+	}
+
+	public int getIntReverse(final int offset)
+	{
+		return buffer.getInt(offset);
+	}
+
+	/**
+	 * Decode a zero terminated string at the offset, the position is not changed.
+	 *
+	 * @param end
+	 *            offset the string cannot extend beyond
+	 */
+	public String getString(final int offset, final int end, final String charsetName) throws IOException
+	{
+		final byte[] data = buffer.array();
+		final int limit = Math.min(end, buffer.limit());
+		int terminator = offset;
+		while (terminator < limit && data[terminator] != 0)
+			terminator++;
+
+		return new String(data, offset, terminator - offset, charsetName);
+	}
+}
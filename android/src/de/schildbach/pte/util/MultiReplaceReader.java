@@ -0,0 +1,368 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replaces any number of strings in a single pass. All patterns are compiled into one Aho-Corasick automaton, the input
+ * is scanned once through a fixed size window.
+ *
+ * Where patterns overlap, the match that starts first wins, and of those the longest. Patterns are matched against the
+ * input only, replacements are never scanned again. This differs from chaining {@link StringReplaceReader}s, where a
+ * replacement could be matched by a later pattern.
+ */
+public class MultiReplaceReader extends FilterReader
+{
+	private static final int ROOT = 0;
+	private static final int DENSE_ROOT_SIZE = 256;
+	private static final int MIN_BUFFER_SIZE = 1024;
+
+	// trie, grown by replace()
+	private final List<char[]> edgeChars = new ArrayList<char[]>();
+	private final List<int[]> edgeTargets = new ArrayList<int[]>();
+	private final List<Integer> depths = new ArrayList<Integer>();
+	private final List<char[]> replacements = new ArrayList<char[]>();
+	private int maxPatternLength = 0;
+
+	// automaton, built on first read
+	private int[] rootTargets;
+	private char[][] stateEdgeChars;
+	private int[][] stateEdgeTargets;
+	private int[] fail;
+	private int[] depth;
+	// longest pattern ending in this state, or -1
+	private int[] match;
+	private char[][] matchReplacement;
+
+	private char[] buf;
+	private int pos; // next char to hand out
+	private int safe; // chars before are decided to pass unchanged
+	private int scan; // next char to feed into the automaton
+	private int limit; // end of input in buf
+	private boolean inputEof = false;
+
+	private int state = ROOT;
+	private int candidate = -1; // best match found so far, waiting for a longer or earlier one
+	private int candidateStart;
+
+	private char[] replacement;
+	private int replacementPos;
+	private int resumeAt;
+
+	public MultiReplaceReader(final Reader in)
+	{
+		super(in);
+
+		newState(0);
+	}
+
+	/**
+	 * Adds a pattern to be replaced. All patterns have to be added before reading starts.
+	 */
+	public void replace(final String pattern, final String replacement)
+	{
+		if (pattern.length() == 0)
+			throw new IllegalArgumentException("empty pattern");
+		if (buf != null)
+			throw new IllegalStateException("already reading");
+
+		int s = ROOT;
+		for (int i = 0; i < pattern.length(); i++)
+		{
+			final char c = pattern.charAt(i);
+			int t = edge(edgeChars.get(s), edgeTargets.get(s), c);
+			if (t < 0)
+			{
+				t = newState(i + 1);
+				addEdge(s, c, t);
+			}
+			s = t;
+		}
+		replacements.set(s, replacement.toCharArray());
+		maxPatternLength = Math.max(maxPatternLength, pattern.length());
+	}
+
+	@Override
+	public int read(final char[] cbuf, final int off, final int len) throws IOException
+	{
+		if (buf == null)
+			compile();
+
+		int n = 0;
+		while (n < len)
+		{
+			if (pos < safe)
+			{
+				final int count = Math.min(len - n, safe - pos);
+				System.arraycopy(buf, pos, cbuf, off + n, count);
+				pos += count;
+				n += count;
+			}
+			else if (replacement != null)
+			{
+				final int count = Math.min(len - n, replacement.length - replacementPos);
+				System.arraycopy(replacement, replacementPos, cbuf, off + n, count);
+				replacementPos += count;
+				n += count;
+
+				if (replacementPos == replacement.length)
+				{
+					replacement = null;
+					pos = safe = scan = resumeAt;
+				}
+			}
+			else if (!advance())
+			{
+				break;
+			}
+		}
+
+		return n == 0 && len > 0 ? -1 : n;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		final char[] c = new char[1];
+		return read(c, 0, 1) == -1 ? -1 : c[0];
+	}
+
+	@Override
+	public long skip(final long n) throws IOException
+	{
+		final char[] skipBuf = new char[(int) Math.min(n, MIN_BUFFER_SIZE)];
+		long skipped = 0;
+		while (skipped < n)
+		{
+			final int read = read(skipBuf, 0, (int) Math.min(n - skipped, skipBuf.length));
+			if (read == -1)
+				break;
+			skipped += read;
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean ready() throws IOException
+	{
+		return pos < safe || replacement != null || in.ready();
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		return false;
+	}
+
+	@Override
+	public void mark(final int readAheadLimit) throws IOException
+	{
+		throw new IOException("mark() not supported");
+	}
+
+	@Override
+	public void reset() throws IOException
+	{
+		throw new IOException("reset() not supported");
+	}
+
+	/**
+	 * Feeds input into the automaton until some output is decided.
+	 *
+	 * @return false if the input is exhausted
+	 */
+	private boolean advance() throws IOException
+	{
+		while (true)
+		{
+			if (scan == limit)
+			{
+				if (!inputEof)
+				{
+					fill();
+					continue;
+				}
+
+				// end of input, nothing can grow any more
+				if (candidate >= 0)
+					commit();
+				else
+					safe = limit;
+				return safe > pos || replacement != null;
+			}
+
+			state = step(state, buf[scan++]);
+
+			final int m = match[state];
+			if (m >= 0)
+			{
+				final int start = scan - depth[m];
+				if (candidate < 0 || start < candidateStart || (start == candidateStart && depth[m] > depth[candidate]))
+				{
+					candidate = m;
+					candidateStart = start;
+				}
+			}
+
+			// no match in progress can start before this
+			final int activeStart = scan - depth[state];
+
+			if (candidate >= 0)
+			{
+				if (activeStart > candidateStart)
+				{
+					commit();
+					return true;
+				}
+			}
+			else if (activeStart > pos)
+			{
+				safe = activeStart;
+				return true;
+			}
+		}
+	}
+
+	private void commit()
+	{
+		safe = candidateStart;
+		replacement = matchReplacement[candidate];
+		replacementPos = 0;
+		resumeAt = candidateStart + depth[candidate];
+
+		// input after the match is scanned again from the root
+		state = ROOT;
+		candidate = -1;
+	}
+
+	private void fill() throws IOException
+	{
+		if (pos > 0)
+		{
+			// only undecided input is kept, everything before pos has been handed out
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			safe -= pos;
+			scan -= pos;
+			limit -= pos;
+			candidateStart -= pos;
+			pos = 0;
+		}
+
+		final int read = in.read(buf, limit, buf.length - limit);
+		if (read == -1)
+			inputEof = true;
+		else
+			limit += read;
+	}
+
+	private int step(int s, final char c)
+	{
+		while (s != ROOT)
+		{
+			final int t = edge(stateEdgeChars[s], stateEdgeTargets[s], c);
+			if (t >= 0)
+				return t;
+
+			s = fail[s];
+		}
+
+		return c < DENSE_ROOT_SIZE ? rootTargets[c] : Math.max(edge(stateEdgeChars[ROOT], stateEdgeTargets[ROOT], c), ROOT);
+	}
+
+	private void compile()
+	{
+		final int numStates = edgeChars.size();
+		stateEdgeChars = edgeChars.toArray(new char[numStates][]);
+		stateEdgeTargets = edgeTargets.toArray(new int[numStates][]);
+		fail = new int[numStates];
+		depth = new int[numStates];
+		match = new int[numStates];
+		matchReplacement = replacements.toArray(new char[numStates][]);
+		for (int s = 0; s < numStates; s++)
+			depth[s] = depths.get(s);
+
+		rootTargets = new int[DENSE_ROOT_SIZE];
+		Arrays.fill(rootTargets, ROOT);
+		for (int i = 0; i < stateEdgeChars[ROOT].length; i++)
+			if (stateEdgeChars[ROOT][i] < DENSE_ROOT_SIZE)
+				rootTargets[stateEdgeChars[ROOT][i]] = stateEdgeTargets[ROOT][i];
+
+		// breadth first, so failure links always point to states already done
+		final int[] queue = new int[numStates];
+		int head = 0, tail = 0;
+		match[ROOT] = -1;
+		queue[tail++] = ROOT;
+		while (head < tail)
+		{
+			final int s = queue[head++];
+			for (int i = 0; i < stateEdgeChars[s].length; i++)
+			{
+				final char c = stateEdgeChars[s][i];
+				final int t = stateEdgeTargets[s][i];
+
+				fail[t] = s == ROOT ? ROOT : step(fail[s], c);
+				match[t] = matchReplacement[t] != null ? t : match[fail[t]];
+				queue[tail++] = t;
+			}
+		}
+
+		// undecided input never spans more than about two patterns
+		buf = new char[Math.max(MIN_BUFFER_SIZE, maxPatternLength * 3)];
+
+		edgeChars.clear();
+		edgeTargets.clear();
+	}
+
+	private int newState(final int stateDepth)
+	{
+		edgeChars.add(new char[0]);
+		edgeTargets.add(new int[0]);
+		depths.add(stateDepth);
+		replacements.add(null);
+		return edgeChars.size() - 1;
+	}
+
+	private void addEdge(final int s, final char c, final int t)
+	{
+		final char[] chars = edgeChars.get(s);
+		final int[] targets = edgeTargets.get(s);
+		final char[] newChars = new char[chars.length + 1];
+		System.arraycopy(chars, 0, newChars, 0, chars.length);
+		final int[] newTargets = new int[targets.length + 1];
+		System.arraycopy(targets, 0, newTargets, 0, targets.length);
+		newChars[chars.length] = c;
+		newTargets[chars.length] = t;
+		edgeChars.set(s, newChars);
+		edgeTargets.set(s, newTargets);
+	}
+
+	private static int edge(final char[] chars, final int[] targets, final char c)
+	{
+		for (int i = 0; i < chars.length; i++)
+			if (chars[i] == c)
+				return targets[i];
+
+		return -1;
+	}
+}
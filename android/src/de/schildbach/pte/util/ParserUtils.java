@@ -17,11 +17,11 @@
 
 package de.schildbach.pte.util;
 
-import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
@@ -33,11 +33,11 @@ import java.nio.charset.Charset;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 
 import de.schildbach.pte.exception.BlockedException;
 import de.schildbach.pte.exception.NotFoundException;
@@ -51,6 +51,7 @@ public final class ParserUtils
 	private static final String SCRAPE_USER_AGENT = "Mozilla/5.0 (Windows NT 6.1; WOW64; rv:23.0) Gecko/20100101 Firefox/23.0";
 	private static final String SCRAPE_ACCEPT = "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8";
 	private static final int SCRAPE_INITIAL_CAPACITY = 4096;
+	private static final int SCRAPE_MAX_INITIAL_CAPACITY = 1024 * 1024;
 	private static final int SCRAPE_CONNECT_TIMEOUT = 5000;
 	private static final int SCRAPE_READ_TIMEOUT = 15000;
 	private static final Charset SCRAPE_DEFAULT_ENCODING = Charset.forName("ISO-8859-1");
@@ -58,11 +59,29 @@ public final class ParserUtils
 	private static final Pattern P_REFRESH = Pattern.compile("<META\\s+http-equiv=\"refresh\"\\s+content=\"\\d+;\\s*URL=([^\"]+)\"",
 			Pattern.CASE_INSENSITIVE);
 
-	private static String stateCookie;
+	// used by callers that do not bring their own session
+	private static final SessionStore DEFAULT_SESSION = new SessionStore();
+	private static volatile HttpTransport transport = new HttpUrlConnectionTransport();
 
 	public static void resetState()
 	{
-		stateCookie = null;
+		DEFAULT_SESSION.clear();
+	}
+
+	/**
+	 * Replace the transport all requests go through, e.g. to record or replay server responses.
+	 */
+	public static void setTransport(final HttpTransport transport)
+	{
+		if (transport == null)
+			throw new IllegalArgumentException("transport == null");
+
+		ParserUtils.transport = transport;
+	}
+
+	public static HttpTransport getTransport()
+	{
+		return transport;
 	}
 
 	public static final CharSequence scrape(final String url) throws IOException
@@ -78,6 +97,12 @@ public final class ParserUtils
 
 	public static final CharSequence scrape(final String urlStr, final String postRequest, Charset encoding, final String sessionCookieName, int tries)
 			throws IOException
+	{
+		return scrape(urlStr, postRequest, encoding, sessionCookieName, DEFAULT_SESSION, tries);
+	}
+
+	public static final CharSequence scrape(final String urlStr, final String postRequest, Charset encoding, final String sessionCookieName,
+			final SessionStore session, int tries) throws IOException
 	{
 		if (encoding == null)
 			encoding = SCRAPE_DEFAULT_ENCODING;
@@ -86,71 +111,23 @@ public final class ParserUtils
 		{
 			try
 			{
-				final StringBuilder buffer = new StringBuilder(SCRAPE_INITIAL_CAPACITY);
 				final URL url = new URL(urlStr);
-				final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-
-				connection.setDoInput(true);
-				connection.setDoOutput(postRequest != null);
-				connection.setConnectTimeout(SCRAPE_CONNECT_TIMEOUT);
-				connection.setReadTimeout(SCRAPE_READ_TIMEOUT);
-				connection.addRequestProperty("User-Agent", SCRAPE_USER_AGENT);
-				connection.addRequestProperty("Accept", SCRAPE_ACCEPT);
-				connection.addRequestProperty("Accept-Encoding", "gzip");
-				// workaround to disable Vodafone compression
-				connection.addRequestProperty("Cache-Control", "no-cache");
-
-				if (sessionCookieName != null && stateCookie != null)
-					connection.addRequestProperty("Cookie", stateCookie);
-
-				if (postRequest != null)
-				{
-					final byte[] postRequestBytes = postRequest.getBytes(encoding.name());
-
-					connection.setRequestMethod("POST");
-					connection.addRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-					connection.addRequestProperty("Content-Length", Integer.toString(postRequestBytes.length));
+				final HttpTransport.Response response = transport.execute(request(url, postRequest, encoding, null, sessionCookieName, session));
 
-					final OutputStream os = connection.getOutputStream();
-					os.write(postRequestBytes);
-					os.close();
-				}
-
-				final int responseCode = connection.getResponseCode();
+				final int responseCode = response.responseCode;
 				if (responseCode == HttpURLConnection.HTTP_OK)
 				{
-					final String contentType = connection.getContentType();
-					final String contentEncoding = connection.getContentEncoding();
-					if (!url.getHost().equals(connection.getURL().getHost()))
-						throw new UnexpectedRedirectException(url, connection.getURL());
-
-					final InputStream is;
-					if ("gzip".equalsIgnoreCase(contentEncoding) || "application/octet-stream".equalsIgnoreCase(contentType))
-					{
-						final BufferedInputStream bis = new BufferedInputStream(connection.getInputStream());
-						bis.mark(2);
-						final int byte0 = bis.read();
-						final int byte1 = bis.read();
-						bis.reset();
-
-						// check for gzip header
-						if (byte0 == 0x1f && byte1 == 0x8b)
-						{
-							// gzipped
-							is = new GZIPInputStream(bis);
-						}
-						else
-						{
-							// uncompressed
-							is = bis;
-						}
-					}
-					else
+					final String contentType = response.contentType;
+					final String contentEncoding = response.contentEncoding;
+					if (!url.getHost().equals(response.url.getHost()))
 					{
-						// uncompressed
-						is = connection.getInputStream();
+						response.body.close();
+						throw new UnexpectedRedirectException(url, response.url);
 					}
 
+					final InputStream is = decode(response.body, contentEncoding, contentType);
+
+					final StringBuilder buffer = new StringBuilder(initialCapacity(response));
 					final Reader pageReader = new InputStreamReader(is, encoding);
 					copy(pageReader, buffer);
 					pageReader.close();
@@ -161,21 +138,7 @@ public final class ParserUtils
 						if (!mRefresh.find())
 						{
 							if (sessionCookieName != null)
-							{
-								for (final Map.Entry<String, List<String>> entry : connection.getHeaderFields().entrySet())
-								{
-									if ("set-cookie".equalsIgnoreCase(entry.getKey()))
-									{
-										for (final String value : entry.getValue())
-										{
-											if (value.startsWith(sessionCookieName))
-											{
-												stateCookie = value.split(";", 2)[0];
-											}
-										}
-									}
-								}
-							}
+								rememberSessionCookie(url, response, sessionCookieName, session);
 
 							return buffer;
 						}
@@ -204,11 +167,11 @@ public final class ParserUtils
 				}
 				else if (responseCode == HttpURLConnection.HTTP_MOVED_PERM || responseCode == HttpURLConnection.HTTP_MOVED_TEMP)
 				{
-					throw new UnexpectedRedirectException(url, connection.getURL());
+					throw new UnexpectedRedirectException(url, response.url);
 				}
 				else
 				{
-					final String message = "got response: " + responseCode + " " + connection.getResponseMessage();
+					final String message = "got response: " + responseCode + " " + response.responseMessage;
 					if (tries-- > 0)
 						System.out.println(message + ", retrying...");
 					else
@@ -225,6 +188,34 @@ public final class ParserUtils
 		}
 	}
 
+	/**
+	 * @return capacity for the page buffer, the content length if it is known and uncompressed
+	 */
+	private static int initialCapacity(final HttpTransport.Response response)
+	{
+		if (response.contentEncoding == null && response.headers != null)
+		{
+			for (final Map.Entry<String, List<String>> entry : response.headers.entrySet())
+			{
+				if ("content-length".equalsIgnoreCase(entry.getKey()) && !entry.getValue().isEmpty())
+				{
+					try
+					{
+						final int length = Integer.parseInt(entry.getValue().get(0).trim());
+						if (length > 0 && length < SCRAPE_MAX_INITIAL_CAPACITY)
+							return length;
+					}
+					catch (final NumberFormatException x)
+					{
+						// fall through to the default
+					}
+				}
+			}
+		}
+
+		return SCRAPE_INITIAL_CAPACITY;
+	}
+
 	private static final long copy(final Reader reader, final StringBuilder builder) throws IOException
 	{
 		final char[] buffer = new char[SCRAPE_INITIAL_CAPACITY];
@@ -238,119 +229,126 @@ public final class ParserUtils
 		return count;
 	}
 
-	public static final InputStream scrapeInputStream(final String url) throws IOException
+	/**
+	 * Decompress the response body in a single pass. The gzip magic is checked without buffering the stream, and once
+	 * more after decompressing for servers that compress twice.
+	 */
+	private static InputStream decode(final InputStream is, final String contentEncoding, final String contentType) throws IOException
 	{
-		return scrapeInputStream(url, null, null, null, null, 3);
-	}
+		if (!"gzip".equalsIgnoreCase(contentEncoding) && !"application/octet-stream".equalsIgnoreCase(contentType))
+		{
+			// uncompressed
+			return is;
+		}
 
-	public static final InputStream scrapeInputStream(final String urlStr, final String postRequest, Charset requestEncoding, final String referer,
-			final String sessionCookieName, int tries) throws IOException
-	{
-		if (requestEncoding == null)
-			requestEncoding = SCRAPE_DEFAULT_ENCODING;
+		final PushbackInputStream pis = new PushbackInputStream(is, 2);
+		if (!GunzipInputStream.isGzipped(pis))
+		{
+			// uncompressed
+			return pis;
+		}
 
-		while (true)
+		final PushbackInputStream gis = new PushbackInputStream(new GunzipInputStream(pis), 2);
+		if (GunzipInputStream.isGzipped(gis))
 		{
-			final URL url = new URL(urlStr);
-			final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			// double gzipped
+			return new GunzipInputStream(gis);
+		}
+		else
+		{
+			// gzipped
+			return gis;
+		}
+	}
 
-			connection.setDoInput(true);
-			connection.setDoOutput(postRequest != null);
-			connection.setConnectTimeout(SCRAPE_CONNECT_TIMEOUT);
-			connection.setReadTimeout(SCRAPE_READ_TIMEOUT);
-			connection.addRequestProperty("User-Agent", SCRAPE_USER_AGENT);
-			connection.addRequestProperty("Accept", SCRAPE_ACCEPT);
-			connection.addRequestProperty("Accept-Encoding", "gzip");
-			// workaround to disable Vodafone compression
-			connection.addRequestProperty("Cache-Control", "no-cache");
+	private static HttpTransport.Request request(final URL url, final String postRequest, final Charset requestEncoding, final String referer,
+			final String sessionCookieName, final SessionStore session) throws IOException
+	{
+		final Map<String, String> headers = new LinkedHashMap<String, String>();
+		headers.put("User-Agent", SCRAPE_USER_AGENT);
+		headers.put("Accept", SCRAPE_ACCEPT);
+		headers.put("Accept-Encoding", "gzip");
+		// workaround to disable Vodafone compression
+		headers.put("Cache-Control", "no-cache");
 
-			if (referer != null)
-				connection.addRequestProperty("Referer", referer);
+		if (referer != null)
+			headers.put("Referer", referer);
 
-			if (sessionCookieName != null && stateCookie != null)
-				connection.addRequestProperty("Cookie", stateCookie);
+		if (sessionCookieName != null)
+		{
+			final String cookie = session.cookie(url);
+			if (cookie != null)
+				headers.put("Cookie", cookie);
+		}
 
-			if (postRequest != null)
-			{
-				final byte[] postRequestBytes = postRequest.getBytes(requestEncoding.name());
+		byte[] postRequestBytes = null;
+		if (postRequest != null)
+		{
+			postRequestBytes = postRequest.getBytes(requestEncoding.name());
 
-				connection.setRequestMethod("POST");
-				connection.addRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-				connection.addRequestProperty("Content-Length", Integer.toString(postRequestBytes.length));
+			headers.put("Content-Type", "application/x-www-form-urlencoded");
+			headers.put("Content-Length", Integer.toString(postRequestBytes.length));
+		}
 
-				final OutputStream os = connection.getOutputStream();
-				os.write(postRequestBytes);
-				os.close();
-			}
+		return new HttpTransport.Request(url, postRequestBytes, headers, SCRAPE_CONNECT_TIMEOUT, SCRAPE_READ_TIMEOUT);
+	}
 
-			final int responseCode = connection.getResponseCode();
-			if (responseCode == HttpURLConnection.HTTP_OK)
+	private static void rememberSessionCookie(final URL url, final HttpTransport.Response response, final String sessionCookieName,
+			final SessionStore session)
+	{
+		for (final Map.Entry<String, List<String>> entry : response.headers.entrySet())
+		{
+			if ("set-cookie".equalsIgnoreCase(entry.getKey()))
 			{
-				final String contentType = connection.getContentType();
-				final String contentEncoding = connection.getContentEncoding();
-				final InputStream is = connection.getInputStream();
-				if (!url.getHost().equals(connection.getURL().getHost()))
-					throw new UnexpectedRedirectException(url, connection.getURL());
-
-				if (sessionCookieName != null)
+				for (final String value : entry.getValue())
 				{
-					for (final Map.Entry<String, List<String>> entry : connection.getHeaderFields().entrySet())
+					if (value.startsWith(sessionCookieName))
 					{
-						if ("set-cookie".equalsIgnoreCase(entry.getKey()))
-						{
-							for (final String value : entry.getValue())
-							{
-								if (value.startsWith(sessionCookieName))
-								{
-									stateCookie = value.split(";", 2)[0];
-								}
-							}
-						}
+						session.remember(url, value.split(";", 2)[0]);
 					}
 				}
+			}
+		}
+	}
 
-				if ("gzip".equalsIgnoreCase(contentEncoding) || "application/octet-stream".equalsIgnoreCase(contentType))
-				{
-					final BufferedInputStream bis = new BufferedInputStream(is);
-					bis.mark(2);
-					final int byte0 = bis.read();
-					final int byte1 = bis.read();
-					bis.reset();
-
-					// check for gzip header
-					if (byte0 == 0x1f && byte1 == 0x8b)
-					{
-						final InputStream gis = new GZIPInputStream(bis);
+	public static final InputStream scrapeInputStream(final String url) throws IOException
+	{
+		return scrapeInputStream(url, null, null, null, null, 3);
+	}
 
-						final BufferedInputStream bis2 = new BufferedInputStream(gis);
-						bis2.mark(2);
-						final int byte0_2 = bis2.read();
-						final int byte1_2 = bis2.read();
-						bis2.reset();
+	public static final InputStream scrapeInputStream(final String urlStr, final String postRequest, Charset requestEncoding, final String referer,
+			final String sessionCookieName, int tries) throws IOException
+	{
+		return scrapeInputStream(urlStr, postRequest, requestEncoding, referer, sessionCookieName, DEFAULT_SESSION, tries);
+	}
 
-						// check for gzip header again
-						if (byte0_2 == 0x1f && byte1_2 == 0x8b)
-						{
-							// double gzipped
-							return new GZIPInputStream(bis2);
-						}
-						else
-						{
-							// gzipped
-							return bis2;
-						}
-					}
-					else
-					{
-						// uncompressed
-						return bis;
-					}
-				}
-				else
+	public static final InputStream scrapeInputStream(final String urlStr, final String postRequest, Charset requestEncoding, final String referer,
+			final String sessionCookieName, final SessionStore session, int tries) throws IOException
+	{
+		if (requestEncoding == null)
+			requestEncoding = SCRAPE_DEFAULT_ENCODING;
+
+		while (true)
+		{
+			final URL url = new URL(urlStr);
+			final HttpTransport.Response response = transport.execute(request(url, postRequest, requestEncoding, referer, sessionCookieName, session));
+
+			final int responseCode = response.responseCode;
+			if (responseCode == HttpURLConnection.HTTP_OK)
+			{
+				final String contentType = response.contentType;
+				final String contentEncoding = response.contentEncoding;
+				final InputStream is = response.body;
+				if (!url.getHost().equals(response.url.getHost()))
 				{
-					// uncompressed
-					return is;
+					is.close();
+					throw new UnexpectedRedirectException(url, response.url);
 				}
+
+				if (sessionCookieName != null)
+					rememberSessionCookie(url, response, sessionCookieName, session);
+
+				return new ScrapeInputStream(decode(is, contentEncoding, contentType), is);
 			}
 			else if (responseCode == HttpURLConnection.HTTP_FORBIDDEN || responseCode == HttpURLConnection.HTTP_BAD_REQUEST
 					|| responseCode == HttpURLConnection.HTTP_NOT_ACCEPTABLE || responseCode == HttpURLConnection.HTTP_UNAVAILABLE)
@@ -363,11 +361,11 @@ public final class ParserUtils
 			}
 			else if (responseCode == HttpURLConnection.HTTP_MOVED_PERM || responseCode == HttpURLConnection.HTTP_MOVED_TEMP)
 			{
-				throw new UnexpectedRedirectException(url, connection.getURL());
+				throw new UnexpectedRedirectException(url, response.url);
 			}
 			else
 			{
-				final String message = "got response: " + responseCode + " " + connection.getResponseMessage();
+				final String message = "got response: " + responseCode + " " + response.responseMessage;
 				if (tries-- > 0)
 					System.out.println(message + ", retrying...");
 				else
@@ -376,6 +374,49 @@ public final class ParserUtils
 		}
 	}
 
+	/**
+	 * Close a stream from {@link #scrapeInputStream} before its end, once the parser has seen enough. The rest of the
+	 * response is not downloaded, at the price of a connection that cannot be reused.
+	 */
+	public static void abortInputStream(final InputStream is) throws IOException
+	{
+		if (is instanceof ScrapeInputStream)
+			((ScrapeInputStream) is).abort();
+		else
+			is.close();
+	}
+
+	private static final class ScrapeInputStream extends FilterInputStream
+	{
+		// as received from the transport, before decompression
+		private final InputStream body;
+		private boolean closed = false;
+
+		public ScrapeInputStream(final InputStream in, final InputStream body)
+		{
+			super(in);
+
+			this.body = body;
+		}
+
+		public void abort() throws IOException
+		{
+			if (body instanceof HttpTransport.Abortable)
+				((HttpTransport.Abortable) body).abort();
+			close();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if (closed)
+				return;
+			closed = true;
+
+			super.close();
+		}
+	}
+
 	private static final Pattern P_ENTITY = Pattern.compile("&(?:#(x[\\da-f]+|\\d+)|(amp|quot|apos|szlig|nbsp));");
 
 	public static String resolveEntities(final CharSequence str)
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Passes requests on to another transport and writes every response to disk, to be served later by
+ * {@link ReplayTransport}. Responses are stored as received, compressed bodies stay compressed.
+ */
+public class RecordingTransport implements HttpTransport
+{
+	private final HttpTransport delegate;
+	private final File directory;
+
+	public RecordingTransport(final HttpTransport delegate, final File directory)
+	{
+		this.delegate = delegate;
+		this.directory = directory;
+	}
+
+	public Response execute(final Request request) throws IOException
+	{
+		final Response response = delegate.execute(request);
+
+		final byte[] body = response.body != null ? ResponseRecord.readFully(response.body) : null;
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("cannot create " + directory);
+		final ResponseRecord record = new ResponseRecord(response, body);
+		record.write(ReplayTransport.file(directory, request), request);
+
+		return record.toResponse();
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Answers requests with responses captured by {@link RecordingTransport}, without any network access. Recordings are
+ * read once and then served from memory, so providers can be driven at full speed.
+ */
+public class ReplayTransport implements HttpTransport
+{
+	private static final String FILE_SUFFIX = ".http";
+
+	private final File directory;
+	private final Map<String, ResponseRecord> recordings = new HashMap<String, ResponseRecord>();
+
+	public ReplayTransport(final File directory)
+	{
+		this.directory = directory;
+	}
+
+	public Response execute(final Request request) throws IOException
+	{
+		return recording(request).toResponse();
+	}
+
+	private synchronized ResponseRecord recording(final Request request) throws IOException
+	{
+		final String key = request.key();
+		ResponseRecord recording = recordings.get(key);
+		if (recording == null)
+		{
+			final File file = file(directory, request);
+			if (!file.exists())
+				throw new FileNotFoundException("no recording of " + request + " at " + file);
+
+			recording = ResponseRecord.read(file);
+			recordings.put(key, recording);
+		}
+		return recording;
+	}
+
+	static File file(final File directory, final Request request)
+	{
+		return new File(directory, request.key() + FILE_SUFFIX);
+	}
+}
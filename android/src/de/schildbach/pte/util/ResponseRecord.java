@@ -0,0 +1,273 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A response stored on disk, as written by {@link RecordingTransport} and {@link CachingTransport}.
+ */
+final class ResponseRecord
+{
+	private static final int FILE_VERSION = 2;
+	// body length of a record whose body extends to the end of the file
+	private static final int BODY_TO_END = -1;
+
+	final int responseCode;
+	final String responseMessage;
+	final String url;
+	final String contentType;
+	final String contentEncoding;
+	final Map<String, List<String>> headers;
+	final byte[] body;
+
+	ResponseRecord(final HttpTransport.Response response, final byte[] body)
+	{
+		this(response.responseCode, response.responseMessage, response.url.toString(), response.contentType, response.contentEncoding,
+				response.headers, body);
+	}
+
+	private ResponseRecord(final int responseCode, final String responseMessage, final String url, final String contentType,
+			final String contentEncoding, final Map<String, List<String>> headers, final byte[] body)
+	{
+		this.responseCode = responseCode;
+		this.responseMessage = responseMessage;
+		this.url = url;
+		this.contentType = contentType;
+		this.contentEncoding = contentEncoding;
+		this.headers = headers;
+		this.body = body;
+	}
+
+	HttpTransport.Response toResponse() throws IOException
+	{
+		return new HttpTransport.Response(responseCode, responseMessage, new URL(url), contentType, contentEncoding, headers,
+				body != null ? new ByteArrayInputStream(body) : null);
+	}
+
+	/**
+	 * @return the first value of the header, names are compared ignoring case
+	 */
+	static String header(final Map<String, List<String>> headers, final String name)
+	{
+		for (final Map.Entry<String, List<String>> header : headers.entrySet())
+			if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty())
+				return header.getValue().get(0);
+
+		return null;
+	}
+
+	void write(final File file, final HttpTransport.Request request) throws IOException
+	{
+		final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try
+		{
+			writeHead(os, request);
+			os.writeBoolean(body != null);
+			if (body != null)
+			{
+				os.writeInt(body.length);
+				os.write(body);
+			}
+		}
+		finally
+		{
+			os.close();
+		}
+	}
+
+	/**
+	 * Start writing the record of a response whose body is still being received. The body is written to the returned
+	 * stream, it extends to the end of the file.
+	 */
+	static OutputStream startWrite(final File file, final HttpTransport.Response response, final HttpTransport.Request request)
+			throws IOException
+	{
+		final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try
+		{
+			new ResponseRecord(response, null).writeHead(os, request);
+			os.writeBoolean(true);
+			os.writeInt(BODY_TO_END);
+			return os;
+		}
+		catch (final IOException x)
+		{
+			os.close();
+			throw x;
+		}
+	}
+
+	private void writeHead(final DataOutputStream os, final HttpTransport.Request request) throws IOException
+	{
+		os.writeInt(FILE_VERSION);
+		// the request is only kept to tell records apart when looking at them
+		os.writeUTF(request.toString());
+		os.writeInt(responseCode);
+		writeString(os, responseMessage);
+		os.writeUTF(url);
+		writeString(os, contentType);
+		writeString(os, contentEncoding);
+		os.writeInt(headers.size());
+		for (final Map.Entry<String, List<String>> header : headers.entrySet())
+		{
+			writeString(os, header.getKey());
+			os.writeInt(header.getValue().size());
+			for (final String value : header.getValue())
+				writeString(os, value);
+		}
+	}
+
+	static ResponseRecord read(final File file) throws IOException
+	{
+		final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try
+		{
+			final ResponseRecord head = readHead(is, file);
+			byte[] body = null;
+			if (is.readBoolean())
+			{
+				final int length = is.readInt();
+				if (length == BODY_TO_END)
+				{
+					body = readFully(is);
+				}
+				else
+				{
+					body = new byte[length];
+					is.readFully(body);
+				}
+			}
+
+			return new ResponseRecord(head.responseCode, head.responseMessage, head.url, head.contentType, head.contentEncoding,
+					head.headers, body);
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	/**
+	 * Read the head of a record and leave its body on disk. The body of the returned response is read from the file, so
+	 * the caller has to close it.
+	 */
+	static HttpTransport.Response open(final File file) throws IOException
+	{
+		final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		InputStream body = null;
+		try
+		{
+			final ResponseRecord head = readHead(is, file);
+			if (is.readBoolean())
+			{
+				final int length = is.readInt();
+				if (length == BODY_TO_END)
+				{
+					body = is;
+				}
+				else
+				{
+					final byte[] bytes = new byte[length];
+					is.readFully(bytes);
+					body = new ByteArrayInputStream(bytes);
+				}
+			}
+
+			return new HttpTransport.Response(head.responseCode, head.responseMessage, new URL(head.url), head.contentType,
+					head.contentEncoding, head.headers, body);
+		}
+		finally
+		{
+			if (body != is)
+				is.close();
+		}
+	}
+
+	private static ResponseRecord readHead(final DataInputStream is, final File file) throws IOException
+	{
+		final int version = is.readInt();
+		// version 1 records always give the body length
+		if (version != FILE_VERSION && version != 1)
+			throw new IOException("unknown record version: " + file);
+		is.readUTF();
+		final int responseCode = is.readInt();
+		final String responseMessage = readString(is);
+		final String url = is.readUTF();
+		final String contentType = readString(is);
+		final String contentEncoding = readString(is);
+		final int numHeaders = is.readInt();
+		final Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>(numHeaders);
+		for (int i = 0; i < numHeaders; i++)
+		{
+			final String name = readString(is);
+			final int numValues = is.readInt();
+			final List<String> values = new ArrayList<String>(numValues);
+			for (int v = 0; v < numValues; v++)
+				values.add(readString(is));
+			headers.put(name, values);
+		}
+
+		return new ResponseRecord(responseCode, responseMessage, url, contentType, contentEncoding, headers, null);
+	}
+
+	static byte[] readFully(final InputStream is) throws IOException
+	{
+		try
+		{
+			final ByteArrayOutputStream os = new ByteArrayOutputStream();
+			final byte[] buf = new byte[4096];
+			int read;
+			while ((read = is.read(buf)) != -1)
+				os.write(buf, 0, read);
+			return os.toByteArray();
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private static void writeString(final DataOutputStream os, final String str) throws IOException
+	{
+		os.writeBoolean(str != null);
+		if (str != null)
+			os.writeUTF(str);
+	}
+
+	private static String readString(final DataInputStream is) throws IOException
+	{
+		return is.readBoolean() ? is.readUTF() : null;
+	}
+}
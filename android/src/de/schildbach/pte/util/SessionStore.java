@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Session cookies of one network provider, safe to use from several threads. By default one cookie is kept for all
+ * hosts of the provider, optionally every host gets a jar of its own.
+ */
+public final class SessionStore
+{
+	private static final String ANY_HOST = "";
+
+	private final boolean perHost;
+	private final Map<String, String> cookies = new HashMap<String, String>();
+
+	public SessionStore()
+	{
+		this(false);
+	}
+
+	/**
+	 * @param perHost
+	 *            keep a separate cookie for every host
+	 */
+	public SessionStore(final boolean perHost)
+	{
+		this.perHost = perHost;
+	}
+
+	/**
+	 * @return the session cookie to send to the host of the url, or null if there is none
+	 */
+	public synchronized String cookie(final URL url)
+	{
+		return cookies.get(key(url));
+	}
+
+	/**
+	 * Remember the session cookie received from the host of the url.
+	 *
+	 * @param cookie
+	 *            name and value, without attributes
+	 */
+	public synchronized void remember(final URL url, final String cookie)
+	{
+		cookies.put(key(url), cookie);
+	}
+
+	public synchronized void clear()
+	{
+		cookies.clear();
+	}
+
+	private String key(final URL url)
+	{
+		return perHost ? url.getHost() : ANY_HOST;
+	}
+}
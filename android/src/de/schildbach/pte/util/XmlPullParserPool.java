@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.io.Reader;
+import java.util.ArrayList;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+/**
+ * Hands out pull parsers from a per thread pool. The factory is looked up once per process, and parsers are reset and
+ * reused instead of being created for every request.
+ *
+ * A parser that is never given back does no harm, it is simply not reused. Parsers that are in use are not held by
+ * the pool, so nested parses on the same thread each get their own.
+ */
+public final class XmlPullParserPool
+{
+	private static final int MAX_PARSERS_PER_THREAD = 2;
+
+	private static XmlPullParserFactory factory;
+
+	private static final ThreadLocal<ArrayList<XmlPullParser>> POOL = new ThreadLocal<ArrayList<XmlPullParser>>()
+	{
+		@Override
+		protected ArrayList<XmlPullParser> initialValue()
+		{
+			return new ArrayList<XmlPullParser>(MAX_PARSERS_PER_THREAD);
+		}
+	};
+
+	private XmlPullParserPool()
+	{
+	}
+
+	/**
+	 * @return a parser without input, to be given back with {@link #recycle(XmlPullParser)}
+	 */
+	public static XmlPullParser obtain() throws XmlPullParserException
+	{
+		final ArrayList<XmlPullParser> parsers = POOL.get();
+		if (!parsers.isEmpty())
+			return parsers.remove(parsers.size() - 1);
+
+		return factory().newPullParser();
+	}
+
+	/**
+	 * Give a parser back to the pool of the current thread. Its input is dropped, the stream itself is not closed.
+	 *
+	 * @param pp
+	 *            parser from {@link #obtain()}, may be null
+	 */
+	public static void recycle(final XmlPullParser pp)
+	{
+		if (pp == null)
+			return;
+
+		try
+		{
+			pp.setInput((Reader) null);
+		}
+		catch (final XmlPullParserException x)
+		{
+			// cannot be reset, leave it to the garbage collector
+			return;
+		}
+
+		final ArrayList<XmlPullParser> parsers = POOL.get();
+		if (parsers.size() < MAX_PARSERS_PER_THREAD && !parsers.contains(pp))
+			parsers.add(pp);
+	}
+
+	private static synchronized XmlPullParserFactory factory() throws XmlPullParserException
+	{
+		if (factory == null)
+			factory = XmlPullParserFactory.newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME), null);
+
+		return factory;
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport.tests;
+
+
+
+import android.test.AndroidTestCase;
+import de.schildbach.pte.util.CachingTransport;
+import de.schildbach.pte.util.HttpTransport;
+import junit.framework.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+
+
+public class CachingTransportTestCase extends AndroidTestCase {
+
+    private static final String ETAG = "\"v1\"";
+
+    private File directory;
+    private ScriptedTransport server;
+    private CachingTransport cache;
+    private HttpTransport.Request request;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("cache", "");
+        directory.delete();
+        server = new ScriptedTransport();
+        cache = new CachingTransport(server, directory, 1024 * 1024);
+        request = new HttpTransport.Request(new URL("http://example.com/board"), null, Collections.<String, String>emptyMap(), 1000, 1000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cache.clear();
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testNotModifiedIsAnsweredFromCache() throws Exception
+    {
+        server.answer(ok("first", ETAG));
+        Assert.assertEquals("first", read(cache.execute(request)));
+
+        server.answer(response(HttpURLConnection.HTTP_NOT_MODIFIED, null, ETAG));
+        HttpTransport.Response response = cache.execute(request);
+        Assert.assertEquals(ETAG, server.lastRequest.headers.get("If-None-Match"));
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, response.responseCode);
+        Assert.assertEquals("first", read(response));
+        Assert.assertEquals(1, cache.getNotModifiedCount());
+    }
+
+    public void testOkReplacesEntry() throws Exception
+    {
+        server.answer(ok("first", ETAG));
+        read(cache.execute(request));
+
+        server.answer(ok("second", "\"v2\""));
+        Assert.assertEquals("second", read(cache.execute(request)));
+
+        server.answer(response(HttpURLConnection.HTTP_NOT_MODIFIED, null, "\"v2\""));
+        Assert.assertEquals("second", read(cache.execute(request)));
+        Assert.assertEquals("\"v2\"", server.lastRequest.headers.get("If-None-Match"));
+    }
+
+    public void testServerErrorKeepsEntry() throws Exception
+    {
+        server.answer(ok("first", ETAG));
+        read(cache.execute(request));
+
+        server.answer(response(HttpURLConnection.HTTP_UNAVAILABLE, null, null));
+        HttpTransport.Response response = cache.execute(request);
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, response.responseCode);
+        Assert.assertEquals("first", read(response));
+        Assert.assertEquals(1, cache.getStaleCount());
+
+        //the entry survived the error and is still validated
+        server.answer(response(HttpURLConnection.HTTP_NOT_MODIFIED, null, ETAG));
+        Assert.assertEquals("first", read(cache.execute(request)));
+        Assert.assertEquals(ETAG, server.lastRequest.headers.get("If-None-Match"));
+    }
+
+    public void testNotFoundDropsEntry() throws Exception
+    {
+        server.answer(ok("first", ETAG));
+        read(cache.execute(request));
+
+        server.answer(response(HttpURLConnection.HTTP_NOT_FOUND, null, null));
+        Assert.assertEquals(HttpURLConnection.HTTP_NOT_FOUND, cache.execute(request).responseCode);
+
+        server.answer(ok("again", ETAG));
+        Assert.assertEquals("again", read(cache.execute(request)));
+        Assert.assertNull(server.lastRequest.headers.get("If-None-Match"));
+    }
+
+    public void testBodyClosedEarlyIsNotCached() throws Exception
+    {
+        server.answer(ok("first", ETAG));
+        HttpTransport.Response response = cache.execute(request);
+        response.body.read();
+        response.body.close();
+
+        server.answer(ok("first", ETAG));
+        read(cache.execute(request));
+        Assert.assertNull(server.lastRequest.headers.get("If-None-Match"));
+    }
+
+
+    private static HttpTransport.Response ok(String body, String etag) throws IOException
+    {
+        return response(HttpURLConnection.HTTP_OK, body, etag);
+    }
+
+    private static HttpTransport.Response response(int responseCode, String body, String etag) throws IOException
+    {
+        Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        if (etag != null)
+            headers.put("ETag", Arrays.asList(etag));
+        return new HttpTransport.Response(responseCode, "", new URL("http://example.com/board"), "text/plain", null, headers,
+                body != null ? new ByteArrayInputStream(body.getBytes("UTF-8")) : null);
+    }
+
+    private static String read(HttpTransport.Response response) throws IOException
+    {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        InputStream is = response.body;
+        try {
+            byte[] buffer = new byte[64];
+            int read;
+            while ((read = is.read(buffer)) != -1)
+                os.write(buffer, 0, read);
+        } finally {
+            is.close();
+        }
+        return os.toString("UTF-8");
+    }
+
+
+    /**
+     * Answers each request with the next queued response and remembers the
+     * request.
+     */
+    private static class ScriptedTransport implements HttpTransport {
+        final LinkedList<Response> responses = new LinkedList<Response>();
+        Request lastRequest;
+
+        void answer(Response response)
+        {
+            responses.add(response);
+        }
+
+        @Override
+        public Response execute(Request request)
+        {
+            lastRequest = request;
+            return responses.removeFirst();
+        }
+    }
+}
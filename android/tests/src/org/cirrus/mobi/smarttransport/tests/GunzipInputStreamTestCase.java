@@ -0,0 +1,182 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport.tests;
+
+
+
+import android.test.AndroidTestCase;
+import de.schildbach.pte.util.GunzipInputStream;
+import junit.framework.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+
+
+public class GunzipInputStreamTestCase extends AndroidTestCase {
+
+    public void testSingleMember() throws Exception
+    {
+        byte[] data = text(10000);
+        Assert.assertTrue(Arrays.equals(data, gunzip(gzip(data))));
+    }
+
+    public void testMembersAreConcatenated() throws Exception
+    {
+        byte[] first = text(5000);
+        byte[] second = "second member".getBytes("UTF-8");
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(gzip(first));
+        os.write(gzip(second));
+        os.write(gzip(new byte[0]));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(first);
+        expected.write(second);
+        Assert.assertTrue(Arrays.equals(expected.toByteArray(), gunzip(os.toByteArray())));
+    }
+
+    public void testMembersAcrossSmallReads() throws Exception
+    {
+        byte[] data = text(3000);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(gzip(data));
+        os.write(gzip(data));
+
+        //the next member starts in the middle of what the inflater buffered
+        InputStream is = new GunzipInputStream(new TrickleInputStream(os.toByteArray(), 7));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = is.read()) != -1)
+            out.write(b);
+        is.close();
+        Assert.assertEquals(2 * data.length, out.size());
+    }
+
+    public void testTrailingGarbageIsIgnored() throws Exception
+    {
+        byte[] data = text(100);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(gzip(data));
+        os.write(new byte[] { 0, 0, 0 });
+        Assert.assertTrue(Arrays.equals(data, gunzip(os.toByteArray())));
+    }
+
+    public void testTruncatedTrailer() throws Exception
+    {
+        byte[] gzipped = gzip(text(1000));
+        try {
+            gunzip(Arrays.copyOf(gzipped, gzipped.length - 3));
+            Assert.fail("truncated trailer not detected");
+        } catch (IOException e) {
+            //expected
+        }
+    }
+
+    public void testTruncatedData() throws Exception
+    {
+        byte[] gzipped = gzip(text(1000));
+        try {
+            gunzip(Arrays.copyOf(gzipped, gzipped.length / 2));
+            Assert.fail("truncated data not detected");
+        } catch (IOException e) {
+            //expected
+        }
+    }
+
+    public void testTruncatedHeader() throws Exception
+    {
+        try {
+            gunzip(new byte[] { 0x1f, (byte) 0x8b, 8 });
+            Assert.fail("truncated header not detected");
+        } catch (IOException e) {
+            //expected
+        }
+    }
+
+    public void testCorruptTrailer() throws Exception
+    {
+        byte[] gzipped = gzip(text(1000));
+        gzipped[gzipped.length - 8] ^= 1;
+        try {
+            gunzip(gzipped);
+            Assert.fail("corrupt crc not detected");
+        } catch (ZipException e) {
+            //expected
+        }
+    }
+
+
+    private static byte[] text(int length)
+    {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; text.length() < length; i++)
+            text.append("departure ").append(i).append('\n');
+        text.setLength(length);
+        return text.toString().getBytes();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException
+    {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        GZIPOutputStream gos = new GZIPOutputStream(os);
+        gos.write(data);
+        gos.close();
+        return os.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException
+    {
+        InputStream is = new GunzipInputStream(new ByteArrayInputStream(data));
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[512];
+            int read;
+            while ((read = is.read(buffer)) != -1)
+                os.write(buffer, 0, read);
+            return os.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+
+    /**
+     * Hands out at most a few bytes per read, like a slow connection.
+     */
+    private static class TrickleInputStream extends ByteArrayInputStream {
+        private final int chunk;
+
+        TrickleInputStream(byte[] data, int chunk)
+        {
+            super(data);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public synchronized int read(byte[] buffer, int offset, int count)
+        {
+            return super.read(buffer, offset, Math.min(count, chunk));
+        }
+    }
+}
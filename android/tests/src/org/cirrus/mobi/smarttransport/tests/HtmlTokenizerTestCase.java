@@ -0,0 +1,142 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport.tests;
+
+
+
+import android.test.AndroidTestCase;
+import de.schildbach.pte.util.HtmlTokenizer;
+import junit.framework.Assert;
+
+
+
+public class HtmlTokenizerTestCase extends AndroidTestCase {
+
+    public void testUnterminatedComment() throws Exception
+    {
+        HtmlTokenizer t = new HtmlTokenizer("before<!-- never closed <td>x</td>");
+        Assert.assertEquals(HtmlTokenizer.TEXT, t.next());
+        Assert.assertEquals("before", t.getText().toString());
+        //the comment swallows the rest of the page
+        assertEnd(t);
+    }
+
+    public void testCommentsAndDoctypeAreSkipped() throws Exception
+    {
+        HtmlTokenizer t = new HtmlTokenizer("<!DOCTYPE html><!-- a > b --><?xml x?><p>");
+        Assert.assertEquals(HtmlTokenizer.START_TAG, t.next());
+        Assert.assertEquals("p", t.getName());
+        assertEnd(t);
+    }
+
+    public void testUnterminatedStartTag() throws Exception
+    {
+        HtmlTokenizer t = new HtmlTokenizer("<TD class='dep' colspan=2");
+        Assert.assertEquals(HtmlTokenizer.START_TAG, t.next());
+        Assert.assertEquals("td", t.getName());
+        Assert.assertEquals("dep", t.getAttribute("class"));
+        Assert.assertEquals("2", t.getAttribute("colspan"));
+        assertEnd(t);
+    }
+
+    public void testUnterminatedAttributeValue() throws Exception
+    {
+        HtmlTokenizer t = new HtmlTokenizer("<a href=\"/board?id=1>Zoo</a>");
+        Assert.assertEquals(HtmlTokenizer.START_TAG, t.next());
+        Assert.assertEquals("/board?id=1>Zoo</a>", t.getAttribute("href"));
+        assertEnd(t);
+    }
+
+    public void testUnterminatedEndTag() throws Exception
+    {
+        HtmlTokenizer t = new HtmlTokenizer("<b>x</b");
+        Assert.assertEquals(HtmlTokenizer.START_TAG, t.next());
+        Assert.assertEquals(HtmlTokenizer.TEXT, t.next());
+        Assert.assertEquals(HtmlTokenizer.END_TAG, t.next());
+        Assert.assertEquals("b", t.getName());
+        assertEnd(t);
+    }
+
+    public void testLoneLessThanIsText() throws Exception
+    {
+        HtmlTokenizer t = new HtmlTokenizer("a < b <= c <");
+        Assert.assertEquals(HtmlTokenizer.TEXT, t.next());
+        Assert.assertEquals("a < b <= c <", t.getText().toString());
+        assertEnd(t);
+    }
+
+    public void testScriptIsText() throws Exception
+    {
+        HtmlTokenizer t = new HtmlTokenizer("<script>if (a<b) x = '</p>';</SCRIPT><p>");
+        Assert.assertEquals(HtmlTokenizer.START_TAG, t.next());
+        Assert.assertEquals(HtmlTokenizer.TEXT, t.next());
+        Assert.assertEquals("if (a<b) x = '</p>';", t.getText().toString());
+        Assert.assertEquals(HtmlTokenizer.END_TAG, t.next());
+        Assert.assertEquals("script", t.getName());
+        Assert.assertEquals(HtmlTokenizer.START_TAG, t.next());
+        Assert.assertEquals("p", t.getName());
+    }
+
+    public void testUnclosedRowsAndCells() throws Exception
+    {
+        HtmlTokenizer t = new HtmlTokenizer("<table><tr class=\"odd\"><td>1<td><a href=\"/x\">2</a><tr><td>3</table><tr><td>4");
+
+        HtmlTokenizer.Row row = t.nextRow();
+        Assert.assertEquals("odd", row.className);
+        Assert.assertEquals(2, row.cells.size());
+        Assert.assertEquals("1", row.cells.get(0).text);
+        Assert.assertEquals("2", row.cells.get(1).text);
+        Assert.assertEquals("/x", row.cells.get(1).links.get(0).href);
+
+        row = t.nextRow();
+        Assert.assertEquals(1, row.cells.size());
+        Assert.assertEquals("3", row.cells.get(0).text);
+
+        //the page ends inside the row
+        row = t.nextRow();
+        Assert.assertEquals(1, row.cells.size());
+        Assert.assertEquals("4", row.cells.get(0).text);
+
+        Assert.assertNull(t.nextRow());
+    }
+
+    public void testRowEndsInsideComment() throws Exception
+    {
+        HtmlTokenizer t = new HtmlTokenizer("<tr><td>1</td><!-- <td>2</td></tr>");
+        HtmlTokenizer.Row row = t.nextRow();
+        Assert.assertEquals(1, row.cells.size());
+        Assert.assertEquals("1", row.cells.get(0).text);
+        Assert.assertNull(t.nextRow());
+    }
+
+    public void testElementTextOfUnclosedElement() throws Exception
+    {
+        HtmlTokenizer t = new HtmlTokenizer("<div class=\"msg\">Keine <b>Abfahrten</b> gefunden");
+        Assert.assertTrue(t.skipToStartTag("div", "msg"));
+        Assert.assertEquals("Keine Abfahrten gefunden", t.elementText());
+        assertEnd(t);
+    }
+
+
+    private static void assertEnd(HtmlTokenizer t)
+    {
+        Assert.assertEquals(HtmlTokenizer.END_DOCUMENT, t.next());
+        //stays at the end
+        Assert.assertEquals(HtmlTokenizer.END_DOCUMENT, t.next());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport.tests;
+
+
+
+import android.test.AndroidTestCase;
+import de.schildbach.pte.util.LittleEndianBuffer;
+import junit.framework.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+
+
+
+public class LittleEndianBufferTestCase extends AndroidTestCase {
+
+    public void testShortReads() throws Exception
+    {
+        byte[] data = payload(5000);
+        TrickleInputStream is = new TrickleInputStream(data, 3);
+        LittleEndianBuffer buffer = LittleEndianBuffer.readFully(is, 100);
+
+        Assert.assertEquals(data.length, buffer.length());
+        for (int i = 0; i < data.length; i++)
+            Assert.assertEquals("byte " + i, data[i] & 0xff, buffer.read());
+        Assert.assertFalse("stream was closed", is.closed);
+    }
+
+    public void testPayloadOfExactCapacity() throws Exception
+    {
+        byte[] data = payload(1024);
+        LittleEndianBuffer buffer = LittleEndianBuffer.readFully(new TrickleInputStream(data, 1024), 1024);
+        Assert.assertEquals(1024, buffer.length());
+        Assert.assertEquals(data[1023] & 0xff, buffer.getShortReverse(1022) >> 8);
+    }
+
+    public void testEmptyStream() throws Exception
+    {
+        LittleEndianBuffer buffer = LittleEndianBuffer.readFully(new TrickleInputStream(new byte[0], 1), 0);
+        Assert.assertEquals(0, buffer.length());
+        try {
+            buffer.read();
+            Assert.fail("read beyond the payload");
+        } catch (BufferUnderflowException e) {
+            //expected
+        }
+    }
+
+    public void testLittleEndianValues() throws Exception
+    {
+        byte[] data = { 0x34, 0x12, (byte) 0xfe, (byte) 0xff, 0x78, 0x56, 0x34, 0x12 };
+        LittleEndianBuffer buffer = LittleEndianBuffer.readFully(new TrickleInputStream(data, 1), 0);
+
+        Assert.assertEquals(0x1234, buffer.readShortReverse());
+        Assert.assertEquals(0xfffe, buffer.readShortReverse());
+        Assert.assertEquals(0x12345678, buffer.readIntReverse());
+        Assert.assertEquals(data.length, buffer.position());
+
+        //absolute reads leave the position alone
+        buffer.position(2);
+        Assert.assertEquals(0x1234, buffer.getShortReverse(0));
+        Assert.assertEquals(0x12345678, buffer.getIntReverse(4));
+        Assert.assertEquals(2, buffer.position());
+        buffer.skipBytes(2);
+        Assert.assertEquals(0x78, buffer.read());
+    }
+
+    public void testReadBeyondPayload() throws Exception
+    {
+        LittleEndianBuffer buffer = LittleEndianBuffer.readFully(new TrickleInputStream(new byte[] { 1, 2, 3 }, 2), 0);
+        buffer.position(2);
+        try {
+            buffer.readShortReverse();
+            Assert.fail("read beyond the payload");
+        } catch (BufferUnderflowException e) {
+            //expected
+        }
+    }
+
+    public void testStrings() throws Exception
+    {
+        byte[] data = "Alexanderplatz\0Zoo".getBytes("ISO-8859-1");
+        LittleEndianBuffer buffer = LittleEndianBuffer.readFully(new TrickleInputStream(data, 4), 0);
+
+        Assert.assertEquals("Alexanderplatz", buffer.getString(0, data.length, "ISO-8859-1"));
+        //the last string is not terminated, it ends with the payload
+        Assert.assertEquals("Zoo", buffer.getString(15, Integer.MAX_VALUE, "ISO-8859-1"));
+        Assert.assertEquals("Alex", buffer.getString(0, 4, "ISO-8859-1"));
+    }
+
+
+    private static byte[] payload(int length)
+    {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (i * 31);
+        return data;
+    }
+
+
+    /**
+     * Hands out at most a few bytes per read, like a slow connection.
+     */
+    private static class TrickleInputStream extends ByteArrayInputStream {
+        private final int chunk;
+        boolean closed = false;
+
+        TrickleInputStream(byte[] data, int chunk)
+        {
+            super(data);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public synchronized int read(byte[] buffer, int offset, int count)
+        {
+            return super.read(buffer, offset, Math.min(count, chunk));
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            closed = true;
+            super.close();
+        }
+    }
+}
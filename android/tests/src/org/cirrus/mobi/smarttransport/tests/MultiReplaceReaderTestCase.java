@@ -0,0 +1,168 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport.tests;
+
+
+
+import android.test.AndroidTestCase;
+import de.schildbach.pte.util.MultiReplaceReader;
+import junit.framework.Assert;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Random;
+
+
+
+public class MultiReplaceReaderTestCase extends AndroidTestCase {
+
+    private static final String[][] ENTITIES = {
+        { "&amp;", "&" }, { "&lt;", "<" }, { "&gt;", ">" }, { "&nbsp;", " " }, { "&amp;nbsp;", " " }
+    };
+
+    public void testLeftmostLongestMatch() throws Exception
+    {
+        String[][] patterns = { { "bc", "1" }, { "abc", "2" }, { "abcd", "3" }, { "cde", "4" } };
+        Assert.assertEquals("x3e", replace("xabcde", patterns, 0));
+        Assert.assertEquals("x2", replace("xabc", patterns, 0));
+        Assert.assertEquals("x1", replace("xbc", patterns, 0));
+    }
+
+    public void testReplacementIsNotScannedAgain() throws Exception
+    {
+        String[][] patterns = { { "a", "b" }, { "b", "c" } };
+        Assert.assertEquals("bcbc", replace("abab", patterns, 0));
+    }
+
+    public void testMatchAcrossBufferBoundary() throws Exception
+    {
+        //the window holds at least 1024 chars, put the pattern on every offset around its end
+        for (int offset = 1000; offset < 1040; offset++) {
+            StringBuilder input = new StringBuilder();
+            for (int i = 0; i < offset; i++)
+                input.append('x');
+            input.append("a&amp;nbsp;b&lt;");
+            for (int i = 0; i < 1100; i++)
+                input.append('y');
+            input.append("&gt");
+
+            String expected = reference(input.toString(), ENTITIES);
+            Assert.assertEquals("offset " + offset, expected, replace(input.toString(), ENTITIES, 0));
+            Assert.assertEquals("offset " + offset + ", 3 chars per read", expected, replace(input.toString(), ENTITIES, 3));
+        }
+    }
+
+    public void testRandomInputInSmallReads() throws Exception
+    {
+        Random random = new Random(42);
+        String alphabet = "&amplgtnbs;x";
+        for (int round = 0; round < 200; round++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(3000);
+            for (int i = 0; i < length; i++) {
+                if (random.nextInt(10) == 0)
+                    input.append(ENTITIES[random.nextInt(ENTITIES.length)][0]);
+                else
+                    input.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+
+            String expected = reference(input.toString(), ENTITIES);
+            int chunk = 1 + random.nextInt(7);
+            Assert.assertEquals("round " + round, expected, replace(input.toString(), ENTITIES, chunk));
+        }
+    }
+
+    public void testSingleCharReads() throws Exception
+    {
+        MultiReplaceReader reader = reader("a&lt;b&amp;nbsp;", ENTITIES, 2);
+        StringBuilder out = new StringBuilder();
+        int c;
+        while ((c = reader.read()) != -1)
+            out.append((char) c);
+        Assert.assertEquals("a<b ", out.toString());
+    }
+
+
+    private static MultiReplaceReader reader(String input, String[][] patterns, int chunk)
+    {
+        Reader in = chunk > 0 ? new TrickleReader(input, chunk) : new StringReader(input);
+        MultiReplaceReader reader = new MultiReplaceReader(in);
+        for (String[] pattern : patterns)
+            reader.replace(pattern[0], pattern[1]);
+        return reader;
+    }
+
+    /**
+     * @param chunk chars handed out per read of the input, or 0 for as many as asked
+     */
+    private static String replace(String input, String[][] patterns, int chunk) throws IOException
+    {
+        Reader reader = reader(input, patterns, chunk);
+        StringBuilder out = new StringBuilder();
+        char[] buffer = new char[100];
+        int read;
+        while ((read = reader.read(buffer, 0, buffer.length)) != -1)
+            out.append(buffer, 0, read);
+        reader.close();
+        return out.toString();
+    }
+
+    /**
+     * Straightforward leftmost longest replacement.
+     */
+    private static String reference(String input, String[][] patterns)
+    {
+        StringBuilder out = new StringBuilder();
+        int i = 0;
+        while (i < input.length()) {
+            String[] longest = null;
+            for (String[] pattern : patterns) {
+                if (input.startsWith(pattern[0], i) && (longest == null || pattern[0].length() > longest[0].length()))
+                    longest = pattern;
+            }
+            if (longest != null) {
+                out.append(longest[1]);
+                i += longest[0].length();
+            } else {
+                out.append(input.charAt(i++));
+            }
+        }
+        return out.toString();
+    }
+
+
+    /**
+     * Hands out at most a few chars per read, like a slow connection.
+     */
+    private static class TrickleReader extends StringReader {
+        private final int chunk;
+
+        TrickleReader(String input, int chunk)
+        {
+            super(input);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int count) throws IOException
+        {
+            return super.read(buffer, offset, Math.min(count, chunk));
+        }
+    }
+}
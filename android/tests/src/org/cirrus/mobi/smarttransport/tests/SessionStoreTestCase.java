@@ -0,0 +1,129 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport.tests;
+
+
+
+import android.test.AndroidTestCase;
+import de.schildbach.pte.util.HttpTransport;
+import de.schildbach.pte.util.ParserUtils;
+import de.schildbach.pte.util.SessionStore;
+import junit.framework.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+
+public class SessionStoreTestCase extends AndroidTestCase {
+
+    private static final String COOKIE_NAME = "JSESSIONID";
+
+    private HttpTransport previousTransport;
+    private CookieServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        previousTransport = ParserUtils.getTransport();
+        server = new CookieServer();
+        ParserUtils.setTransport(server);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ParserUtils.setTransport(previousTransport);
+        super.tearDown();
+    }
+
+    public void testOneCookieForAllHosts() throws Exception
+    {
+        SessionStore store = new SessionStore();
+        store.remember(new URL("http://a.example.com/x"), "JSESSIONID=1");
+        Assert.assertEquals("JSESSIONID=1", store.cookie(new URL("http://b.example.com/y")));
+
+        store.clear();
+        Assert.assertNull(store.cookie(new URL("http://a.example.com/x")));
+    }
+
+    public void testCookiePerHost() throws Exception
+    {
+        SessionStore store = new SessionStore(true);
+        store.remember(new URL("http://a.example.com/x"), "JSESSIONID=1");
+        store.remember(new URL("http://b.example.com/x"), "JSESSIONID=2");
+        Assert.assertEquals("JSESSIONID=1", store.cookie(new URL("http://a.example.com/other")));
+        Assert.assertEquals("JSESSIONID=2", store.cookie(new URL("http://b.example.com/x")));
+        Assert.assertNull(store.cookie(new URL("http://c.example.com/x")));
+    }
+
+    public void testScrapeSendsCookieOfItsOwnStore() throws Exception
+    {
+        SessionStore first = new SessionStore();
+        SessionStore second = new SessionStore();
+
+        //the first response of each provider sets its session
+        server.setCookie = "JSESSIONID=first; Path=/; HttpOnly";
+        ParserUtils.scrape("http://a.example.com/query", null, null, COOKIE_NAME, first, 0);
+        Assert.assertNull(server.lastCookie);
+        server.setCookie = "JSESSIONID=second";
+        ParserUtils.scrape("http://b.example.com/query", null, null, COOKIE_NAME, second, 0);
+        Assert.assertNull(server.lastCookie);
+
+        //attributes are dropped, the providers do not see each other's session
+        server.setCookie = null;
+        ParserUtils.scrape("http://a.example.com/query", null, null, COOKIE_NAME, first, 0);
+        Assert.assertEquals("JSESSIONID=first", server.lastCookie);
+        ParserUtils.scrape("http://b.example.com/query", null, null, COOKIE_NAME, second, 0);
+        Assert.assertEquals("JSESSIONID=second", server.lastCookie);
+    }
+
+    public void testOtherCookiesAreIgnored() throws Exception
+    {
+        SessionStore store = new SessionStore();
+        server.setCookie = "tracking=1";
+        ParserUtils.scrape("http://a.example.com/query", null, null, COOKIE_NAME, store, 0);
+        Assert.assertNull(store.cookie(new URL("http://a.example.com/query")));
+    }
+
+
+    /**
+     * Answers every request with a small page, optionally setting a cookie,
+     * and remembers the cookie that came with the request.
+     */
+    private static class CookieServer implements HttpTransport {
+        String setCookie;
+        String lastCookie;
+
+        @Override
+        public Response execute(Request request) throws IOException
+        {
+            lastCookie = request.headers.get("Cookie");
+            Map<String, List<String>> headers = new HashMap<String, List<String>>();
+            if (setCookie != null)
+                headers.put("Set-Cookie", Arrays.asList(setCookie));
+            return new Response(HttpURLConnection.HTTP_OK, "OK", request.url, "text/html", null, headers,
+                    new ByteArrayInputStream("<html>departures</html>".getBytes("ISO-8859-1")));
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport.tests;
+
+
+
+import android.test.AndroidTestCase;
+import de.schildbach.pte.*;
+import de.schildbach.pte.dto.*;
+import junit.framework.Assert;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+
+public class SingleFlightNetworkProviderTestCase extends AndroidTestCase {
+
+    private static final int STATION_ID = 1;
+    private static final int BOARD_SIZE = 10;
+    private static final int UPCOMING_LIMIT = 6;
+
+    private BlockingProvider provider;
+    private SingleFlightNetworkProvider singleFlight;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        provider = new BlockingProvider();
+        singleFlight = new SingleFlightNetworkProvider(provider);
+    }
+
+    public void testFullBoardDoesNotJoinLimitedQuery() throws Exception
+    {
+        QueryThread limited = new QueryThread(UPCOMING_LIMIT);
+        limited.start();
+        Assert.assertTrue("limited query did not start", provider.started.tryAcquire(5, TimeUnit.SECONDS));
+
+        //overlaps the limited query, which is still reading the board
+        QueryThread full = new QueryThread(0);
+        full.start();
+        Assert.assertTrue("full board query was merged into the limited one", provider.started.tryAcquire(5, TimeUnit.SECONDS));
+
+        provider.release.countDown();
+        limited.join(5000);
+        full.join(5000);
+
+        Assert.assertEquals(UPCOMING_LIMIT, limited.departures());
+        Assert.assertEquals(BOARD_SIZE, full.departures());
+        Assert.assertEquals(BOARD_SIZE, full.received);
+        Assert.assertEquals(0, singleFlight.mergedCalls());
+    }
+
+    public void testSameLimitIsMerged() throws Exception
+    {
+        QueryThread first = new QueryThread(UPCOMING_LIMIT);
+        first.start();
+        Assert.assertTrue("first query did not start", provider.started.tryAcquire(5, TimeUnit.SECONDS));
+
+        QueryThread second = new QueryThread(UPCOMING_LIMIT);
+        second.start();
+        long timeout = System.currentTimeMillis() + 5000;
+        while (singleFlight.mergedCalls() == 0 && System.currentTimeMillis() < timeout)
+            Thread.sleep(10);
+
+        provider.release.countDown();
+        first.join(5000);
+        second.join(5000);
+
+        Assert.assertEquals(1, singleFlight.mergedCalls());
+        Assert.assertEquals(1, provider.queries.get());
+        Assert.assertEquals(UPCOMING_LIMIT, second.departures());
+        Assert.assertEquals(UPCOMING_LIMIT, second.received);
+    }
+
+
+    /**
+     * Streaming query of one station with a listener that stops at the limit.
+     */
+    private class QueryThread extends Thread {
+        private final int limit;
+        private volatile QueryDeparturesResult result;
+        private volatile int received = 0;
+
+        QueryThread(int limit)
+        {
+            this.limit = limit;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result = singleFlight.queryDepartures(STATION_ID, 0, false, limit, new NetworkProvider.DeparturesListener() {
+                    @Override
+                    public boolean departure(Location station, Departure departure) {
+                        received++;
+                        return limit == 0 || received < limit;
+                    }
+                });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        int departures()
+        {
+            Assert.assertNotNull("query did not finish", result);
+            return result.stationDepartures.get(0).departures.size();
+        }
+    }
+
+
+    /**
+     * Streams a board of {@link #BOARD_SIZE} departures once released, and
+     * stops where the listener says so.
+     */
+    private static class BlockingProvider extends AbstractNetworkProvider {
+        final Semaphore started = new Semaphore(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger queries = new AtomicInteger();
+
+        @Override
+        public QueryDeparturesResult queryDepartures(int stationId, int maxDepartures, boolean equivs, DeparturesListener listener) throws IOException
+        {
+            queries.incrementAndGet();
+            started.release();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted");
+            }
+
+            Location station = new Location(LocationType.STATION, stationId, null, "Station " + stationId);
+            List<Departure> departures = new ArrayList<Departure>();
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < BOARD_SIZE; i++) {
+                Departure departure = new Departure(new Date(now + (i + 1) * 60000), null, new Line("B1", "B1", null), null, station, null, null);
+                departures.add(departure);
+                if (listener != null && !listener.departure(station, departure))
+                    break;
+            }
+
+            QueryDeparturesResult result = new QueryDeparturesResult(null);
+            result.stationDepartures.add(new StationDepartures(station, departures, Collections.<LineDestination>emptyList()));
+            return result;
+        }
+
+        @Override
+        public QueryDeparturesResult queryDepartures(int stationId, int maxDepartures, boolean equivs) throws IOException
+        {
+            return queryDepartures(stationId, maxDepartures, equivs, null);
+        }
+
+        @Override
+        public NetworkId id()
+        {
+            return NetworkId.BVG;
+        }
+
+        @Override
+        public boolean hasCapabilities(Capability... capabilities)
+        {
+            return true;
+        }
+
+        @Override
+        public NearbyStationsResult queryNearbyStations(Location location, int maxDistance, int maxStations)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Location> autocompleteStations(CharSequence constraint)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public QueryTripsResult queryTrips(Location from, Location via, Location to, Date date, boolean dep, int numTrips,
+                Collection<Product> products, WalkSpeed walkSpeed, Accessibility accessibility, Set<Option> options)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public QueryTripsResult queryMoreTrips(QueryTripsContext context, boolean later, int numTrips)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Point[] getArea()
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * This file is part of SmartTransport
+ *
+ * SmartTransport is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SmartTransport is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SmartTransport.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dlka.android.apps.smarttransport.tests;
+
+
+
+import android.test.AndroidTestCase;
+import de.schildbach.pte.util.XmlPullParserPool;
+import junit.framework.Assert;
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.Set;
+
+
+
+public class XmlPullParserPoolTestCase extends AndroidTestCase {
+
+    public void testParserIsReusedOnSameThread() throws Exception
+    {
+        XmlPullParser pp = XmlPullParserPool.obtain();
+        XmlPullParserPool.recycle(pp);
+        Assert.assertSame(pp, XmlPullParserPool.obtain());
+        XmlPullParserPool.recycle(pp);
+    }
+
+    public void testNestedParsesGetOwnParser() throws Exception
+    {
+        XmlPullParser outer = XmlPullParserPool.obtain();
+        XmlPullParser inner = XmlPullParserPool.obtain();
+        Assert.assertNotSame(outer, inner);
+        XmlPullParserPool.recycle(inner);
+        XmlPullParserPool.recycle(outer);
+    }
+
+    public void testRecycleTwiceIsHarmless() throws Exception
+    {
+        XmlPullParser pp = XmlPullParserPool.obtain();
+        XmlPullParserPool.recycle(pp);
+        XmlPullParserPool.recycle(pp);
+        XmlPullParserPool.recycle(null);
+
+        //the same parser must not be handed out twice
+        XmlPullParser first = XmlPullParserPool.obtain();
+        XmlPullParser second = XmlPullParserPool.obtain();
+        Assert.assertNotSame(first, second);
+        XmlPullParserPool.recycle(second);
+        XmlPullParserPool.recycle(first);
+    }
+
+    public void testPoolIsBounded() throws Exception
+    {
+        Set<XmlPullParser> obtained = new HashSet<XmlPullParser>();
+        XmlPullParser[] parsers = new XmlPullParser[5];
+        for (int i = 0; i < parsers.length; i++)
+            parsers[i] = XmlPullParserPool.obtain();
+        for (XmlPullParser pp : parsers)
+            XmlPullParserPool.recycle(pp);
+        for (int i = 0; i < parsers.length; i++)
+            obtained.add(XmlPullParserPool.obtain());
+
+        //only a few are kept, the rest are new
+        int reused = 0;
+        for (XmlPullParser pp : parsers)
+            if (obtained.contains(pp))
+                reused++;
+        Assert.assertTrue("reused " + reused, reused > 0 && reused < parsers.length);
+        for (XmlPullParser pp : obtained)
+            XmlPullParserPool.recycle(pp);
+    }
+
+    public void testOtherThreadGetsOwnParser() throws Exception
+    {
+        final XmlPullParser pp = XmlPullParserPool.obtain();
+        XmlPullParserPool.recycle(pp);
+
+        final XmlPullParser[] other = new XmlPullParser[1];
+        final Exception[] error = new Exception[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    other[0] = XmlPullParserPool.obtain();
+                    XmlPullParserPool.recycle(other[0]);
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+
+        Assert.assertNull(error[0]);
+        Assert.assertNotNull(other[0]);
+        Assert.assertNotSame(pp, other[0]);
+        //the pool of this thread is untouched
+        Assert.assertSame(pp, XmlPullParserPool.obtain());
+        XmlPullParserPool.recycle(pp);
+    }
+
+    public void testAbandonedDocumentDoesNotLeak() throws Exception
+    {
+        XmlPullParser pp = XmlPullParserPool.obtain();
+        pp.setInput(new StringReader("<itdRequest version=\"1\"><itdOdv usage=\"origin\"><odvPlace>"));
+        Assert.assertEquals(XmlPullParser.START_TAG, pp.nextTag());
+        Assert.assertEquals(XmlPullParser.START_TAG, pp.nextTag());
+        Assert.assertEquals(2, pp.getDepth());
+        //an error in the middle of the document, the parser goes back unfinished
+        XmlPullParserPool.recycle(pp);
+
+        XmlPullParser reused = XmlPullParserPool.obtain();
+        Assert.assertSame(pp, reused);
+        reused.setInput(new StringReader("<ResC><Err code=\"OK\"/></ResC>"));
+        Assert.assertEquals(XmlPullParser.START_DOCUMENT, reused.getEventType());
+        Assert.assertEquals(XmlPullParser.START_TAG, reused.nextTag());
+        Assert.assertEquals("ResC", reused.getName());
+        Assert.assertEquals(1, reused.getDepth());
+        Assert.assertEquals(0, reused.getAttributeCount());
+        Assert.assertEquals(XmlPullParser.START_TAG, reused.nextTag());
+        Assert.assertEquals("Err", reused.getName());
+        Assert.assertEquals("OK", reused.getAttributeValue(null, "code"));
+        Assert.assertEquals(XmlPullParser.END_TAG, reused.nextTag());
+        Assert.assertEquals(XmlPullParser.END_TAG, reused.nextTag());
+        Assert.assertEquals("ResC", reused.getName());
+        Assert.assertEquals(XmlPullParser.END_DOCUMENT, reused.next());
+        XmlPullParserPool.recycle(reused);
+    }
+}
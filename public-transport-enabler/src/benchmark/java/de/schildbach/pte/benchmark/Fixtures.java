@@ -0,0 +1,56 @@
+/*
+ * Copyright 2010-2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.benchmark;
+
+import java.io.File;
+
+import de.schildbach.pte.util.HttpUrlConnectionTransport;
+import de.schildbach.pte.util.ParserUtils;
+import de.schildbach.pte.util.RecordingTransport;
+import de.schildbach.pte.util.ReplayTransport;
+
+/**
+ * Server responses for the benchmarks. By default requests are answered by {@link SyntheticTransport}. With
+ * {@code -Dpte.fixtures=<directory>} they are answered from responses recorded to that directory, with
+ * {@code -Dpte.record=true} in addition they go to the live servers and the responses are written to it.
+ */
+public final class Fixtures
+{
+	public static final String DIRECTORY_PROPERTY = "pte.fixtures";
+	public static final String RECORD_PROPERTY = "pte.record";
+	private static final String DEFAULT_DIRECTORY = "src/benchmark/fixtures";
+
+	private static final SyntheticTransport SYNTHETIC_TRANSPORT = new SyntheticTransport();
+
+	public static synchronized void install()
+	{
+		final String directory = System.getProperty(DIRECTORY_PROPERTY);
+
+		if (Boolean.getBoolean(RECORD_PROPERTY))
+			ParserUtils.setTransport(new RecordingTransport(new HttpUrlConnectionTransport(), new File(directory != null ? directory
+					: DEFAULT_DIRECTORY)));
+		else if (directory != null)
+			ParserUtils.setTransport(new ReplayTransport(new File(directory)));
+		else
+			ParserUtils.setTransport(SYNTHETIC_TRANSPORT);
+	}
+
+	private Fixtures()
+	{
+	}
+}
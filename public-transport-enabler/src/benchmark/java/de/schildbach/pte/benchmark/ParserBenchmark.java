@@ -0,0 +1,145 @@
+/*
+ * Copyright 2010-2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.benchmark;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.schildbach.pte.BvgProvider;
+import de.schildbach.pte.NetworkProvider;
+import de.schildbach.pte.NetworkProvider.Accessibility;
+import de.schildbach.pte.NetworkProvider.WalkSpeed;
+import de.schildbach.pte.NvvProvider;
+import de.schildbach.pte.VrrProvider;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsResult;
+
+/**
+ * Feeds generated or recorded responses (see {@link Fixtures}) into the parsers that run for every departure board and trip.
+ * Throughput is reported in operations per millisecond, sample time gives the latency percentiles, run with
+ * {@code -prof gc} for the allocation rate.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ParserBenchmark
+{
+	// the requests recordings have to be made for, generated responses are built for any station
+	private static final int EFA_STATION_ID = 20018235;
+	private static final int HAFAS_STATION_ID = 2200007;
+	private static final int BVG_LIVE_STATION_ID = 309557;
+	private static final Location BVG_TRIP_FROM = new Location(LocationType.STATION, 9100003);
+	private static final Location BVG_TRIP_TO = new Location(LocationType.STATION, 9056102);
+	// the trip date is part of the request, it has to stay fixed for replay
+	private static final Date BVG_TRIP_DATE = new Date(1391256000000L);
+	private static final int MAX_DEPARTURES = 15;
+
+	@State(Scope.Benchmark)
+	public static class EfaDepartures
+	{
+		NetworkProvider provider;
+
+		@Setup
+		public void setup()
+		{
+			provider = new VrrProvider();
+			Fixtures.install();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class HafasXmlDepartures
+	{
+		NetworkProvider provider;
+
+		@Setup
+		public void setup()
+		{
+			provider = new NvvProvider();
+			Fixtures.install();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class HafasBinaryTrips
+	{
+		NetworkProvider provider;
+
+		@Setup
+		public void setup()
+		{
+			provider = new BvgProvider(null);
+			Fixtures.install();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class BvgLiveDepartures
+	{
+		NetworkProvider provider;
+
+		@Setup
+		public void setup()
+		{
+			provider = new BvgProvider(null);
+			Fixtures.install();
+		}
+	}
+
+	@Benchmark
+	public QueryDeparturesResult efaQueryDepartures(final EfaDepartures state) throws IOException
+	{
+		return state.provider.queryDepartures(EFA_STATION_ID, MAX_DEPARTURES, false);
+	}
+
+	@Benchmark
+	public QueryDeparturesResult hafasXmlQueryDepartures(final HafasXmlDepartures state) throws IOException
+	{
+		return state.provider.queryDepartures(HAFAS_STATION_ID, MAX_DEPARTURES, false);
+	}
+
+	@Benchmark
+	public QueryTripsResult hafasQueryTripsBinary(final HafasBinaryTrips state) throws IOException
+	{
+		return state.provider.queryTrips(BVG_TRIP_FROM, null, BVG_TRIP_TO, BVG_TRIP_DATE, true, 4, Product.ALL, WalkSpeed.NORMAL,
+				Accessibility.NEUTRAL, null);
+	}
+
+	@Benchmark
+	public QueryDeparturesResult bvgLiveQueryDepartures(final BvgLiveDepartures state) throws IOException
+	{
+		return state.provider.queryDepartures(BVG_LIVE_STATION_ID, MAX_DEPARTURES, false);
+	}
+}
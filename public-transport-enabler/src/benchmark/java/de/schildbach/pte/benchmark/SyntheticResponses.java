@@ -0,0 +1,514 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Generated server responses, one departure board or trip result per call. Every generator uses the same day,
+ * 2014-02-01 from 12:00, and fixed data, so the output only depends on the arguments.
+ */
+final class SyntheticResponses
+{
+	private static final int EFA_DEPARTURES = 40;
+	private static final int HAFAS_JOURNEYS = 50;
+	private static final int BVG_LIVE_ROWS = 30;
+	private static final int BINARY_TRIPS = 4;
+
+	// motType, line number, train name, destination, destination id
+	private static final String[][] EFA_LINES = { //
+			{ "1", "S1", "S-Bahn", "Dortmund Hbf", "20000131" }, //
+			{ "3", "U79", "Stadtbahn", "Duisburg Meiderich Süd Bf", "20016032" }, //
+			{ "4", "901", "Straßenbahn", "Mülheim Hauptfriedhof", "20009554" }, //
+			{ "5", "SB16", "Schnellbus", "Essen Hbf", "20009289" }, //
+			{ "5", "145", "Bus", "Essen Frohnhausen Breilsort", "20009471" } };
+
+	// product, destination, destination id
+	private static final String[][] HAFAS_LINES = { //
+			{ "RT 4#RT", "Kassel Hbf", "2200007" }, //
+			{ "Tram 3#Tram", "Ihringshäuser Straße", "2200218" }, //
+			{ "Bus 100#Bus", "Baunatal-Großenritte Leipziger Str.", "2200434" }, //
+			{ "RB 38#RB", "Treysa", "2200588" }, //
+			{ "ICE 1597#ICE", "Frankfurt(Main)Hbf", "105733" } };
+
+	// line, destination
+	private static final String[][] BVG_LINES = { //
+			{ "U2", "S+U Pankow (Berlin)" }, //
+			{ "Tram M4", "Zingster Str. (Berlin)" }, //
+			{ "Bus 248", "S+U Hauptbahnhof (Berlin)" }, //
+			{ "S5", "S Strausberg Nord" } };
+
+	private static final String[] DELAYS = { "0", "-", "+ 2", "0", "+ 5", "k.A." };
+
+	private SyntheticResponses()
+	{
+	}
+
+	/**
+	 * @return EFA departure monitor answer for the station with two assigned stops
+	 */
+	static byte[] efaDepartures(final int stationId) throws UnsupportedEncodingException
+	{
+		final int[] stopIds = { stationId, stationId + 1, stationId + 2 };
+		final StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		xml.append("<itdRequest version=\"9.24.18.55\" language=\"de\" lengthUnit=\"METER\" sessionID=\"0\" serverID=\"efa1\"");
+		xml.append(" now=\"2014-02-01T12:00:00\" nowWD=\"7\">");
+		xml.append("<itdDepartureMonitorRequest requestID=\"0\">");
+		xml.append("<itdOdv type=\"stop\" usage=\"dm\" anyObjFilter=\"0\">");
+		xml.append("<itdOdvPlace state=\"identified\" method=\"itp\"><odvPlaceElem omc=\"5113000\" placeID=\"20\">Essen</odvPlaceElem>");
+		xml.append("</itdOdvPlace>");
+		xml.append("<itdOdvName state=\"identified\" method=\"itp\"><odvNameElem x=\"7013900.00000\" y=\"51451200.00000\" mapName=\"WGS84\"");
+		xml.append(" id=\"").append(stationId).append("\" stopID=\"").append(stationId).append("\" anyType=\"stop\" locality=\"Essen\"");
+		xml.append(" objectName=\"Hbf\">Hbf</odvNameElem></itdOdvName>");
+		xml.append("<itdOdvAssignedStops>");
+		for (int i = 1; i < stopIds.length; i++)
+		{
+			xml.append("<itdOdvAssignedStop stopID=\"").append(stopIds[i]).append("\" x=\"").append(7013900 + i * 250);
+			xml.append(".00000\" y=\"51451200.00000\" mapName=\"WGS84\" value=\"Essen, Hbf Süd ").append(i);
+			xml.append("\" place=\"Essen\" distanceTime=\"").append(i * 2).append("\">Hbf Süd ").append(i).append("</itdOdvAssignedStop>");
+		}
+		xml.append("</itdOdvAssignedStops>");
+		xml.append("</itdOdv>");
+
+		xml.append("<itdServingLines>");
+		for (int i = 0; i < EFA_LINES.length; i++)
+		{
+			final String[] line = EFA_LINES[i];
+			xml.append("<itdServingLine assignedStopID=\"").append(stopIds[i % stopIds.length]).append('"');
+			appendEfaLineAttributes(xml, line);
+			xml.append('>');
+			appendEfaLineContent(xml, line);
+			xml.append("</itdServingLine>");
+		}
+		xml.append("</itdServingLines>");
+
+		xml.append("<itdDepartureList>");
+		for (int i = 0; i < EFA_DEPARTURES; i++)
+		{
+			final String[] line = EFA_LINES[i % EFA_LINES.length];
+			final int minutes = 12 * 60 + 1 + i * 2;
+			final int delay = i % 3 == 0 ? i % 4 : 0;
+			xml.append("<itdDeparture stopID=\"").append(stopIds[i % stopIds.length]).append("\" x=\"7013900\" y=\"51451200\"");
+			xml.append(" mapName=\"WGS84\" area=\"1\" platform=\"").append(i % 4 + 1).append("\" platformName=\"Bstg. ").append(i % 4 + 1);
+			xml.append("\" stopName=\"Essen Hbf\" countdown=\"").append(i * 2 + 1).append("\">");
+			appendEfaDateTime(xml, "itdDateTime", minutes);
+			if (i % 3 == 0)
+				appendEfaDateTime(xml, "itdRTDateTime", minutes + delay);
+			xml.append("<itdServingLine key=\"").append(i).append("\" realtime=\"").append(i % 3 == 0 ? '1' : '0').append('"');
+			appendEfaLineAttributes(xml, line);
+			xml.append('>');
+			appendEfaLineContent(xml, line);
+			xml.append("</itdServingLine>");
+			xml.append("</itdDeparture>");
+		}
+		xml.append("</itdDepartureList>");
+
+		xml.append("</itdDepartureMonitorRequest>");
+		xml.append("</itdRequest>");
+
+		return xml.toString().getBytes("UTF-8");
+	}
+
+	private static void appendEfaLineAttributes(final StringBuilder xml, final String[] line)
+	{
+		xml.append(" number=\"").append(line[1]).append("\" symbol=\"").append(line[1]).append("\" motType=\"").append(line[0]);
+		xml.append("\" destID=\"").append(line[4]).append("\" direction=\"").append(line[3]).append("\" stateless=\"vrr:").append(line[1]);
+		xml.append(":H:j14\"");
+	}
+
+	private static void appendEfaLineContent(final StringBuilder xml, final String[] line)
+	{
+		xml.append("<itdNoTrain name=\"").append(line[2]).append("\" />");
+		xml.append("<motDivaParams line=\"").append(line[1]).append("\" project=\"j14\" direction=\"H\" supplement=\"\" network=\"vrr\" />");
+	}
+
+	private static void appendEfaDateTime(final StringBuilder xml, final String element, final int minutes)
+	{
+		xml.append('<').append(element).append(">");
+		xml.append("<itdDate year=\"2014\" month=\"2\" day=\"1\" weekday=\"7\" />");
+		xml.append("<itdTime hour=\"").append(minutes / 60).append("\" minute=\"").append(minutes % 60).append("\" />");
+		xml.append("</").append(element).append('>');
+	}
+
+	/**
+	 * @return HAFAS station board in the not quite well-formed XML of the server
+	 */
+	static byte[] hafasStationBoard(final int stationId) throws UnsupportedEncodingException
+	{
+		final StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"iso-8859-1\"?>\n");
+		xml.append("<StationTable>\n");
+		for (int i = 0; i < HAFAS_JOURNEYS; i++)
+		{
+			final String[] line = HAFAS_LINES[i % HAFAS_LINES.length];
+			final int minutes = 12 * 60 + i;
+			xml.append("<Journey fpTime=\"").append(time(minutes)).append("\" fpDate=\"01.02.14\" delay=\"");
+			xml.append(DELAYS[i % DELAYS.length]).append("\" platform=\"").append(i % 8 + 1).append("\" targetLoc=\"").append(line[1]);
+			xml.append("\" prod=\"").append(line[0]).append("\" dir=\"").append(line[1]).append("\" dirnr=\"").append(line[2]);
+			xml.append("\" is_reachable=\"0\"");
+			// servers send markup and bare ampersands in attribute values
+			if (i % 10 == 0)
+				xml.append(" delayReason=\"<b>Bauarbeiten</b> zwischen ").append(line[1]).append(" & Kassel ->\"");
+			xml.append(" />\n");
+		}
+		xml.append("</StationTable>\n");
+
+		return xml.toString().getBytes("ISO-8859-1");
+	}
+
+	/**
+	 * @return BVG live departures page, with messages for some of the lines
+	 */
+	static byte[] bvgLiveDepartures(final int stationId) throws UnsupportedEncodingException
+	{
+		final StringBuilder html = new StringBuilder();
+		html.append("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">\n");
+		html.append("<html><head><title>BVG Fahrinfo</title>\n");
+		html.append("<link rel=\"stylesheet\" type=\"text/css\" href=\"/css/mobil.css\" />\n</head>\n<body>\n");
+		html.append("<div id=\"ivu_overview_input\"><strong>S+U Alexanderplatz Bhf (Berlin)</strong><br />\n");
+		html.append("Datum: 01.02.2014, 12:00<br />\n</div>\n");
+		html.append("<table class=\"ivu_table\"><thead><tr><th>Abfahrt</th><th>Linie</th><th>Ziel</th></tr></thead>\n<tbody>\n");
+		for (int i = 0; i < BVG_LIVE_ROWS; i++)
+		{
+			final String[] line = BVG_LINES[i % BVG_LINES.length];
+			html.append("<tr class=\"ivu_table_bg").append(i % 2 + 1).append("\">\n");
+			html.append("<td class=\"ivu_table_c_dep\">\n").append(time(12 * 60 + 1 + i)).append(i % 4 == 0 ? " *" : "").append("\n</td>\n");
+			html.append("<td class=\"ivu_table_c_line\">\n").append(line[0]).append("\n</td>\n");
+			html.append("<td>\n<img src=\"/images/stop.png\" alt=\"\" />\n<a class=\"catlink\" href=\"/IstAbfahrtzeiten/index/mobil?input=");
+			html.append(stationId).append("&amp;date=01.02.2014\">\n").append(line[1]).append("\n</a>\n</td>\n</tr>\n");
+		}
+		html.append("</tbody></table>\n");
+		html.append("<table class=\"ivu_table\">\n");
+		for (int i = 0; i < 2; i++)
+		{
+			html.append("<tr class=\"ivu_table_bg").append(i + 1).append("\"><td class=\"ivu_table_c_line\">").append(BVG_LINES[i][0]);
+			html.append("</td><td class=\"ivu_table_c_dep\">01.02.2014</td><td>Bauarbeiten &amp; Umleitung,\nbitte ");
+			html.append("Aush&auml;nge beachten</td></tr>\n");
+		}
+		html.append("</table>\n</body></html>\n");
+
+		return html.toString().getBytes("ISO-8859-1");
+	}
+
+	private static String time(final int minutes)
+	{
+		final int minute = minutes % 60;
+		return (minutes / 60) + (minute < 10 ? ":0" : ":") + minute;
+	}
+
+	// name, id, lon, lat of the stations the trips pass
+	private static final Object[][] BINARY_STATIONS = { //
+			{ "S+U Alexanderplatz Bhf (Berlin)", 9100003, 13411267, 52521511 }, //
+			{ "U Klosterstr. (Berlin)", 9100015, 13412947, 52517299 }, //
+			{ "U Märkisches Museum (Berlin)", 9100012, 13410095, 52512095 }, //
+			{ "U Spittelmarkt (Berlin)", 9100013, 13404092, 52511439 }, //
+			{ "U Hausvogteiplatz (Berlin)", 9100014, 13396266, 52513485 }, //
+			{ "U Stadtmitte (Berlin)", 9100011, 13390126, 52510800 }, //
+			{ "U Mohrenstr. (Berlin)", 9100010, 13384850, 52511636 }, //
+			{ "U Potsdamer Platz (Berlin)", 9100020, 13376189, 52509581 }, //
+			{ "U Mendelssohn-Bartholdy-Park (Berlin)", 9017101, 13374741, 52503813 }, //
+			{ "U Gleisdreieck (Berlin)", 9017103, 13374287, 52499587 }, //
+			{ "U Bülowstr. (Berlin)", 9056104, 13362191, 52497617 }, //
+			{ "U Nollendorfplatz (Berlin)", 9056102, 13353880, 52499644 } };
+
+	/**
+	 * @return HAFAS binary trips answer, each trip has two public legs with intermediate stops and a transfer
+	 */
+	static byte[] hafasBinaryTrips()
+	{
+		final LittleEndianWriter strings = new LittleEndianWriter();
+		final Map<String, Integer> stringPointers = new HashMap<String, Integer>();
+		strings.write(0); // pointer 0 is null
+
+		final LittleEndianWriter stations = new LittleEndianWriter();
+		for (final Object[] station : BINARY_STATIONS)
+		{
+			stations.writeShort(string(strings, stringPointers, (String) station[0]));
+			stations.writeInt((Integer) station[1]);
+			stations.writeInt((Integer) station[2]);
+			stations.writeInt((Integer) station[3]);
+		}
+
+		// two entries, none and a wheel chair symbol
+		final LittleEndianWriter comments = new LittleEndianWriter();
+		comments.writeShort(0);
+		final int wheelChairComment = comments.size();
+		comments.writeShort(1);
+		comments.writeShort(string(strings, stringPointers, "bf barrierefrei"));
+
+		final LittleEndianWriter serviceDays = new LittleEndianWriter();
+		serviceDays.writeShort(string(strings, stringPointers, "täglich"));
+		serviceDays.writeShort(0);
+		serviceDays.writeShort(1);
+		serviceDays.write(0x80);
+
+		// attribute lists start on a multiple of four
+		final LittleEndianWriter attrs = new LittleEndianWriter();
+		final int noAttrs = attrs(attrs, strings, stringPointers);
+		final int u2Attrs = attrs(attrs, strings, stringPointers, "Direction", "S+U Pankow (Berlin)", "Category", "U", "Operator", "BVG");
+		final int u2ReverseAttrs = attrs(attrs, strings, stringPointers, "Direction", "U Ruhleben (Berlin)", "Category", "U", "Operator",
+				"BVG");
+		final int[] tripAttrs = new int[BINARY_TRIPS];
+		for (int iTrip = 0; iTrip < BINARY_TRIPS; iTrip++)
+			tripAttrs[iTrip] = attrs(attrs, strings, stringPointers, "ConnectionId", "C-" + iTrip);
+
+		final LittleEndianWriter tripHeaders = new LittleEndianWriter();
+		final LittleEndianWriter legs = new LittleEndianWriter();
+		final LittleEndianWriter tripDetails = new LittleEndianWriter();
+		final LittleEndianWriter stops = new LittleEndianWriter();
+		final int[] tripDetailsOffsets = new int[BINARY_TRIPS];
+		final int numLegs = 3;
+		final int legsBase = BINARY_TRIPS * 12;
+		int numStops = 0;
+
+		for (int iTrip = 0; iTrip < BINARY_TRIPS; iTrip++)
+		{
+			final int start = 13 * 60 + 5 + iTrip * 10;
+			tripHeaders.writeShort(0);
+			tripHeaders.writeInt(legsBase + legs.size());
+			tripHeaders.writeShort(numLegs);
+			tripHeaders.writeShort(1);
+			tripHeaders.writeShort(hhmm(25));
+
+			tripDetailsOffsets[iTrip] = tripDetails.size();
+			tripDetails.writeShort(0); // realtime status
+			tripDetails.writeShort(0); // delay
+
+			// first public leg: station 0 to 5, second one: station 7 to 11, walk in between
+			final int[][] legStations = { { 0, 5 }, { 5, 7 }, { 7, 11 } };
+			final int[] legTypes = { 2, 1, 2 };
+			final String[] lineNames = { "U2", null, "U2" };
+			final int[] legAttrs = { u2Attrs, noAttrs, u2ReverseAttrs };
+			int time = start;
+			for (int iLeg = 0; iLeg < numLegs; iLeg++)
+			{
+				final int from = legStations[iLeg][0];
+				final int to = legStations[iLeg][1];
+				final int departure = time;
+				final int arrival = departure + (to - from) * 2;
+				final boolean isPublic = legTypes[iLeg] == 2;
+
+				legs.writeShort(hhmm(departure));
+				legs.writeShort(from);
+				legs.writeShort(hhmm(arrival));
+				legs.writeShort(to);
+				legs.writeShort(legTypes[iLeg]);
+				legs.writeShort(lineNames[iLeg] != null ? string(strings, stringPointers, lineNames[iLeg]) : 0);
+				legs.writeShort(isPublic ? string(strings, stringPointers, "Gleis " + (iLeg + 1)) : 0);
+				legs.writeShort(isPublic ? string(strings, stringPointers, "Gleis " + (iLeg + 2)) : 0);
+				legs.writeShort(legAttrs[iLeg]);
+				legs.writeShort(isPublic && iTrip % 2 == 0 ? wheelChairComment : 0);
+
+				final int legStops = isPublic ? to - from - 1 : 0;
+				tripDetails.writeShort(isPublic ? hhmm(departure + iTrip % 2) : 0xffff);
+				tripDetails.writeShort(isPublic ? hhmm(arrival + iTrip % 2) : 0xffff);
+				tripDetails.writeShort(0);
+				tripDetails.writeShort(0);
+				tripDetails.writeInt(0);
+				tripDetails.writeShort(legStops > 0 ? numStops : 0);
+				tripDetails.writeShort(legStops);
+
+				for (int iStop = 0; iStop < legStops; iStop++)
+				{
+					final int stopTime = departure + (iStop + 1) * 2;
+					stops.writeShort(hhmm(stopTime));
+					stops.writeShort(hhmm(stopTime));
+					stops.writeShort(0);
+					stops.writeShort(0);
+					stops.writeInt(0);
+					stops.writeShort(hhmm(stopTime + iTrip % 2));
+					stops.writeShort(hhmm(stopTime + iTrip % 2));
+					stops.writeShort(0);
+					stops.writeShort(0);
+					stops.writeInt(0);
+					stops.writeShort(from + iStop + 1);
+					numStops++;
+				}
+
+				time = arrival + 1;
+			}
+		}
+
+		// trip details: header, index, entries, stops
+		final LittleEndianWriter details = new LittleEndianWriter();
+		final int detailsHeaderSize = 14 + BINARY_TRIPS * 2;
+		details.writeShort(1);
+		details.writeShort(0);
+		details.writeShort(14);
+		details.writeShort(4);
+		details.writeShort(16);
+		details.writeShort(26);
+		details.writeShort(detailsHeaderSize + tripDetails.size());
+		for (int iTrip = 0; iTrip < BINARY_TRIPS; iTrip++)
+			details.writeShort(detailsHeaderSize + tripDetailsOffsets[iTrip]);
+		details.write(tripDetails);
+		details.write(stops);
+
+		final int requestId = string(strings, stringPointers, "50.02345678.1391256000");
+		final int encoding = string(strings, stringPointers, "iso-8859-1");
+		final int ld = string(strings, stringPointers, "fahrinfo2");
+		final int departureName = string(strings, stringPointers, (String) BINARY_STATIONS[0][0]);
+		final int arrivalName = string(strings, stringPointers, (String) BINARY_STATIONS[BINARY_STATIONS.length - 1][0]);
+
+		// the tables follow the legs in this order, some lengths are implied by the next table
+		final int stringTablePtr = 0x4a + legsBase + legs.size();
+		final int serviceDaysTablePtr = stringTablePtr + strings.size();
+		final int stationTablePtr = serviceDaysTablePtr + serviceDays.size();
+		final int commentTablePtr = stationTablePtr + stations.size();
+		final int tripDetailsPtr = commentTablePtr + comments.size();
+		final int attrsOffset = tripDetailsPtr + details.size();
+		final int tripAttrsPtr = attrsOffset + attrs.size();
+		final int extensionHeaderPtr = tripAttrsPtr + BINARY_TRIPS * 2;
+
+		final LittleEndianWriter out = new LittleEndianWriter();
+		out.writeShort(6);
+		writeLocation(out, departureName, BINARY_STATIONS[0]);
+		writeLocation(out, arrivalName, BINARY_STATIONS[BINARY_STATIONS.length - 1]);
+		out.writeShort(BINARY_TRIPS);
+		out.writeInt(serviceDaysTablePtr);
+		out.writeInt(stringTablePtr);
+		out.writeShort(daysSince1980(2014, Calendar.FEBRUARY, 1));
+		out.writeShort(daysSince1980(2014, Calendar.FEBRUARY, 1));
+		out.pad(0x36);
+		out.writeInt(stationTablePtr);
+		out.writeInt(commentTablePtr);
+		out.pad(0x46);
+		out.writeInt(extensionHeaderPtr);
+		out.write(tripHeaders);
+		out.write(legs);
+		out.write(strings);
+		out.write(serviceDays);
+		out.write(stations);
+		out.write(comments);
+		out.write(details);
+		out.write(attrs);
+		for (int iTrip = 0; iTrip < BINARY_TRIPS; iTrip++)
+			out.writeShort(tripAttrs[iTrip]);
+
+		final int extensionHeaderLength = 0x32;
+		out.writeInt(extensionHeaderLength);
+		out.writeInt(0);
+		out.writeShort(1); // sequence number
+		out.writeShort(requestId);
+		out.writeInt(tripDetailsPtr);
+		out.writeShort(0); // error code
+		out.pad(extensionHeaderPtr + 0x20);
+		out.writeShort(encoding);
+		out.writeShort(ld);
+		out.writeInt(attrsOffset);
+		out.pad(extensionHeaderPtr + 0x2c);
+		out.writeInt(tripAttrsPtr);
+		out.pad(extensionHeaderPtr + extensionHeaderLength);
+
+		return out.toByteArray();
+	}
+
+	private static void writeLocation(final LittleEndianWriter out, final int name, final Object[] station)
+	{
+		out.writeShort(name);
+		out.writeShort(0);
+		out.writeShort(1); // station
+		out.writeInt((Integer) station[2]);
+		out.writeInt((Integer) station[3]);
+	}
+
+	private static int string(final LittleEndianWriter strings, final Map<String, Integer> pointers, final String string)
+	{
+		Integer pointer = pointers.get(string);
+		if (pointer == null)
+		{
+			pointer = strings.size();
+			try
+			{
+				final byte[] bytes = string.getBytes("ISO-8859-1");
+				strings.write(bytes, 0, bytes.length);
+			}
+			catch (final UnsupportedEncodingException x)
+			{
+				throw new RuntimeException(x);
+			}
+			strings.write(0);
+			pointers.put(string, pointer);
+		}
+		return pointer;
+	}
+
+	/**
+	 * @return index of the list of key and value pairs
+	 */
+	private static int attrs(final LittleEndianWriter attrs, final LittleEndianWriter strings, final Map<String, Integer> pointers,
+			final String... keysAndValues)
+	{
+		final int index = attrs.size() / 4;
+		for (final String string : keysAndValues)
+			attrs.writeShort(string(strings, pointers, string));
+		attrs.writeShort(0);
+		attrs.pad((attrs.size() + 3) / 4 * 4);
+		return index;
+	}
+
+	private static int hhmm(final int minutes)
+	{
+		return minutes / 60 * 100 + minutes % 60;
+	}
+
+	private static int daysSince1980(final int year, final int month, final int day)
+	{
+		final Calendar date = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+		date.clear();
+		date.set(year, month, day);
+		final Calendar base = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+		base.clear();
+		base.set(1980, Calendar.JANUARY, 1);
+		// day 1 is the first of January
+		return (int) ((date.getTimeInMillis() - base.getTimeInMillis()) / (24 * 60 * 60 * 1000)) + 1;
+	}
+
+	private static final class LittleEndianWriter extends ByteArrayOutputStream
+	{
+		void writeShort(final int value)
+		{
+			write(value & 0xff);
+			write((value >> 8) & 0xff);
+		}
+
+		void writeInt(final int value)
+		{
+			writeShort(value & 0xffff);
+			writeShort((value >> 16) & 0xffff);
+		}
+
+		void write(final LittleEndianWriter other)
+		{
+			write(other.buf, 0, other.count);
+		}
+
+		void pad(final int size)
+		{
+			while (count < size)
+				write(0);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.schildbach.pte.util.HttpTransport;
+
+/**
+ * Answers the benchmark requests with generated responses of the size and shape the servers send, so the benchmarks
+ * run without recordings. Bodies are generated once per url and then served from memory.
+ */
+public class SyntheticTransport implements HttpTransport
+{
+	private final Map<String, byte[]> bodies = new HashMap<String, byte[]>();
+
+	public Response execute(final Request request) throws IOException
+	{
+		return new Response(200, "OK", request.url, null, null, Collections.<String, List<String>> emptyMap(), new ByteArrayInputStream(
+				body(request)));
+	}
+
+	private synchronized byte[] body(final Request request) throws IOException
+	{
+		final String key = request.toString() + (request.postBody != null ? '\n' + new String(request.postBody, "UTF-8") : "");
+		byte[] body = bodies.get(key);
+		if (body == null)
+		{
+			body = generate(request);
+			bodies.put(key, body);
+		}
+		return body;
+	}
+
+	private static byte[] generate(final Request request) throws IOException
+	{
+		final String path = request.url.getPath();
+		final Map<String, String> parameters = parameters(request);
+
+		if (path.endsWith("/XSLT_DM_REQUEST"))
+			return SyntheticResponses.efaDepartures(intParameter(parameters, "name_dm"));
+		else if (path.contains("/stboard.exe/"))
+			return SyntheticResponses.hafasStationBoard(intParameter(parameters, "input"));
+		else if (path.startsWith("/IstAbfahrtzeiten/"))
+			return SyntheticResponses.bvgLiveDepartures(intParameter(parameters, "input"));
+		else if (path.contains("/query.bin/"))
+			return SyntheticResponses.hafasBinaryTrips();
+		else
+			throw new FileNotFoundException("no synthetic response for " + request);
+	}
+
+	private static Map<String, String> parameters(final Request request) throws UnsupportedEncodingException
+	{
+		final Map<String, String> parameters = new HashMap<String, String>();
+		final String query = request.url.getQuery();
+		if (query != null)
+			parse(query, parameters);
+		if (request.postBody != null)
+			parse(new String(request.postBody, "UTF-8"), parameters);
+		return parameters;
+	}
+
+	private static void parse(final String query, final Map<String, String> parameters) throws UnsupportedEncodingException
+	{
+		for (final String parameter : query.split("&"))
+		{
+			final int equals = parameter.indexOf('=');
+			if (equals > 0)
+				parameters.put(parameter.substring(0, equals), URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+		}
+	}
+
+	private static int intParameter(final Map<String, String> parameters, final String name) throws FileNotFoundException
+	{
+		final String value = parameters.get(name);
+		if (value == null)
+			throw new FileNotFoundException("no synthetic response without " + name);
+		return Integer.parseInt(value);
+	}
+}
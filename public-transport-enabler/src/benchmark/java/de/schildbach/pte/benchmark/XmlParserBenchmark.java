@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import de.schildbach.pte.util.XmlPullParserPool;
+
+/**
+ * Cost of getting a pull parser for a small departure board: a factory lookup per request, as the HAFAS provider used
+ * to do, against a parser from {@link XmlPullParserPool}. Needs no recorded responses.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class XmlParserBenchmark
+{
+	private static final String DOCUMENT = "<?xml version=\"1.0\" encoding=\"iso-8859-1\"?>" //
+			+ "<StationTable>" //
+			+ "<Journey fpTime=\"12:01\" fpDate=\"01.02.14\" delay=\"0\" dir=\"Kassel Hbf\" prod=\"RT 4#RT\" />" //
+			+ "<Journey fpTime=\"12:05\" fpDate=\"01.02.14\" delay=\"2\" dir=\"Wolfhagen\" prod=\"Tram 3#Tram\" />" //
+			+ "<Journey fpTime=\"12:12\" fpDate=\"01.02.14\" delay=\"-\" dir=\"Baunatal\" prod=\"Bus 100#Bus\" />" //
+			+ "</StationTable>";
+
+	@Benchmark
+	public int factoryPerCall() throws XmlPullParserException, IOException
+	{
+		final XmlPullParserFactory factory = XmlPullParserFactory.newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME), null);
+		final XmlPullParser pp = factory.newPullParser();
+		return parse(pp);
+	}
+
+	@Benchmark
+	public int pooled() throws XmlPullParserException, IOException
+	{
+		final XmlPullParser pp = XmlPullParserPool.obtain();
+		try
+		{
+			return parse(pp);
+		}
+		finally
+		{
+			XmlPullParserPool.recycle(pp);
+		}
+	}
+
+	private static int parse(final XmlPullParser pp) throws XmlPullParserException, IOException
+	{
+		pp.setInput(new StringReader(DOCUMENT));
+
+		int journeys = 0;
+		for (int type = pp.getEventType(); type != XmlPullParser.END_DOCUMENT; type = pp.next())
+			if (type == XmlPullParser.START_TAG && "Journey".equals(pp.getName()))
+				journeys++;
+		return journeys;
+	}
+}